@@ -40,7 +40,8 @@
 	private boolean errorEnabled = true;
 	private boolean fatalEnabled = true;
 
-	private PrintStream s = System.err;
+	// volatile and one println per message, so that the log can be used from several threads
+	private volatile PrintStream s = System.err;
 
 	public PrintStream getStream () { return s; }
 	public void setStream (PrintStream aStream) { s = aStream; }
@@ -106,8 +107,7 @@ public void trace (String msg)
 	{
 		if (traceEnabled)
 		{
-			s.printf (FORMAT_STRING , logTimer.look() / 1000.0f);
-			s.println ("Trace: " + msg);
+			s.println (String.format (FORMAT_STRING , logTimer.look() / 1000.0f) + "Trace: " + msg);
 		}
 	}
 
@@ -115,8 +115,7 @@ public void debug (String msg)
 	{
 		if (debugEnabled)
 		{
-			s.printf (FORMAT_STRING , logTimer.look() / 1000.0f);
-			s.println ("Debug: " + msg);
+			s.println (String.format (FORMAT_STRING , logTimer.look() / 1000.0f) + "Debug: " + msg);
 		}
 	}
 
@@ -124,8 +123,7 @@ public void info  (String msg)
 	{
 		if (infoEnabled)
 		{
-			s.printf (FORMAT_STRING , logTimer.look() / 1000.0f);
-			s.println ("Info:  " + msg);
+			s.println (String.format (FORMAT_STRING , logTimer.look() / 1000.0f) + "Info:  " + msg);
 		}
 	}
 
@@ -58,6 +58,9 @@
 
 	private ConnectorRestrictions restrictions;
 
+	// end point of the connector, for linked points it's expensive to ask the restrictions each time
+	private Point2D target;
+
 	// some stats
 	private int nodesOpened = 0;
 	private int maxQueueSize = 0;
@@ -67,7 +70,8 @@
 	private void openNode(AStarNode n)
 	{
 		int i = n.getPosAsInt();
-		if (!opened.containsKey(i) || opened.get(i) > n.g)
+		Double g = opened.get(i);
+		if (g == null || g > n.g)
 		{
 			open.add (n);
 			opened.put (i, n.g);
@@ -80,14 +84,16 @@ private void openNode(AStarNode n)
 		this.restrictions = restrictions;
 	}
 
-	// calculate the segments
+	// calculate the segments, or null if there is no route within the limits
 	Segment[] getSegmentsAStar()
 	{
-		Logger.log.info ("ASTAR; calculation start");
+		Logger.log.debug ("ASTAR; calculation start");
 
-		// put start node on the queue
-		Point2D target = restrictions.getEndPoint();
-		open.add(new AStarNode (restrictions.getStartPoint(), AStarNode.DIR_N, target));
+		// put start node on the queue, heading away from the side of the start element
+		target = restrictions.getEndPoint();
+		int startDir = restrictions.getStartSide();
+		if (startDir < AStarNode.DIR_N || startDir > AStarNode.DIR_W) startDir = AStarNode.DIR_N;
+		open.add(new AStarNode (restrictions.getStartPoint(), startDir, target));
 
 		AStarNode curr;
 		AStarNode end = null;
@@ -104,21 +110,21 @@ Segment[] getSegmentsAStar()
 			else
 			{
 				// open node in current direction
-				openNode (new AStarNode (curr, curr.dir, ASTAR_STEP_SIZE, restrictions));
+				openNode (new AStarNode (curr, curr.dir, ASTAR_STEP_SIZE, restrictions, target));
 
 				// open nodes in orthogonal directions
 				if (curr.dir == AStarNode.DIR_N ||
 					curr.dir == AStarNode.DIR_S)
 				{
 					// open east and west nodes
-					openNode (new AStarNode (curr, AStarNode.DIR_W, ASTAR_STEP_SIZE, restrictions));
-					openNode (new AStarNode (curr, AStarNode.DIR_E, ASTAR_STEP_SIZE, restrictions));
+					openNode (new AStarNode (curr, AStarNode.DIR_W, ASTAR_STEP_SIZE, restrictions, target));
+					openNode (new AStarNode (curr, AStarNode.DIR_E, ASTAR_STEP_SIZE, restrictions, target));
 				}
 				else
 				{
 					// open north and south nodes
-					openNode (new AStarNode (curr, AStarNode.DIR_N, ASTAR_STEP_SIZE, restrictions));
-					openNode (new AStarNode (curr, AStarNode.DIR_S, ASTAR_STEP_SIZE, restrictions));
+					openNode (new AStarNode (curr, AStarNode.DIR_N, ASTAR_STEP_SIZE, restrictions, target));
+					openNode (new AStarNode (curr, AStarNode.DIR_S, ASTAR_STEP_SIZE, restrictions, target));
 				}
 			}
 
@@ -136,12 +142,7 @@ Segment[] getSegmentsAStar()
 		if (end == null)
 		{
 			// could not find a valid route within reasonable limits.
-			result = new Segment[] {
-					new Segment (
-							restrictions.getStartPoint(),
-							restrictions.getEndPoint()
-							)
-					};
+			result = null;
 		}
 		else
 		{
@@ -168,17 +169,18 @@ Segment[] getSegmentsAStar()
 			result = resultList.toArray(new Segment[0]);
 		}
 
-		Logger.log.info ("ASTAR; calculation ended; max queue size: "
+		Logger.log.debug ("ASTAR; calculation ended; max queue size: "
 				+ maxQueueSize + "; nodes opened " + nodesOpened);
 		return result;
 	}
 
 	private static class AStarNode implements Comparable<AStarNode>
 	{
-		static final int DIR_N = 0;
-		static final int DIR_E = 1;
-		static final int DIR_S = 2;
-		static final int DIR_W = 3;
+		// same values as the ConnectorRestrictions.SIDE_* constants
+		static final int DIR_N = ConnectorRestrictions.SIDE_NORTH;
+		static final int DIR_E = ConnectorRestrictions.SIDE_EAST;
+		static final int DIR_S = ConnectorRestrictions.SIDE_SOUTH;
+		static final int DIR_W = ConnectorRestrictions.SIDE_WEST;
 
 		private final double[] tblDx = {0, 1, 0, -1};
 		private final double[] tblDy = {-1, 0, 1, 0};
@@ -208,7 +210,7 @@ private double calculateH (Point2D target)
 			return Math.abs (hdx) + Math.abs (hdy);
 		}
 
-		AStarNode(AStarNode parent, int dir, double dist, ConnectorRestrictions restrictions)
+		AStarNode(AStarNode parent, int dir, double dist, ConnectorRestrictions restrictions, Point2D target)
 		{
 			if (parent == null) throw new NullPointerException();
 
@@ -235,7 +237,7 @@ private double calculateH (Point2D target)
 			}
 
 			// calculate h
-			h = calculateH(restrictions.getEndPoint());
+			h = calculateH(target);
 		}
 
 		// calculate a more or less unique (one-dimensional) integer for this node position
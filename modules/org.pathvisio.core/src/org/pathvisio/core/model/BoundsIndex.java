@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.model;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Package private.
+ *
+ * Spatial index of the bounds of the shapes, data nodes and labels in a pathway,
+ * the objects that connectors try to route around.
+ * <p>
+ * The index is a grid of fixed size cells, each holding the elements whose bounds overlap it,
+ * so a query only looks at the elements near a point. It's built on the first query,
+ * and after that kept up to date by the parent {@link Pathway} when elements are added,
+ * removed or moved. As long as nobody queries it, updates cost nothing.
+ * <p>
+ * The index also keeps the bounds of the routes calculated with it (see {@link #addRoute}).
+ * When an obstacle changes, only the routes that meet its old or new bounds are dropped.
+ */
+class BoundsIndex
+{
+	private static final double CELL_SIZE = 100.0;
+	/** elements covering more cells than this are not put in the grid, but always checked */
+	private static final int MAX_CELLS = 1024;
+
+	private final Pathway pathway;
+
+	/** null until the first query */
+	private Map<Long, List<PathwayElement>> cells = null;
+	/** elements that are too large for the grid, or have invalid bounds */
+	private final List<PathwayElement> large = new ArrayList<PathwayElement>();
+	/** bounds of each element at the time it was put in the cells */
+	private final Map<PathwayElement, Rectangle2D> indexed = new HashMap<PathwayElement, Rectangle2D>();
+
+	/** bounds of the valid routes, by line */
+	private final Map<MLine, Rectangle2D> routes = new IdentityHashMap<MLine, Rectangle2D>();
+
+	BoundsIndex(Pathway pathway)
+	{
+		this.pathway = pathway;
+	}
+
+	/** true for the types of element that are in the index */
+	static boolean isObstacle(PathwayElement e)
+	{
+		ObjectType ot = e.getObjectType();
+		return ot == ObjectType.SHAPE || ot == ObjectType.DATANODE || ot == ObjectType.LABEL;
+	}
+
+	/**
+	 * Called by a routed connector after calculating its route.
+	 * The route stays valid until an obstacle that meets the given bounds is added, moved or removed.
+	 */
+	void addRoute(MLine line, Rectangle2D bounds)
+	{
+		if (cells == null) build();
+		routes.put(line, bounds);
+	}
+
+	/** true if the route of the line was calculated with this index, and no obstacle near it has changed since */
+	boolean isRouteValid(MLine line)
+	{
+		return routes.containsKey(line);
+	}
+
+	/**
+	 * called by the pathway when an element is added or its coordinates change
+	 * @return the lines whose route was dropped, because they meet the old or new bounds of the element
+	 */
+	List<MLine> update(PathwayElement e)
+	{
+		if (!isObstacle(e) || cells == null) return Collections.emptyList();
+		Rectangle2D old = removeFromCells(e);
+		Rectangle2D current = null;
+		if (e.getParent() == pathway) current = addToCells(e);
+		return dropRoutes(old, current);
+	}
+
+	/**
+	 * called by the pathway when an element is removed
+	 * @return the lines whose route was dropped, because they meet the bounds of the element
+	 */
+	List<MLine> remove(PathwayElement e)
+	{
+		if (e instanceof MLine) routes.remove(e);
+		if (!isObstacle(e) || cells == null) return Collections.emptyList();
+		return dropRoutes(removeFromCells(e), null);
+	}
+
+	private List<MLine> dropRoutes(Rectangle2D old, Rectangle2D current)
+	{
+		List<MLine> result = new ArrayList<MLine>();
+		for (Iterator<Map.Entry<MLine, Rectangle2D>> it = routes.entrySet().iterator(); it.hasNext(); )
+		{
+			Map.Entry<MLine, Rectangle2D> route = it.next();
+			if (meets(route.getValue(), old) || meets(route.getValue(), current))
+			{
+				result.add(route.getKey());
+				it.remove();
+			}
+		}
+		return result;
+	}
+
+	/** like Rectangle2D.intersects, but also true if the rectangles only touch, and false for null */
+	private static boolean meets(Rectangle2D a, Rectangle2D b)
+	{
+		return b != null && a.getMinX() <= b.getMaxX() && b.getMinX() <= a.getMaxX() &&
+				a.getMinY() <= b.getMaxY() && b.getMinY() <= a.getMaxY();
+	}
+
+	/**
+	 * Same result as scanning all obstacles in the pathway.
+	 * @return the union of the bounds of all obstacles that contain the point, or null if there are none.
+	 */
+	Rectangle2D getBoundsAt(Point2D p)
+	{
+		if (cells == null) build();
+		Rectangle2D result = null;
+		for (PathwayElement e : large)
+		{
+			result = addIfContains(result, indexed.get(e), p);
+		}
+		int[] r = cellRange(new Rectangle2D.Double(p.getX(), p.getY(), 0, 0));
+		List<PathwayElement> cell = r == null ? null : cells.get(key(r[0], r[1]));
+		if (cell != null)
+		{
+			for (PathwayElement e : cell)
+			{
+				result = addIfContains(result, indexed.get(e), p);
+			}
+		}
+		return result;
+	}
+
+	private static Rectangle2D addIfContains(Rectangle2D result, Rectangle2D b, Point2D p)
+	{
+		if (!b.contains(p)) return result;
+		if (result == null) return new Rectangle2D.Double(b.getX(), b.getY(), b.getWidth(), b.getHeight());
+		result.add(b);
+		return result;
+	}
+
+	private void build()
+	{
+		cells = new HashMap<Long, List<PathwayElement>>();
+		for (PathwayElement e : pathway.getDataObjects())
+		{
+			if (isObstacle(e)) addToCells(e);
+		}
+	}
+
+	/** @return the bounds the element was put in the index with */
+	private Rectangle2D addToCells(PathwayElement e)
+	{
+		Rectangle2D b = e.getMBounds();
+		indexed.put(e, b);
+		int[] r = cellRange(b);
+		if (r == null || (long)(r[2] - r[0] + 1) * (r[3] - r[1] + 1) > MAX_CELLS)
+		{
+			large.add(e);
+			return b;
+		}
+		for (int x = r[0]; x <= r[2]; ++x)
+		{
+			for (int y = r[1]; y <= r[3]; ++y)
+			{
+				Long key = key(x, y);
+				List<PathwayElement> cell = cells.get(key);
+				if (cell == null)
+				{
+					cell = new ArrayList<PathwayElement>();
+					cells.put(key, cell);
+				}
+				cell.add(e);
+			}
+		}
+		return b;
+	}
+
+	/** @return the bounds the element was in the index with, or null if it wasn't in the index */
+	private Rectangle2D removeFromCells(PathwayElement e)
+	{
+		Rectangle2D b = indexed.remove(e);
+		if (b == null) return null;
+		if (large.remove(e)) return b;
+		int[] r = cellRange(b);
+		for (int x = r[0]; x <= r[2]; ++x)
+		{
+			for (int y = r[1]; y <= r[3]; ++y)
+			{
+				Long key = key(x, y);
+				List<PathwayElement> cell = cells.get(key);
+				if (cell == null) continue;
+				cell.remove(e);
+				if (cell.isEmpty()) cells.remove(key);
+			}
+		}
+		return b;
+	}
+
+	/**
+	 * Range of cells covered by a rectangle, as {minX, minY, maxX, maxY},
+	 * or null if the rectangle is not finite or too far out for the grid.
+	 */
+	private static int[] cellRange(Rectangle2D b)
+	{
+		double limit = Integer.MAX_VALUE * CELL_SIZE / 2;
+		// also false for NaN
+		if (!(Math.abs(b.getMinX()) <= limit && Math.abs(b.getMinY()) <= limit &&
+				Math.abs(b.getMaxX()) <= limit && Math.abs(b.getMaxY()) <= limit))
+		{
+			return null;
+		}
+		return new int[] {
+			(int)Math.floor(b.getMinX() / CELL_SIZE), (int)Math.floor(b.getMinY() / CELL_SIZE),
+			(int)Math.floor(b.getMaxX() / CELL_SIZE), (int)Math.floor(b.getMaxY() / CELL_SIZE)
+		};
+	}
+
+	private static Long key(int x, int y)
+	{
+		return ((long)x << 32) | (y & 0xFFFFFFFFL);
+	}
+}
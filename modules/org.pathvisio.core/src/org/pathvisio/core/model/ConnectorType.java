@@ -32,6 +32,7 @@
  * ELBOW -> connects with horizontal or vertical segments and 90-degree angles
  * CURVED -> uses splines to generate a smooth curve while keeping the end-points
  * 	perpendicular to the connecting element.
+ * ROUTED -> like ELBOW, but finds a path around other objects on the drawing
  */
 public class ConnectorType implements Comparable<ConnectorType> {
 	private static Map<String, ConnectorType> nameMappings = new HashMap<String, ConnectorType>();
@@ -41,6 +42,7 @@ public class ConnectorType implements Comparable<ConnectorType> {
 	public static final ConnectorType ELBOW = new ConnectorType ("Elbow");
 	public static final ConnectorType CURVED = new ConnectorType ("Curved");
 	public static final ConnectorType SEGMENTED = new ConnectorType("Segmented");
+	public static final ConnectorType ROUTED = new ConnectorType("Routed");
 
 	private String name;
 
@@ -16,13 +16,14 @@
  ******************************************************************************/
 package org.pathvisio.core.model;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.util.zip.GZIPInputStream;
 
 import org.bridgedb.DataSource;
 import org.bridgedb.bio.DataSourceTxt;
@@ -56,6 +57,23 @@ public class GpmlFormat extends AbstractPathwayFormat
 		if (!DataSource.fullNameExists("Ensembl")) DataSourceTxt.init();
 	}
 
+	private static volatile boolean streamingReader = true;
+
+	/**
+	 * Choose how GPML is read. The streaming reader (the default) maps elements while
+	 * parsing the file, without keeping a JDOM tree of the whole document in memory.
+	 * The other reader builds the complete JDOM tree first. Both give the same result.
+	 */
+	public static void setStreamingReader(boolean value)
+	{
+		streamingReader = value;
+	}
+
+	public static boolean isStreamingReader()
+	{
+		return streamingReader;
+	}
+
 	public Pathway doImport(File file) throws ConverterException
 	{
 		Pathway pathway = new Pathway();
@@ -103,6 +121,16 @@ static public void writeToXml(Pathway pwy, File file, boolean validate) throws C
 		CURRENT.writeToXml(pwy, file, validate);
 	}
 
+	/**
+	 * Writes the pathway to the file specified, optionally compressed with gzip.
+	 * Compressed files can be read again with readFromXml, which recognizes gzip by itself.
+	 * @param gzip if true, compress the file with gzip.
+	 */
+	static public void writeToXml(Pathway pwy, File file, boolean validate, boolean gzip) throws ConverterException
+	{
+		new GpmlStreamWriter(CURRENT).write(pwy, file, validate, gzip);
+	}
+
 	static public void writeToXml(Pathway pwy, OutputStream out, boolean validate) throws ConverterException
 	{
 		CURRENT.writeToXml(pwy, out, validate);
@@ -110,21 +138,44 @@ static public void writeToXml(Pathway pwy, OutputStream out, boolean validate) t
 
 	static public void readFromXml(Pathway pwy, File file, boolean validate) throws ConverterException
 	{
-		InputStream inf;
 		try
 		{
-			inf = new FileInputStream (file);
+			InputStream inf = new FileInputStream (file);
+			try
+			{
+				readFromXmlImpl (pwy, new InputSource(unzipIfNeeded(inf)), validate);
+			}
+			finally
+			{
+				inf.close();
+			}
 		}
-		catch (FileNotFoundException e)
+		catch (IOException e)
 		{
 			throw new ConverterException (e);
 		}
-		readFromXmlImpl (pwy, new InputSource(inf), validate);
 	}
 
 	static public void readFromXml(Pathway pwy, InputStream in, boolean validate) throws ConverterException
 	{
-		readFromXmlImpl (pwy, new InputSource(in), validate);
+		try
+		{
+			readFromXmlImpl (pwy, new InputSource(unzipIfNeeded(in)), validate);
+		}
+		catch (IOException e)
+		{
+			throw new ConverterException (e);
+		}
+	}
+
+	/** wrap a stream with a GZIPInputStream if it starts with the gzip magic number */
+	private static InputStream unzipIfNeeded(InputStream in) throws IOException
+	{
+		BufferedInputStream bin = new BufferedInputStream(in);
+		bin.mark(2);
+		int magic = bin.read() | (bin.read() << 8);
+		bin.reset();
+		return magic == GZIPInputStream.GZIP_MAGIC ? new GZIPInputStream(bin) : bin;
 	}
 
 	static public void readFromXml(Pathway pwy, Reader in, boolean validate) throws ConverterException
@@ -132,13 +183,17 @@ static public void readFromXml(Pathway pwy, Reader in, boolean validate) throws
 		readFromXmlImpl (pwy, new InputSource(in), validate);
 	}
 
-	public static GpmlFormatReader getReaderForNamespace (Namespace ns)
+	static GpmlFormatReader[] getReaders()
 	{
-		GpmlFormatReader[] formats = new GpmlFormatReader[]
+		return new GpmlFormatReader[]
 		{ 
 				GpmlFormat200X.GPML_2007, GpmlFormat200X.GPML_2008A, GpmlFormat2010a.GPML_2010A , GpmlFormat2013a.GPML_2013A 
 		};
-		for (GpmlFormatReader format : formats)
+	}
+
+	public static GpmlFormatReader getReaderForNamespace (Namespace ns)
+	{
+		for (GpmlFormatReader format : getReaders())
 		{
 			if (ns.equals(format.getGpmlNamespace()))
 			{
@@ -150,6 +205,12 @@ public static GpmlFormatReader getReaderForNamespace (Namespace ns)
 
 	private static void readFromXmlImpl(Pathway pwy, InputSource in, boolean validate) throws ConverterException
 	{
+		if (streamingReader)
+		{
+			GpmlStreamReader.read(pwy, in, validate);
+			return;
+		}
+
 		// Start XML processing
 
 		SAXBuilder builder  = new SAXBuilder(false); // no validation when reading the xml file
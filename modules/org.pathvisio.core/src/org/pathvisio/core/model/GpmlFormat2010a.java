@@ -324,6 +324,13 @@ public Element createJdomElement(PathwayElement o) throws ConverterException
 		return e;
 	}
 
+	@Override
+	boolean isStreamable()
+	{
+		// elements don't depend on their siblings
+		return true;
+	}
+
 	/**
 	   Create a single PathwayElement based on a piece of Jdom tree. Used also by Patch utility
 	   Pathway p may be null
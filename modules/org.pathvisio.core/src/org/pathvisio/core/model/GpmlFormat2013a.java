@@ -18,8 +18,6 @@
 
 import java.awt.Color;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -33,8 +31,6 @@
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.Namespace;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
 import org.pathvisio.core.biopax.BiopaxElement;
 import org.pathvisio.core.model.PathwayElement.MAnchor;
 import org.pathvisio.core.model.PathwayElement.MPoint;
@@ -356,6 +352,13 @@ public Element createJdomElement(PathwayElement o) throws ConverterException
 		return e;
 	}
 
+	@Override
+	boolean isStreamable()
+	{
+		// elements don't depend on their siblings
+		return true;
+	}
+
 	/**
 	   Create a single PathwayElement based on a piece of Jdom tree. Used also by Patch utility
 	   Pathway p may be null
@@ -874,46 +877,19 @@ public int compare(Element e1, Element e2) {
 	 * @throws ConverterException
 	 */
 	public void writeToXml(Pathway pwy, OutputStream out, boolean validate) throws ConverterException {
-		Document doc = createJdom(pwy);
-		
-		//Validate the JDOM document
-		if (validate) validateDocument(doc);
-		//			Get the XML code
-		XMLOutputter xmlcode = new XMLOutputter(Format.getPrettyFormat());
-		Format f = xmlcode.getFormat();
-		f.setEncoding("UTF-8");
-		f.setTextMode(Format.TextMode.NORMALIZE);
-		xmlcode.setFormat(f);
-
-		try
-		{
-			//Send XML code to the outputstream
-			xmlcode.output(doc, out);
-		}
-		catch (IOException ie)
-		{
-			throw new ConverterException(ie);
-		}
+		// Writes the same as createJdom followed by XMLOutputter, without building the whole document
+		new GpmlStreamWriter(this).write(pwy, out, validate);
 	}
 
 	/**
 	 * Writes the JDOM document to the file specified
 	 * @param file	the file to which the JDOM document should be saved
 	 * @param validate if true, validate the dom structure before writing to file. If there is a validation error,
-	 * 		or the xsd is not in the classpath, an exception will be thrown.
+	 * 		or the xsd is not in the classpath, an exception will be thrown and an existing file is left as it was.
 	 */
 	public void writeToXml(Pathway pwy, File file, boolean validate) throws ConverterException
 	{
-		OutputStream out;
-		try
-		{
-			out = new FileOutputStream(file);
-		}
-		catch (IOException ex)
-		{
-			throw new ConverterException (ex);
-		}
-		writeToXml (pwy, out, validate);
+		new GpmlStreamWriter(this).write(pwy, file, validate, false);
 	}
 
 	protected void mapSimpleCenter(PathwayElement o, Element e)
@@ -18,6 +18,7 @@
 
 import java.awt.Color;
 import java.awt.geom.Point2D;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -26,6 +27,7 @@
 import java.util.Map;
 
 import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
@@ -226,8 +228,12 @@ public ByElementName()
 		 * If a.getName() is Comment and b.getName() is Graphics, returns 1-2 -> -1
 		 */
 		public int compare(Element a, Element b) {
-			return ((Integer)elementOrdering.get(a.getName())).intValue() -
-				((Integer)elementOrdering.get(b.getName())).intValue();
+			return getIndex(a.getName()) - getIndex(b.getName());
+		}
+
+		/** position of elements with the given tag name in the elements array */
+		int getIndex(String name) {
+			return ((Integer)elementOrdering.get(name)).intValue();
 		}
 
 	}
@@ -590,6 +596,23 @@ public void readFromRoot(Element root, Pathway pwy) throws ConverterException
 		}
 		Logger.log.trace ("End copying map elements");
 
+		finishReading(pwy);
+	}
+
+	/**
+	 * true if the children of the root element can be mapped one by one, while
+	 * the document is being read. See {@link GpmlStreamReader}
+	 */
+	boolean isStreamable()
+	{
+		return false;
+	}
+
+	/**
+	 * Final step of reading, after all elements have been mapped.
+	 */
+	void finishReading(Pathway pwy) throws ConverterException
+	{
 		//Add graphIds for objects that don't have one
 		addGraphIds(pwy);
 
@@ -663,42 +686,109 @@ private static void convertPointCoordinates(Pathway pathway) throws ConverterExc
 		}
 	}
 
+	/**
+	 * Compiled schemas, by comma-separated list of xsd files.
+	 * Compiling a schema is expensive, and a compiled schema is thread-safe,
+	 * so each is compiled only once.
+	 */
+	private static final Map<String, Schema> schemas = new HashMap<String, Schema>();
+
+	/**
+	 * The compiled xml-schema definition specified by 'xsdFile'.
+	 * Compiled on first use, and cached after that.
+	 */
+	public Schema getSchema() throws ConverterException
+	{
+		return getSchema(new String[] { xsdFile });
+	}
+
+	/**
+	 * A single compiled schema for several GPML versions, to validate
+	 * a document while reading it, before its version is known.
+	 * Each version has its own namespace, so their schemas can be combined.
+	 */
+	static Schema getSchema(GpmlFormatVersion[] formats) throws ConverterException
+	{
+		String[] xsdFiles = new String[formats.length];
+		for (int i = 0; i < formats.length; ++i)
+		{
+			xsdFiles[i] = ((GpmlFormatAbstract)formats[i]).xsdFile;
+		}
+		return getSchema(xsdFiles);
+	}
+
+	private static Schema getSchema(String[] xsdFiles) throws ConverterException
+	{
+		String key = Arrays.toString(xsdFiles);
+		synchronized (schemas)
+		{
+			Schema schema = schemas.get(key);
+			if (schema == null)
+			{
+				schema = compileSchema(xsdFiles);
+				schemas.put(key, schema);
+			}
+			return schema;
+		}
+	}
+
+	private static Schema compileSchema(String[] xsdFiles) throws ConverterException
+	{
+		ClassLoader cl = Pathway.class.getClassLoader();
+		InputStream[] streams = new InputStream[xsdFiles.length];
+		try
+		{
+			Source[] sources = new Source[xsdFiles.length];
+			for (int i = 0; i < xsdFiles.length; ++i)
+			{
+				streams[i] = cl.getResourceAsStream(xsdFiles[i]);
+				if (streams[i] == null)
+				{
+					Logger.log.error("Document is not validated because the xml schema definition '" +
+							xsdFiles[i] + "' could not be found in classpath");
+					throw new ConverterException ("Document is not validated because the xml schema definition '" +
+							xsdFiles[i] + "' could not be found in classpath");
+				}
+				sources[i] = new StreamSource (streams[i]);
+			}
+			SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+			return factory.newSchema(sources);
+		}
+		catch (SAXException se)
+		{
+			Logger.log.error("Could not parse the xml-schema definition", se);
+			throw new ConverterException (se);
+		}
+		finally
+		{
+			for (InputStream is : streams)
+			{
+				if (is == null) continue;
+				try { is.close(); } catch (IOException e) { Logger.log.warn ("Could not close xml schema definition", e); }
+			}
+		}
+	}
+
 	/**
 	 * validates a JDOM document against the xml-schema definition specified by 'xsdFile'
 	 * @param doc the document to validate
 	 */
 	public void validateDocument(Document doc) throws ConverterException
 	{
-		ClassLoader cl = Pathway.class.getClassLoader();
-		InputStream is = cl.getResourceAsStream(xsdFile);
-		if(is != null) {
-			Schema schema;
-			try {
-				SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-				StreamSource ss = new StreamSource (is);
-				schema = factory.newSchema(ss);
-				ValidatorHandler vh =  schema.newValidatorHandler();
-				SAXOutputter so = new SAXOutputter(vh);
-				so.output(doc);
-				// If no errors occur, the file is valid according to the gpml xml schema definition
-				Logger.log.info("Document is valid according to the xml schema definition '" +
-						xsdFile.toString() + "'");
-			} catch (SAXException se) {
-				Logger.log.error("Could not parse the xml-schema definition", se);
-				throw new ConverterException (se);
-			} catch (JDOMException je) {
-				Logger.log.error("Document is invalid according to the xml-schema definition!: " +
-						je.getMessage(), je);
-				XMLOutputter xmlcode = new XMLOutputter(Format.getPrettyFormat());
-
-				Logger.log.error("The invalid XML code:\n" + xmlcode.outputString(doc));
-				throw new ConverterException (je);
-			}
-		} else {
-			Logger.log.error("Document is not validated because the xml schema definition '" +
-					xsdFile + "' could not be found in classpath");
-			throw new ConverterException ("Document is not validated because the xml schema definition '" +
-					xsdFile + "' could not be found in classpath");
+		ValidatorHandler vh = getSchema().newValidatorHandler();
+		try {
+			SAXOutputter so = new SAXOutputter(vh);
+			so.output(doc);
+			// If no errors occur, the file is valid according to the gpml xml schema definition
+			Logger.log.info("Document is valid according to the xml schema definition '" +
+					xsdFile.toString() + "'");
+		} catch (JDOMException je) {
+			Logger.log.error("Document is invalid according to the xml-schema definition!: " +
+					je.getMessage(), je);
+			XMLOutputter xmlcode = new XMLOutputter(Format.getPrettyFormat());
+
+			Logger.log.error("The invalid XML code:\n" + xmlcode.outputString(doc));
+			throw new ConverterException (je);
 		}
 	}
 
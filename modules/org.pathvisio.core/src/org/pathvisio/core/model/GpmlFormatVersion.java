@@ -16,6 +16,8 @@
  ******************************************************************************/
 package org.pathvisio.core.model;
 
+import javax.xml.validation.Schema;
+
 import org.jdom2.Document;
 import org.jdom2.Namespace;
 
@@ -28,4 +30,10 @@ public interface GpmlFormatVersion
 	 * @param doc the document to validate
 	 */	
 	void validateDocument(Document doc) throws ConverterException;
+
+	/**
+	 * The compiled xml-schema definition for this version.
+	 * Compiled only once, so it's cheap to call repeatedly.
+	 */
+	Schema getSchema() throws ConverterException;
 }
@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.model;
+
+import java.net.URL;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.validation.ValidatorHandler;
+
+import org.jdom2.Attribute;
+import org.jdom2.Comment;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.ProcessingInstruction;
+import org.jdom2.Text;
+import org.pathvisio.core.debug.Logger;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Reads GPML from a StAX stream, without building a JDOM tree for the whole document.
+ * <p>
+ * For GPML versions that support it (see {@link GpmlFormatAbstract#isStreamable}), each child
+ * of the root element is built as a small JDOM element, mapped to a {@link PathwayElement}
+ * right away, and discarded. The peak memory is then the model plus a single element.
+ * The Biopax block is a single child as well, so it ends up in a small DOM of its own.
+ * Older versions of GPML are read into a complete tree and passed to {@link GpmlFormatReader#readFromRoot}.
+ * <p>
+ * When validating, all events are passed on to a validator for the schemas of all GPML versions,
+ * so validation happens in the same pass.
+ */
+class GpmlStreamReader
+{
+	private final XMLStreamReader xsr;
+	/** receives all events when validating, null otherwise */
+	private final ValidatorHandler validator;
+	private final AttributesImpl atts = new AttributesImpl();
+
+	private GpmlStreamReader(XMLStreamReader xsr, ValidatorHandler validator)
+	{
+		this.xsr = xsr;
+		this.validator = validator;
+	}
+
+	/**
+	 * Read a pathway.
+	 * @param in source to read from, must have a byte stream, a character stream or a system id.
+	 * @param validate if true, validate against the xml schema definition while reading.
+	 */
+	static void read(Pathway pwy, InputSource in, boolean validate) throws ConverterException
+	{
+		try
+		{
+			// a new factory each time, factories are not guaranteed to be thread-safe
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+			XMLStreamReader xsr;
+			if (in.getByteStream() != null)
+			{
+				xsr = factory.createXMLStreamReader(in.getSystemId(), in.getByteStream());
+			}
+			else if (in.getCharacterStream() != null)
+			{
+				xsr = factory.createXMLStreamReader(in.getSystemId(), in.getCharacterStream());
+			}
+			else
+			{
+				xsr = factory.createXMLStreamReader(new URL(in.getSystemId()).openStream());
+			}
+
+			ValidatorHandler validator = null;
+			if (validate)
+			{
+				validator = GpmlFormatAbstract.getSchema(GpmlFormat.getReaders()).newValidatorHandler();
+			}
+			try
+			{
+				new GpmlStreamReader(xsr, validator).readDocument(pwy);
+			}
+			finally
+			{
+				xsr.close();
+			}
+		}
+		catch (ConverterException e)
+		{
+			throw e;
+		}
+		catch (Exception e) { //Make all types of exceptions a ConverterException
+			throw new ConverterException (e);
+		}
+	}
+
+	private void readDocument(Pathway pwy) throws XMLStreamException, SAXException, ConverterException
+	{
+		if (validator != null) validator.startDocument();
+
+		while (xsr.next() != XMLStreamConstants.START_ELEMENT) { /* skip prolog */ }
+
+		Logger.log.trace ("Start reading root element");
+		Element root = startElement();
+		if (!root.getName().equals("Pathway"))
+		{
+			throw new ConverterException ("Not a Pathway file");
+		}
+
+		Namespace ns = root.getNamespace();
+		GpmlFormatReader format = GpmlFormat.getReaderForNamespace (ns);
+		if (format == null)
+		{
+			throw new ConverterException ("This file looks like a pathway, " +
+					"but the namespace " + ns + " was not recognized. This application might be out of date.");
+		}
+		Logger.log.info ("Recognized format " + ns);
+
+		GpmlFormatAbstract streamable = null;
+		if (format instanceof GpmlFormatAbstract && ((GpmlFormatAbstract)format).isStreamable())
+		{
+			streamable = (GpmlFormatAbstract)format;
+		}
+		if (streamable != null)
+		{
+			// map children as soon as they are complete.
+			// Children that don't map to an element (Comment, Graphics, etc.) belong to the root.
+			while (xsr.next() != XMLStreamConstants.END_ELEMENT)
+			{
+				if (xsr.getEventType() == XMLStreamConstants.START_ELEMENT)
+				{
+					Element child = readElement();
+					if (isObject(child)) streamable.mapElement(child, pwy);
+					else root.addContent(child);
+				}
+				else
+				{
+					readContent(null);
+				}
+			}
+			endElement();
+		}
+		else
+		{
+			readChildren(root);
+		}
+
+		while (xsr.hasNext()) xsr.next(); // check the rest of the document is well-formed
+		if (validator != null) validator.endDocument();
+
+		Logger.log.trace ("Copy map elements");
+		if (streamable != null)
+		{
+			// root is mapped last, so that all its children are known.
+			streamable.mapElement(root, pwy);
+			streamable.finishReading(pwy);
+		}
+		else
+		{
+			format.readFromRoot(root, pwy);
+		}
+	}
+
+	/** true if this child of the root element maps to a pathway element */
+	private static boolean isObject(Element e)
+	{
+		return e.getName().equals("Interaction") || ObjectType.getTagMapping(e.getName()) != null;
+	}
+
+	/**
+	 * Read an element and all its content.
+	 * The reader must be on the start tag, and will be on the end tag afterwards.
+	 */
+	private Element readElement() throws XMLStreamException, SAXException
+	{
+		Element e = startElement();
+		readChildren(e);
+		return e;
+	}
+
+	/** read all content of an element, up to and including its end tag */
+	private void readChildren(Element e) throws XMLStreamException, SAXException
+	{
+		while (xsr.next() != XMLStreamConstants.END_ELEMENT)
+		{
+			if (xsr.getEventType() == XMLStreamConstants.START_ELEMENT)
+			{
+				e.addContent(readElement());
+			}
+			else
+			{
+				readContent(e);
+			}
+		}
+		endElement();
+	}
+
+	/**
+	 * Handle anything but a start or end tag.
+	 * @param parent element to add the content to, or null to discard it.
+	 */
+	private void readContent(Element parent) throws SAXException
+	{
+		switch (xsr.getEventType())
+		{
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.CDATA:
+			if (validator != null) validator.characters(xsr.getTextCharacters(), xsr.getTextStart(), xsr.getTextLength());
+			if (parent != null) parent.addContent(new Text(xsr.getText()));
+			break;
+		case XMLStreamConstants.SPACE:
+			if (validator != null) validator.ignorableWhitespace(xsr.getTextCharacters(), xsr.getTextStart(), xsr.getTextLength());
+			if (parent != null) parent.addContent(new Text(xsr.getText()));
+			break;
+		case XMLStreamConstants.COMMENT:
+			if (parent != null) parent.addContent(new Comment(xsr.getText()));
+			break;
+		case XMLStreamConstants.PROCESSING_INSTRUCTION:
+			if (validator != null) validator.processingInstruction(xsr.getPITarget(), xsr.getPIData());
+			if (parent != null) parent.addContent(new ProcessingInstruction(xsr.getPITarget(), xsr.getPIData()));
+			break;
+		default:
+			break;
+		}
+	}
+
+	/** create an element from the current start tag, without content */
+	private Element startElement() throws SAXException
+	{
+		Namespace ns = Namespace.getNamespace(nonNull(xsr.getPrefix()), nonNull(xsr.getNamespaceURI()));
+		Element e = new Element(xsr.getLocalName(), ns);
+		for (int i = 0; i < xsr.getNamespaceCount(); ++i)
+		{
+			String prefix = nonNull(xsr.getNamespacePrefix(i));
+			String uri = nonNull(xsr.getNamespaceURI(i));
+			if (validator != null) validator.startPrefixMapping(prefix, uri);
+			if (prefix.equals(ns.getPrefix())) continue;
+			e.addNamespaceDeclaration(Namespace.getNamespace(prefix, uri));
+		}
+
+		atts.clear();
+		for (int i = 0; i < xsr.getAttributeCount(); ++i)
+		{
+			String prefix = nonNull(xsr.getAttributePrefix(i));
+			String uri = nonNull(xsr.getAttributeNamespace(i));
+			String name = xsr.getAttributeLocalName(i);
+			String value = xsr.getAttributeValue(i);
+			Namespace ans = uri.length() == 0 ? Namespace.NO_NAMESPACE : Namespace.getNamespace(prefix, uri);
+			e.setAttribute(new Attribute(name, value, ans));
+			if (validator != null)
+			{
+				atts.addAttribute(uri, name, qName(prefix, name), xsr.getAttributeType(i), value);
+			}
+		}
+
+		if (validator != null)
+		{
+			validator.startElement(ns.getURI(), e.getName(), qName(ns.getPrefix(), e.getName()), atts);
+		}
+		return e;
+	}
+
+	/** pass the current end tag on to the validator */
+	private void endElement() throws SAXException
+	{
+		if (validator == null) return;
+		validator.endElement(nonNull(xsr.getNamespaceURI()), xsr.getLocalName(),
+				qName(nonNull(xsr.getPrefix()), xsr.getLocalName()));
+		for (int i = 0; i < xsr.getNamespaceCount(); ++i)
+		{
+			validator.endPrefixMapping(nonNull(xsr.getNamespacePrefix(i)));
+		}
+	}
+
+	private static String qName(String prefix, String localName)
+	{
+		return prefix.length() == 0 ? localName : prefix + ":" + localName;
+	}
+
+	private static String nonNull(String s)
+	{
+		return s == null ? "" : s;
+	}
+}
@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.model;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.validation.ValidatorHandler;
+
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.Namespace;
+import org.jdom2.output.Format;
+import org.jdom2.output.SAXOutputter;
+import org.jdom2.output.XMLOutputter;
+import org.jdom2.output.support.AbstractXMLOutputProcessor;
+import org.jdom2.output.support.FormatStack;
+import org.jdom2.util.NamespaceStack;
+import org.pathvisio.core.debug.Logger;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Writes GPML without building a JDOM document for the whole pathway.
+ * <p>
+ * Elements are written in the same order as {@link GpmlFormat2013a#createJdom}, and formatted
+ * the same as {@link XMLOutputter} with a pretty format, so the output is byte for byte the same.
+ * Only one element is converted to JDOM at a time, and it's written and discarded right away.
+ * <p>
+ * When validating, each element is passed on to a validator as well, so validation
+ * is done in the same pass. Note that the output is already partly written when a validation
+ * error is found, so files are written to a temporary file first.
+ */
+class GpmlStreamWriter extends AbstractXMLOutputProcessor
+{
+	private final GpmlFormat2013a format;
+
+	GpmlStreamWriter(GpmlFormat2013a format)
+	{
+		this.format = format;
+	}
+
+	/** The format used for GPML files */
+	static Format getGpmlFormat()
+	{
+		Format f = Format.getPrettyFormat();
+		f.setEncoding("UTF-8");
+		f.setTextMode(Format.TextMode.NORMALIZE);
+		return f;
+	}
+
+	/**
+	 * Write a pathway. The output stream is flushed, but not closed.
+	 * @param validate if true, validate while writing. If there is a validation error,
+	 * 		or the xsd is not in the classpath, an exception will be thrown.
+	 */
+	void write(Pathway data, OutputStream out, boolean validate) throws ConverterException
+	{
+		ValidatorHandler validator = validate ? format.getSchema().newValidatorHandler() : null;
+		try
+		{
+			Writer w = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+			write(data, w, validator);
+			w.flush();
+		}
+		catch (IOException ie)
+		{
+			throw new ConverterException(ie);
+		}
+		catch (SAXException se)
+		{
+			Logger.log.error("Document is invalid according to the xml-schema definition!: " +
+					se.getMessage(), se);
+			throw new ConverterException (se);
+		}
+	}
+
+	/**
+	 * Write a pathway to a file, optionally compressed with gzip.
+	 * <p>
+	 * When validating, the pathway is written to a temporary file in the same directory first,
+	 * which replaces the file only if there was no error. This way an invalid pathway
+	 * doesn't leave a partly written file behind.
+	 */
+	void write(Pathway data, File file, boolean validate, boolean gzip) throws ConverterException
+	{
+		File target = file.getAbsoluteFile();
+		File dest = target;
+		boolean success = false;
+		try
+		{
+			if (validate) dest = File.createTempFile("pathvisio", ".gpml.tmp", target.getParentFile());
+			OutputStream out = new FileOutputStream(dest);
+			try
+			{
+				if (gzip) out = new GZIPOutputStream(out);
+				write(data, out, validate);
+			}
+			finally
+			{
+				out.close();
+			}
+			if (dest != target)
+			{
+				Files.move(dest.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			success = true;
+		}
+		catch (IOException ex)
+		{
+			throw new ConverterException(ex);
+		}
+		finally
+		{
+			if (!success && dest != target) dest.delete();
+		}
+	}
+
+	private void write(Pathway data, Writer w, ValidatorHandler validator) throws IOException, SAXException, ConverterException
+	{
+		Element root = new Element("Pathway", format.getGpmlNamespace());
+
+		// same order as createJdom: first by PathwayElement order, then, keeping that order, by xsd order
+		List<PathwayElement> pathwayElements = data.getDataObjects();
+		Collections.sort(pathwayElements);
+		List<PathwayElement> objects = new ArrayList<PathwayElement>();
+		for (PathwayElement o : pathwayElements)
+		{
+			if (o.getObjectType() == ObjectType.MAPPINFO)
+			{
+				format.updateMappInfo(root, o);
+			}
+			else
+			{
+				objects.add (o);
+			}
+		}
+		final GpmlFormatAbstract.ByElementName byName = new GpmlFormatAbstract.ByElementName();
+		Collections.sort(objects, new Comparator<PathwayElement>()
+		{
+			public int compare(PathwayElement a, PathwayElement b)
+			{
+				return byName.getIndex(a.getObjectType().getTag()) - byName.getIndex(b.getObjectType().getTag());
+			}
+		});
+
+		FormatStack fstack = new FormatStack(getGpmlFormat());
+		NamespaceStack nstack = new NamespaceStack();
+		SAXOutputter so = validator == null ? null : new SAXOutputter(validator);
+
+		printDeclaration(w, fstack);
+		startRoot(w, fstack, nstack, root, validator);
+		fstack.push();
+		for (Element e : root.getChildren())
+		{
+			writeChild(w, fstack, nstack, e, so);
+		}
+		for (PathwayElement o : objects)
+		{
+			Element e = format.createJdomElement(o);
+			if (e == null) continue;
+			// make sure biopax references are sorted alphabetically by rdf-id
+			if(e.getName().equals("Biopax")) {
+				e.sortChildren(format.new BiopaxAttributeComparator());
+			}
+			writeChild(w, fstack, nstack, e, so);
+		}
+		fstack.pop();
+		endRoot(w, fstack, nstack, root, validator);
+	}
+
+	/** write the start tag of the root element, the way printElement would */
+	private void startRoot(Writer w, FormatStack fstack, NamespaceStack nstack, Element root, ValidatorHandler validator) throws IOException, SAXException
+	{
+		nstack.push(root);
+		write(w, "<");
+		write(w, root.getQualifiedName());
+		for (Namespace ns : nstack.addedForward())
+		{
+			printNamespace(w, fstack, ns);
+		}
+		AttributesImpl atts = new AttributesImpl();
+		for (Attribute a : root.getAttributes())
+		{
+			printAttribute(w, fstack, a);
+			atts.addAttribute(a.getNamespaceURI(), a.getName(), a.getQualifiedName(), "CDATA", a.getValue());
+		}
+		write(w, ">");
+
+		if (validator != null)
+		{
+			validator.startDocument();
+			for (Namespace ns : nstack.addedForward())
+			{
+				validator.startPrefixMapping(ns.getPrefix(), ns.getURI());
+			}
+			validator.startElement(root.getNamespaceURI(), root.getName(), root.getQualifiedName(), atts);
+		}
+	}
+
+	private void endRoot(Writer w, FormatStack fstack, NamespaceStack nstack, Element root, ValidatorHandler validator) throws IOException, SAXException
+	{
+		write(w, fstack.getLineSeparator());
+		write(w, "</");
+		write(w, root.getQualifiedName());
+		write(w, ">");
+		write(w, fstack.getLineSeparator());
+
+		if (validator != null)
+		{
+			validator.endElement(root.getNamespaceURI(), root.getName(), root.getQualifiedName());
+			for (Namespace ns : nstack.addedReverse())
+			{
+				validator.endPrefixMapping(ns.getPrefix());
+			}
+			validator.endDocument();
+		}
+		nstack.pop();
+	}
+
+	private void writeChild(Writer w, FormatStack fstack, NamespaceStack nstack, Element e, SAXOutputter so) throws IOException, SAXException
+	{
+		if (so != null)
+		{
+			try
+			{
+				so.outputFragment(e);
+			}
+			catch (JDOMException je)
+			{
+				Logger.log.error("The invalid XML code:\n" + new XMLOutputter(getGpmlFormat()).outputString(e));
+				if (je.getCause() instanceof SAXException) throw (SAXException)je.getCause();
+				throw new SAXException(je);
+			}
+		}
+		write(w, fstack.getLineSeparator());
+		write(w, fstack.getLevelIndent());
+		printElement(w, fstack, nstack, e);
+	}
+}
@@ -23,6 +23,9 @@
 /**
  * Group specific implementation of methods that calculate derived
  * coordinates that are not stored in GPML directly
+ * <p>
+ * The bounds of the members are cached. The parent {@link Pathway} invalidates
+ * the cache when the coordinates or the membership of a member change.
  * @author thomas
  */
 public class MGroup extends PathwayElement {
@@ -30,6 +33,44 @@ protected MGroup() {
 		super(ObjectType.GROUP);
 	}
 
+	/** union of the bounds of all members, without margin, or null if it has to be calculated again */
+	private Rectangle2D memberBounds = null;
+	/** the member set memberBounds was calculated for, to notice a change of group id or parent */
+	private Set<PathwayElement> boundsMembers = null;
+	/** while > 0, all members are being changed by this group, see {@link #beginMemberChange} */
+	private int changingMembers = 0;
+
+	/**
+	 * Called by the parent pathway when a member was moved, resized, added or removed.
+	 * Ignored while this group is changing all its members itself.
+	 */
+	void invalidateBounds() {
+		if (changingMembers == 0) memberBounds = null;
+	}
+
+	/**
+	 * Start changing all members. Member events don't invalidate the bounds until
+	 * {@link #endMemberChange}, instead the cached bounds are moved by dx, dy up front.
+	 * That way, listeners of the member events don't calculate the bounds again for each member.
+	 */
+	private void beginMemberChange(double dx, double dy) {
+		if (memberBounds != null) {
+			memberBounds.setRect(memberBounds.getX() + dx, memberBounds.getY() + dy,
+					memberBounds.getWidth(), memberBounds.getHeight());
+		}
+		changingMembers++;
+	}
+
+	/**
+	 * Done changing all members. The bounds are calculated again on the next request,
+	 * in case a member didn't move exactly, e.g. a line attached to a non-member.
+	 */
+	private void endMemberChange() {
+		changingMembers--;
+		memberBounds = null;
+		fireObjectModifiedEvent(PathwayElementEvent.createCoordinatePropertyEvent(this));
+	}
+
 	/**
 	 * Center x of the group bounds
 	 */
@@ -74,43 +115,71 @@ public double getMWidth() {
 
 	public void setMCenterX(double v) {
 		double d = v - getMBounds().getCenterX();
-		for(PathwayElement e : getGroupElements()) {
-			e.setMCenterX(e.getMCenterX() + d);
+		beginMemberChange(d, 0);
+		try {
+			for(PathwayElement e : getGroupElements()) {
+				e.setMCenterX(e.getMCenterX() + d);
+			}
+		} finally {
+			endMemberChange();
 		}
 	}
 
 	public void setMCenterY(double v) {
 		double d = v - getMBounds().getCenterY();
-		for(PathwayElement e : getGroupElements()) {
-			e.setMCenterY(e.getMCenterY() + d);
+		beginMemberChange(0, d);
+		try {
+			for(PathwayElement e : getGroupElements()) {
+				e.setMCenterY(e.getMCenterY() + d);
+			}
+		} finally {
+			endMemberChange();
 		}
 	}
 
 	public void setMHeight(double v) {
 		double d = v - getMBounds().getHeight();
+		// the new bounds aren't known up front, members may not all grow the same way.
+		// Each member event invalidates the bounds as usual.
+		memberBounds = null;
 		for(PathwayElement e : getGroupElements()) {
 			e.setMHeight(e.getMHeight() + d);
 		}
+		fireObjectModifiedEvent(PathwayElementEvent.createCoordinatePropertyEvent(this));
 	}
 
 	public void setMWidth(double v) {
 		double d = v - getMBounds().getWidth();
+		// the new bounds aren't known up front, members may not all grow the same way.
+		// Each member event invalidates the bounds as usual.
+		memberBounds = null;
 		for(PathwayElement e : getGroupElements()) {
 			e.setMWidth(e.getMWidth() + d);
 		}
+		fireObjectModifiedEvent(PathwayElementEvent.createCoordinatePropertyEvent(this));
 	}
 
 	public void setMLeft(double v) {
 		double d = v - getMBounds().getX();
-		for(PathwayElement e : getGroupElements()) {
-			e.setMLeft(e.getMLeft() + d);
+		beginMemberChange(d, 0);
+		try {
+			for(PathwayElement e : getGroupElements()) {
+				e.setMLeft(e.getMLeft() + d);
+			}
+		} finally {
+			endMemberChange();
 		}
 	}
 
 	public void setMTop(double v) {
 		double d = v - getMBounds().getY();
-		for(PathwayElement e : getGroupElements()) {
-			e.setMTop(e.getMTop() + d);
+		beginMemberChange(0, d);
+		try {
+			for(PathwayElement e : getGroupElements()) {
+				e.setMTop(e.getMTop() + d);
+			}
+		} finally {
+			endMemberChange();
 		}
 	}
 
@@ -121,12 +190,19 @@ public void setMTop(double v) {
 	 * If you want to include rotation, use {@link #getRBounds()} instead.
 	 */
 	public Rectangle2D getMBounds() {
-		Rectangle2D bounds = null;
-		for(PathwayElement e : getGroupElements()) {
-			if(e == this) continue; //To prevent recursion error
-			if(bounds == null) bounds = e.getMBounds();
-			else bounds.add(e.getMBounds());
+		Set<PathwayElement> members = getGroupElements();
+		if (memberBounds == null || boundsMembers != members) {
+			Rectangle2D bounds = null;
+			for(PathwayElement e : members) {
+				if(e == this) continue; //To prevent recursion error
+				if(bounds == null) bounds = e.getMBounds();
+				else bounds.add(e.getMBounds());
+			}
+			memberBounds = bounds;
+			boundsMembers = members;
 		}
+		// always a new rectangle, callers may modify the result
+		Rectangle2D bounds = memberBounds;
 		if(bounds != null) {
 			double margin = getGroupStyle().getMMargin();
 			return new Rectangle2D.Double(
@@ -18,7 +18,6 @@
 
 import java.awt.Shape;
 import java.awt.geom.Point2D;
-import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -424,19 +423,7 @@ private int getOppositeSide(int side) {
 	 */
 	public Shape mayCross(Point2D point) {
 		Pathway parent = getParent();
-		Rectangle2D rect = null;
-		if(parent != null) {
-			for(PathwayElement e : parent.getDataObjects()) {
-				ObjectType ot = e.getObjectType();
-				if(ot == ObjectType.SHAPE || ot == ObjectType.DATANODE || ot == ObjectType.LABEL) {
-					Rectangle2D b = e.getMBounds();
-					if(b.contains(point)) {
-						if(rect == null) rect = b;
-						else rect.add(b);
-					}
-				}
-			}
-		}
-		return rect;
+		// shapes, datanodes and labels are obstacles
+		return parent == null ? null : parent.getBoundsIndex().getBoundsAt(point);
 	}
 }
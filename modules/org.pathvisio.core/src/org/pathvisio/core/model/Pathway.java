@@ -21,12 +21,15 @@
 import java.io.Reader;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.EventListener;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -267,6 +270,7 @@ private void forceAddObject(PathwayElement o) {
 		if (o.getParent() != null) { o.getParent().remove(o); }
 		dataObjects.add(o);
 		o.setParent(this);
+		reroute(boundsIndex.update(o));
 		for (MPoint p : o.getMPoints())
 		{
 			if (p.getGraphRef() != null)
@@ -336,29 +340,156 @@ public int getMinZOrder()
 	void childModified (PathwayElementEvent e)
 	{
 		markChanged();
-		// a coordinate change could trigger dependent objects such as states, 
-		// groups and connectors to be updated as well.
-		if (e.isCoordinateChange())
-		{
+		updateDependents(Collections.singleton(e));
+	}
 
+	/**
+	 * A coordinate change could trigger dependent objects such as states,
+	 * groups and connectors to be updated as well.
+	 * Each dependent object is updated once, even if it depends on several of the modified elements.
+	 */
+	private void updateDependents (Collection<PathwayElementEvent> events)
+	{
+		Set<GraphRefContainer> refees = new LinkedHashSet<GraphRefContainer>();
+		Set<PathwayElement> groups = new LinkedHashSet<PathwayElement>();
+		Set<MLine> rerouted = new LinkedHashSet<MLine>();
+		List<PathwayElement> moved = new ArrayList<PathwayElement>();
+		for (PathwayElementEvent e : events)
+		{
 			PathwayElement elt = e.getModifiedPathwayElement();
-			for(GraphRefContainer refc : getReferringObjects(elt.getGraphId())) 
-			{
-				refc.refeeChanged();
-			}
-			
+			// skip elements that were removed during an edit
+			if (!e.isCoordinateChange() || elt.getParent() != this) continue;
+			moved.add(elt);
+			rerouted.addAll(boundsIndex.update(elt));
+			refees.addAll(getReferringObjects(elt.getGraphId()));
+
 			String ref = elt.getGroupRef();
 			if (ref != null && getGroupById(ref) != null)
 			{
-				//identify group object and notify model change to trigger view update
-				PathwayElement group = getGroupById(ref);
-				group.fireObjectModifiedEvent(PathwayElementEvent.createCoordinatePropertyEvent(group));
+				groups.add(getGroupById(ref));
 			}
+		}
+
+		for(GraphRefContainer refc : refees)
+		{
+			refc.refeeChanged();
+		}
+
+		reroute(rerouted);
+
+		for (PathwayElement group : groups)
+		{
+			//notify model change of the group to trigger view update
+			if (group instanceof MGroup) ((MGroup)group).invalidateBounds();
+			group.fireObjectModifiedEvent(PathwayElementEvent.createCoordinatePropertyEvent(group));
+		}
 
-			checkMBoardSize(e.getModifiedPathwayElement());
+		for (PathwayElement elt : moved)
+		{
+			checkMBoardSize(elt);
 		}
 	}
 
+	private final BoundsIndex boundsIndex = new BoundsIndex(this);
+
+	/** the routes of these lines were dropped because an obstacle near them changed, let them route again */
+	private void reroute(Collection<MLine> lines)
+	{
+		for (MLine line : lines)
+		{
+			if (line.getParent() == this)
+			{
+				line.fireObjectModifiedEvent(PathwayElementEvent.createCoordinatePropertyEvent(line));
+			}
+		}
+	}
+
+	/** index of the obstacles for connector routing */
+	BoundsIndex getBoundsIndex()
+	{
+		return boundsIndex;
+	}
+
+	private int editDepth = 0;
+	/** events collected during the current edit, one per element, in the order of the first change */
+	private Map<PathwayElement, PathwayElementEvent> pendingEvents = new LinkedHashMap<PathwayElement, PathwayElementEvent>();
+	/** board size has grown during the current edit */
+	private boolean resizePending = false;
+
+	/**
+	 * Start a batch of edits, e.g. moving a selection or pasting. Until the matching
+	 * {@link #commitEdit}, modification events of the elements in this pathway are collected
+	 * instead of fired. On commit, each modified element fires a single event that covers all its changes,
+	 * each connector and group that depends on the modified elements is updated once,
+	 * and the board size is checked once.
+	 * <p>
+	 * Edits can be nested, the events are fired when the outermost edit is committed.
+	 * Always call commitEdit in a finally block.
+	 */
+	public void beginEdit()
+	{
+		editDepth++;
+	}
+
+	/**
+	 * End a batch of edits started with {@link #beginEdit} and fire the collected events.
+	 */
+	public void commitEdit()
+	{
+		if (editDepth == 0) throw new IllegalStateException("commitEdit without beginEdit");
+		if (editDepth > 1)
+		{
+			editDepth--;
+			return;
+		}
+
+		Map<PathwayElement, PathwayElementEvent> coalesced = new LinkedHashMap<PathwayElement, PathwayElementEvent>();
+		boolean resized;
+		try
+		{
+			// updating dependents causes new events, which are collected as well,
+			// repeat until no more dependents have to be updated.
+			while (!pendingEvents.isEmpty())
+			{
+				Map<PathwayElement, PathwayElementEvent> batch = pendingEvents;
+				pendingEvents = new LinkedHashMap<PathwayElement, PathwayElementEvent>();
+				for (PathwayElementEvent e : batch.values())
+				{
+					PathwayElementEvent prev = coalesced.get(e.getModifiedPathwayElement());
+					coalesced.put(e.getModifiedPathwayElement(), prev == null ? e : prev.merge(e));
+				}
+				updateDependents(batch.values());
+			}
+		}
+		finally
+		{
+			editDepth = 0;
+			pendingEvents.clear();
+			resized = resizePending;
+			resizePending = false;
+		}
+
+		if (!coalesced.isEmpty()) markChanged();
+		if (resized) fireObjectModifiedEvent(new PathwayEvent(mappInfo, PathwayEvent.RESIZED));
+		for (PathwayElementEvent e : coalesced.values())
+		{
+			e.getModifiedPathwayElement().notifyListeners(e);
+		}
+	}
+
+	/**
+	 * Called by children of this pathway before firing an event.
+	 * @return true if the event is kept until the current edit is committed,
+	 * false if there is no edit in progress and the event should be fired right away.
+	 */
+	boolean deferEvent (PathwayElementEvent e)
+	{
+		if (editDepth == 0) return false;
+		PathwayElementEvent prev = pendingEvents.get(e.getModifiedPathwayElement());
+		pendingEvents.put(e.getModifiedPathwayElement(), prev == null ? e : prev.merge(e));
+		return true;
+	}
+
 	/**
 	   called for biopax, infobox and mappInfo upon addition.
 	 */
@@ -398,6 +529,7 @@ public void remove (PathwayElement o)
 	 */
 	private void forceRemove(PathwayElement o) {
 		dataObjects.remove(o);
+		reroute(boundsIndex.remove(o));
 		for(GraphRefContainer refc : getReferringObjects(o.getGraphId())) 
 		{
 			refc.unlink();
@@ -554,6 +686,14 @@ public PathwayElement getGroupById(String id) {
 	void addGroupRef (String ref, PathwayElement child)
 	{
 		Utils.multimapPut(groupRefs, ref, child);
+		invalidateGroupBounds(ref);
+	}
+
+	/** the cached bounds of a group depend on the coordinates and the set of its members */
+	private void invalidateGroupBounds(String id)
+	{
+		PathwayElement group = getGroupById(id);
+		if (group instanceof MGroup) ((MGroup)group).invalidateBounds();
 	}
 
 	void removeGroupRef (String id, PathwayElement child)
@@ -561,6 +701,7 @@ void removeGroupRef (String id, PathwayElement child)
 		if (!groupRefs.containsKey(id)) throw new IllegalArgumentException();
 
 		groupRefs.get(id).remove(child);
+		invalidateGroupBounds(id);
 		
 		//Find out if this element is the last one in a group
 		//If so, remove the group as well			
@@ -661,7 +802,14 @@ private void checkMBoardSize(PathwayElement e)
 		{
 			mBoardWidth = mw;
 			mBoardHeight = mh;
-			fireObjectModifiedEvent(new PathwayEvent(mappInfo, PathwayEvent.RESIZED));
+			if (editDepth > 0)
+			{
+				resizePending = true;
+			}
+			else
+			{
+				fireObjectModifiedEvent(new PathwayEvent(mappInfo, PathwayEvent.RESIZED));
+			}
 		}
 	}
 
@@ -2609,7 +2609,18 @@ public void fireObjectModifiedEvent(PathwayElementEvent e)
 			noFire -= 1;
 			return;
 		}
-		if (parent != null) parent.childModified(e);
+		if (parent != null)
+		{
+			// during an edit, the parent fires the event on commit
+			if (parent.deferEvent(e)) return;
+			parent.childModified(e);
+		}
+		notifyListeners(e);
+	}
+
+	/** notify the listeners of this element only, the parent has already handled the event */
+	void notifyListeners(PathwayElementEvent e)
+	{
 		for (PathwayElementListener g : listeners)
 		{
 			g.gmmlObjectModified(e);
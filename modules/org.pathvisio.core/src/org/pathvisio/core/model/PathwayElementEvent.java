@@ -64,6 +64,19 @@ private PathwayElementEvent(PathwayElement elem, Object prop, boolean coordinate
 		this.coordinateChange = coordinateChange;
 	}
 
+	/**
+	 * Combine this event with a later event for the same element, used to fire a single event
+	 * for a batch of changes (see {@link Pathway#beginEdit()}).
+	 * The result may affect all properties that either event may affect.
+	 */
+	PathwayElementEvent merge(PathwayElementEvent other) {
+		if (other.pwElement != pwElement) throw new IllegalArgumentException("Events are for different elements");
+		boolean sameProperty = property == null ? other.property == null : property.equals(other.property);
+		boolean coordinates = coordinateChange || other.coordinateChange;
+		if (sameProperty && coordinates == coordinateChange) return this;
+		return new PathwayElementEvent(pwElement, sameProperty ? property : null, coordinates);
+	}
+
 	/**
 	 * Returns true if this event was caused by a coordinate change (e.g. movement or resize operation).
 	 */
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.model;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ConnectorShape implementation for the routed connector.
+ * <p>
+ * Like the elbow connector, it only uses horizontal and vertical segments, but the route is
+ * calculated with {@link AStar} so that it avoids shapes, data nodes and labels where possible.
+ * The route can't be changed with waypoints.
+ * <p>
+ * For lines in a pathway, obstacles are looked up in the {@link BoundsIndex} of the pathway
+ * (see {@link MLine#mayCross}), and the route is cached until the end points change, or the index
+ * drops it because an obstacle near the route changed. If AStar can't find a route,
+ * the segments of the elbow connector are used.
+ */
+public class RoutedConnectorShape extends SegmentedConnector {
+	// the restrictions the cached route was calculated for
+	private Point2D routeStart = null;
+	private Point2D routeEnd = null;
+	private int routeStartSide;
+	private int routeEndSide;
+	private BoundsIndex routeIndex = null;
+
+	public void recalculateShape(ConnectorRestrictions restrictions) {
+		Point2D start = restrictions.getStartPoint();
+		Point2D end = restrictions.getEndPoint();
+		int startSide = restrictions.getStartSide();
+		int endSide = restrictions.getEndSide();
+
+		MLine line = null;
+		BoundsIndex index = null;
+		if(restrictions instanceof MLine && ((MLine)restrictions).getParent() != null) {
+			line = (MLine)restrictions;
+			index = line.getParent().getBoundsIndex();
+		}
+
+		boolean cached = index != null && index == routeIndex && index.isRouteValid(line) &&
+			start.equals(routeStart) && end.equals(routeEnd) &&
+			startSide == routeStartSide && endSide == routeEndSide;
+		if(!cached) {
+			Segment[] route = new AStar(restrictions).getSegmentsAStar();
+			if(route == null) {
+				ElbowConnectorShape elbow = new ElbowConnectorShape();
+				elbow.recalculateShape(restrictions);
+				route = elbow.getSegments();
+			}
+			setSegments(finishRoute(route, end, endSide));
+
+			routeStart = start;
+			routeEnd = end;
+			routeStartSide = startSide;
+			routeEndSide = endSide;
+			routeIndex = index;
+			if(index != null) {
+				index.addRoute(line, getBounds(getSegments()));
+			}
+		}
+		setWayPoints(new WayPoint[0]);
+		setShape(calculateShape(getSegments()));
+	}
+
+	private static Rectangle2D getBounds(Segment[] segments) {
+		Rectangle2D bounds = new Rectangle2D.Double(segments[0].getMStart().getX(), segments[0].getMStart().getY(), 0, 0);
+		for(Segment s : segments) {
+			bounds.add(s.getMEnd());
+		}
+		return bounds;
+	}
+
+	public boolean hasValidWaypoints(ConnectorRestrictions restrictions) {
+		// the route is calculated, waypoints are never used
+		return false;
+	}
+
+	/**
+	 * AStar stops on a grid point close to the end point. Connect that point to the
+	 * end point, entering from the end side, and merge segments that are in line.
+	 */
+	private Segment[] finishRoute(Segment[] route, Point2D end, int endSide) {
+		List<Point2D> points = new ArrayList<Point2D>();
+		points.add(route[0].getMStart());
+		for(Segment s : route) {
+			points.add(s.getMEnd());
+		}
+
+		Point2D last = points.get(points.size() - 1);
+		if(!isOrthogonal(last, end)) {
+			if(endSide == ConnectorRestrictions.SIDE_NORTH || endSide == ConnectorRestrictions.SIDE_SOUTH) {
+				points.add(new Point2D.Double(end.getX(), last.getY()));
+			} else {
+				points.add(new Point2D.Double(last.getX(), end.getY()));
+			}
+		}
+		points.add(end);
+
+		// drop points that are on the same spot or in line with their neighbours
+		List<Point2D> corners = new ArrayList<Point2D>();
+		for(Point2D p : points) {
+			int n = corners.size();
+			if(n > 0 && corners.get(n - 1).equals(p)) continue;
+			if(n > 1 && inLine(corners.get(n - 2), corners.get(n - 1), p)) {
+				corners.set(n - 1, p);
+			} else {
+				corners.add(p);
+			}
+		}
+		if(corners.size() < 2) {
+			corners.add(end);
+		}
+
+		Segment[] result = new Segment[corners.size() - 1];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = new Segment(corners.get(i), corners.get(i + 1));
+		}
+		return result;
+	}
+
+	private static boolean isOrthogonal(Point2D a, Point2D b) {
+		return a.getX() == b.getX() || a.getY() == b.getY();
+	}
+
+	private static boolean inLine(Point2D a, Point2D b, Point2D c) {
+		return (a.getX() == b.getX() && b.getX() == c.getX()) ||
+			(a.getY() == b.getY() && b.getY() == c.getY());
+	}
+}
@@ -49,6 +49,14 @@ public enum GlobalPreference implements Preference
 	// TODO: this should be changed to org.pathvisio.desktop.data.DBConnDerby, 2 releases after 2.0.11
 	DB_ENGINE_GEX("org.pathvisio.data.DBConnDerby"),
 
+	// load the whole expression dataset into memory when opening it
+	GEX_IN_MEMORY(Boolean.toString(false)),
+
+	// maximum number of expression rows kept in memory for the pathways that were viewed
+	GEX_CACHE_ROWS("" + 200000),
+	// maximum number of id mapping results kept in memory
+	GEX_CACHE_MAPPINGS("" + 50000),
+
 	@Deprecated
 	DB_GDB_CURRENT("none"),
 	@Deprecated
@@ -59,6 +67,7 @@ public enum GlobalPreference implements Preference
 	DB_CONNECTSTRING_IDB("idmapper-pgdb:none"),
 
 	ENABLE_DOUBLE_BUFFERING(Boolean.toString(true)),
+	ENABLE_TILE_CACHE(Boolean.toString(true)),
 	SHOW_ADVANCED_PROPERTIES(Boolean.toString(false)),
 	MIM_SUPPORT(Boolean.toString(true)),
 	SNAP_TO_ANGLE (Boolean.toString(false)),
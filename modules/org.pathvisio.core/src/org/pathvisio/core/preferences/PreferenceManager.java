@@ -22,9 +22,9 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 
-import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import javax.swing.JOptionPane;
 
@@ -40,7 +40,7 @@
 {
 	private Properties properties;
 	private File propFile = null;
-	private Set<PreferenceListener> listeners = new HashSet<PreferenceListener>();
+	private Set<PreferenceListener> listeners = new CopyOnWriteArraySet<PreferenceListener>();
 	private boolean dirty;
 
 
@@ -200,7 +200,7 @@ public boolean isDefault (Preference p)
 	}
 
 
-	static PreferenceManager preferences = null;
+	static volatile PreferenceManager preferences = null;
 
 	/**
 	@Deprecated use SwingEngine.getPreferenceManager() instead
@@ -242,7 +242,11 @@ public static void compatMovePvDir()
 		}
 	}
 
-	public static void init()
+	/**
+	 * Load the preferences. Call this once at startup, before
+	 * starting any threads that read preferences.
+	 */
+	public static synchronized void init()
 	{
 		if (preferences == null)
 		{
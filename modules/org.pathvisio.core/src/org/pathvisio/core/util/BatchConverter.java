@@ -0,0 +1,344 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.pathvisio.core.Engine;
+import org.pathvisio.core.debug.Logger;
+import org.pathvisio.core.debug.StopWatch;
+import org.pathvisio.core.model.ConverterException;
+import org.pathvisio.core.model.Pathway;
+import org.pathvisio.core.model.PathwayExporter;
+import org.pathvisio.core.model.PathwayImporter;
+import org.pathvisio.core.model.RasterImageExporter;
+import org.pathvisio.core.preferences.GlobalPreference;
+import org.pathvisio.core.preferences.PreferenceManager;
+import org.pathvisio.core.view.MIMShapes;
+
+/**
+ * Converts a directory of pathways in one go, e.g. a WikiPathways dump to PNG,
+ * or all GPML files to the current version of GPML.
+ * <p>
+ * Files are converted on a pool of worker threads. Each worker has its own {@link Engine}
+ * with its own importers and exporters, and each file is read into a new {@link Pathway}
+ * (exporters that draw create their own VPathway), so nothing is shared between files
+ * except the global state that is set up once by {@link #main}.
+ */
+public class BatchConverter
+{
+	/**
+	 * Outcome of a batch conversion
+	 */
+	public static class Report
+	{
+		private final int nrFiles;
+		private final int nrConverted;
+		private final long millis;
+		private final Map<File, String> failures;
+
+		private Report(int nrFiles, int nrConverted, long millis, Map<File, String> failures)
+		{
+			this.nrFiles = nrFiles;
+			this.nrConverted = nrConverted;
+			this.millis = millis;
+			this.failures = failures;
+		}
+
+		/** number of files that were attempted */
+		public int getNrFiles() { return nrFiles; }
+
+		/**
+		 * number of files that were converted successfully.
+		 * If the batch was interrupted, files that didn't finish are not counted.
+		 */
+		public int getNrConverted() { return nrConverted; }
+
+		/** wall clock time of the whole batch in milliseconds */
+		public long getMillis() { return millis; }
+
+		/** input files that could not be converted, with the reason, in the order of the input */
+		public Map<File, String> getFailures() { return failures; }
+
+		/** files per second */
+		public double getThroughput()
+		{
+			return millis == 0 ? 0 : nrFiles * 1000.0 / millis;
+		}
+
+		@Override
+		public String toString()
+		{
+			StringBuilder builder = new StringBuilder();
+			builder.append(String.format("Converted %d of %d files in %.1f s (%.1f files/s)",
+					getNrConverted(), nrFiles, millis / 1000.0, getThroughput()));
+			for (Map.Entry<File, String> failure : failures.entrySet())
+			{
+				builder.append("\n\tFAILED ");
+				builder.append(failure.getKey());
+				builder.append(": ");
+				builder.append(failure.getValue());
+			}
+			return builder.toString();
+		}
+	}
+
+	private final int nrThreads;
+	private final int zoom;
+
+	/**
+	 * @param nrThreads number of worker threads
+	 * @param zoom zoom percentage for raster images, or -1 to use the default of the exporter
+	 */
+	public BatchConverter(int nrThreads, int zoom)
+	{
+		if (nrThreads < 1) throw new IllegalArgumentException("Need at least one thread");
+		this.nrThreads = nrThreads;
+		this.zoom = zoom;
+	}
+
+	/**
+	 * Returns all files in a directory that can be imported, recursively.
+	 */
+	public static List<File> getInputFiles(File inputDir)
+	{
+		Set<String> extensions = new HashSet<String>();
+		for (PathwayImporter importer : Converter.createEngine().getPathwayImporters())
+		{
+			for (String ext : importer.getExtensions()) extensions.add(ext.toLowerCase());
+		}
+		List<File> result = new ArrayList<File>();
+		for (File f : FileUtils.getFiles(inputDir, true))
+		{
+			String ext = FileUtils.getExtension(f.getName());
+			if (ext != null && extensions.contains(ext.toLowerCase())) result.add(f);
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Convert all importable files in a directory and its subdirectories.
+	 * The directory structure is kept in the output directory.
+	 * @param extension extension of the output files, determines the exporter, e.g. "png" or "gpml"
+	 */
+	public Report convert(File inputDir, File outputDir, String extension)
+	{
+		List<File> inputs = getInputFiles(inputDir);
+		List<File> outputs = new ArrayList<File>();
+		String base = inputDir.getAbsolutePath();
+		for (File in : inputs)
+		{
+			String relative = in.getAbsolutePath().substring(base.length());
+			outputs.add(FileUtils.replaceExtension(new File(outputDir, relative), extension));
+		}
+		return convert(inputs, outputs);
+	}
+
+	/**
+	 * Convert a list of files. Input and output are matched by index.
+	 * Missing directories for the output files are created.
+	 */
+	public Report convert(List<File> inputs, final List<File> outputs)
+	{
+		if (inputs.size() != outputs.size()) throw new IllegalArgumentException("Need an output for each input");
+
+		StopWatch sw = new StopWatch();
+		sw.start();
+
+		int total = inputs.size();
+		final String[] errors = new String[total];
+		boolean[] finished = new boolean[total];
+		if (total > 0)
+		{
+			ExecutorService pool = Executors.newFixedThreadPool(Math.min(nrThreads, total));
+			CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(pool);
+			final ThreadLocal<Engine> engines = new ThreadLocal<Engine>();
+			for (int i = 0; i < total; ++i)
+			{
+				final int index = i;
+				final File in = inputs.get(i);
+				completion.submit(new Callable<Integer>()
+				{
+					public Integer call()
+					{
+						Engine engine = engines.get();
+						if (engine == null)
+						{
+							engine = Converter.createEngine();
+							engines.set(engine);
+						}
+						try
+						{
+							convert(engine, in, outputs.get(index));
+						}
+						catch (ConverterException e)
+						{
+							errors[index] = e.getMessage() == null ? e.toString() : e.getMessage();
+						}
+						catch (RuntimeException e)
+						{
+							// a bug in one exporter shouldn't stop the whole batch
+							Logger.log.error("Error while converting " + in, e);
+							errors[index] = e.toString();
+						}
+						return index;
+					}
+				});
+			}
+			try
+			{
+				for (int done = 1; done <= total; ++done)
+				{
+					int index = completion.take().get();
+					finished[index] = true;
+					Logger.log.info(done + "/" + total + " " + inputs.get(index) +
+							(errors[index] == null ? "" : " FAILED"));
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException e)
+			{
+				// only errors are left, exceptions are caught by the task itself
+				throw new IllegalStateException(e.getCause());
+			}
+			finally
+			{
+				pool.shutdownNow();
+			}
+		}
+
+		// after an interrupt, tasks that were cancelled or still running are left out
+		Map<File, String> failures = new LinkedHashMap<File, String>();
+		int converted = 0;
+		for (int i = 0; i < total; ++i)
+		{
+			if (!finished[i]) continue;
+			if (errors[i] != null) failures.put(inputs.get(i), errors[i]);
+			else converted++;
+		}
+		return new Report(total, converted, sw.stop(), failures);
+	}
+
+	private void convert(Engine engine, File in, File out) throws ConverterException
+	{
+		// not through Engine.importPathway, that would hand each pathway to the event dispatch thread
+		Set<PathwayImporter> importers = engine.getPathwayImporters(in);
+		if (importers.size() != 1)
+		{
+			throw new ConverterException("Could not determine importer for '" + in + "'");
+		}
+		Pathway pathway = Utils.oneOf(importers).doImport(in);
+		pathway.setSourceFile(in);
+
+		File dir = out.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs())
+		{
+			throw new ConverterException("Could not create directory " + dir);
+		}
+		// only raster images can be zoomed, the other exporters ignore the zoom completely
+		Set<PathwayExporter> exporters = engine.getPathwayExporters(out);
+		boolean zoomable = exporters != null && exporters.size() == 1 && Utils.oneOf(exporters) instanceof RasterImageExporter;
+		List<String> warnings = (zoom >= 0 && zoomable) ?
+				engine.exportPathway(out, pathway, zoom) : engine.exportPathway(out, pathway);
+		for (String warning : warnings)
+		{
+			Logger.log.warn(in + ": " + warning);
+		}
+	}
+
+	public static void printUsage()
+	{
+		System.out.println ("GPML Batch Converter\n" +
+				"Usage:\n" +
+				"\tjava BatchConverter <input dir> <output dir> <output extension> [<threads>] [<zoom>]\n" +
+				"\n" +
+				"Converts all pathways in the input directory and its subdirectories,\n" +
+				"using the same importers and exporters as Converter.\n" +
+				"By default, there is one thread for each processor.\n" +
+				"Return codes:\n" +
+				"\t 0: OK\n" +
+				"\t-1: Parameter or file error\n" +
+				"\t-2: One or more files could not be converted\n"
+			);
+	}
+
+	public static void main(String[] args)
+	{
+		// no windows are shown, and this allows running on a server without display
+		if (System.getProperty("java.awt.headless") == null)
+		{
+			System.setProperty("java.awt.headless", "true");
+		}
+
+		Logger.log.setStream (System.err);
+						//debug, trace, info, warn, error, fatal
+		Logger.log.setLogLevel (false, false, true, true, true, true);
+
+		if (args.length < 3 || args.length > 5)
+		{
+			printUsage();
+			System.exit(-1);
+		}
+		File inputDir = new File(args[0]);
+		File outputDir = new File(args[1]);
+		String extension = args[2];
+		int nrThreads = Runtime.getRuntime().availableProcessors();
+		int zoom = -1;
+		try
+		{
+			if (args.length > 3) nrThreads = Integer.parseInt(args[3]);
+			if (args.length > 4) zoom = Integer.parseInt(args[4]);
+		}
+		catch (NumberFormatException e)
+		{
+			Logger.log.error ("Not a number: " + e.getMessage());
+			printUsage();
+			System.exit(-1);
+		}
+		if (!inputDir.isDirectory())
+		{
+			Logger.log.error ("Not a directory: " + inputDir);
+			System.exit(-1);
+		}
+
+		// global state is set up once, before any of the workers start
+		PreferenceManager.init();
+		PreferenceManager.getCurrent().setBoolean(GlobalPreference.MIM_SUPPORT, true);
+		MIMShapes.registerShapes();
+
+		Report report = new BatchConverter(nrThreads, zoom).convert(inputDir, outputDir, extension);
+		System.out.println(report);
+		System.exit(report.getFailures().isEmpty() ? 0 : -2);
+	}
+}
@@ -67,23 +67,17 @@ public static void printUsage()
 	}
 
 	/**
-     * Command line arguments:
-     *
-     */
-    public static void main(String[] args)
-    {
-        // Handle command line arguments
-        // Check for custom output path
-        Logger.log.setStream (System.err);
-						//debug, trace, info, warn, error, fatal
-        Logger.log.setLogLevel (false, false, true, true, true, true);
-
-        PreferenceManager.init();
-    	Engine engine = new Engine();
-    	engine.addPathwayImporter(new GpmlFormat());
-    	engine.addPathwayImporter(new MappFormat());
+	 * Create an engine with all the importers and exporters that are
+	 * available outside of the GUI.
+	 * Exporters keep state, so don't share the engine between threads.
+	 */
+	public static Engine createEngine()
+	{
+		Engine engine = new Engine();
+		engine.addPathwayImporter(new GpmlFormat());
+		engine.addPathwayImporter(new MappFormat());
 //		engine.addPathwayExporter(new MappFormat());
-    	engine.addPathwayExporter(new GpmlFormat());
+		engine.addPathwayExporter(new GpmlFormat());
 		engine.addPathwayExporter(new BatikImageExporter(ImageExporter.TYPE_SVG));
 		engine.addPathwayExporter(new RasterImageExporter(ImageExporter.TYPE_PNG));
 //		engine.addPathwayExporter(new BatikImageExporter(ImageExporter.TYPE_TIFF));
@@ -111,7 +105,24 @@ public static void main(String[] args)
 		{
 			Logger.log.warn("Access to BioPAX class is Illegal", e);
 		}
-		
+		return engine;
+	}
+
+	/**
+     * Command line arguments:
+     *
+     */
+    public static void main(String[] args)
+    {
+        // Handle command line arguments
+        // Check for custom output path
+        Logger.log.setStream (System.err);
+						//debug, trace, info, warn, error, fatal
+        Logger.log.setLogLevel (false, false, true, true, true, true);
+
+        PreferenceManager.init();
+    	Engine engine = createEngine();
+
 		//Enable MiM support (for export to graphics formats)
 		PreferenceManager.getCurrent().setBoolean(GlobalPreference.MIM_SUPPORT, true);
 		MIMShapes.registerShapes();
@@ -0,0 +1,451 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bridgedb.DataSource;
+import org.pathvisio.core.data.XrefWithSymbol;
+import org.pathvisio.core.debug.Logger;
+import org.pathvisio.core.preferences.GlobalPreference;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * On-disk index of the genes in a collection of pathway files.
+ * <p>
+ * For each file the index stores the modification time, size,
+ * pathway name and the genes as found by {@link PathwayParser}.
+ * When the index is queried, a file is only parsed again if its
+ * modification time or size has changed, so for an unchanged
+ * pathway directory a query only costs a stat call per file.
+ * Files that could not be parsed are remembered as well, so they are
+ * not tried again until they change.
+ * <p>
+ * The index is loaded lazily on first use and written back
+ * after each query that changed it. Changed files are parsed in parallel
+ * on a pool with one worker per processor, each with its own XMLReader.
+ * All public methods are synchronized, so a single instance can be
+ * shared between the search pane and the statistics plug-in.
+ */
+public class PathwayIndex
+{
+	/** increment when the file format changes, old index files will be ignored */
+	private static final int FORMAT_VERSION = 1;
+	private static final int MAGIC = 0x50564958; // "PVIX"
+
+	/**
+	 * Indexed information on a single pathway file.
+	 * <p>
+	 * Immutable class, thread-safe
+	 */
+	public static final class Entry
+	{
+		private final File file;
+		private final long lastModified;
+		private final long size;
+		private final String name;
+		private final List<XrefWithSymbol> genes;
+
+		private Entry(File file, long lastModified, long size, String name, List<XrefWithSymbol> genes)
+		{
+			this.file = file;
+			this.lastModified = lastModified;
+			this.size = size;
+			this.name = name;
+			this.genes = genes == null ? null : Collections.unmodifiableList(genes);
+		}
+
+		public File getFile()
+		{
+			return file;
+		}
+
+		/**
+		 * @return the pathway name, as stored in the Name attribute of the Pathway element.
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return the genes in this pathway without duplicates, in document order.
+		 */
+		public List<XrefWithSymbol> getGenes()
+		{
+			return genes;
+		}
+
+		/** false if the file could not be parsed */
+		private boolean isValid()
+		{
+			return genes != null;
+		}
+
+		private boolean isUpToDate(File f)
+		{
+			return f.lastModified() == lastModified && f.length() == size;
+		}
+	}
+
+	/**
+	 * Receives entries while the index is being queried,
+	 * so callers can handle results before all files are parsed.
+	 */
+	public interface EntryListener
+	{
+		/**
+		 * Called on the querying thread for each pathway that could be parsed.
+		 * Up-to-date entries are passed first, then the parsed ones in order of completion.
+		 * @param done number of files handled so far, including files that could not be parsed
+		 * @param total total number of files
+		 */
+		void entryAvailable(Entry entry, int done, int total);
+
+		/**
+		 * Checked after each file. If true, remaining files are not parsed
+		 * and the query returns the entries found so far.
+		 */
+		boolean isCancelled();
+	}
+
+	private static PathwayIndex defaultIndex = null;
+
+	/**
+	 * The index shared by the whole application, stored in the PathVisio application directory.
+	 */
+	public static synchronized PathwayIndex getDefault()
+	{
+		if (defaultIndex == null)
+		{
+			defaultIndex = new PathwayIndex(new File(GlobalPreference.getApplicationDir(), "pathway-index.bin"));
+		}
+		return defaultIndex;
+	}
+
+	private final File indexFile;
+	private Map<File, Entry> entries = null;
+	private boolean changed = false;
+
+	/**
+	 * @param indexFile file to store the index in. It doesn't need to exist yet.
+	 * 	If null, the index is kept in memory only.
+	 */
+	public PathwayIndex(File indexFile)
+	{
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Get the index entries for all pathways in a directory.
+	 * @param pwDir directory with pathway files. All pathways are read recursively
+	 * @return entries for all files that could be parsed, in the order returned by {@link FileUtils#getFiles}
+	 */
+	public List<Entry> getEntries(File pwDir)
+	{
+		return getEntries(FileUtils.getFiles(pwDir, "gpml", true));
+	}
+
+	/**
+	 * Get the index entries for a list of pathway files.
+	 * Files that are new or have changed since they were last indexed are parsed again.
+	 * @return entries for all files that could be parsed, in the same order as the list of files
+	 */
+	public List<Entry> getEntries(List<File> pwyFiles)
+	{
+		return getEntries(pwyFiles, null);
+	}
+
+	/**
+	 * Get the index entries for a list of pathway files.
+	 * Files that are new or have changed since they were last indexed are parsed again.
+	 * @param listener is notified of each entry as soon as it is available, may be null
+	 * @return entries for all files that could be parsed, in the same order as the list of files.
+	 * 	If the listener cancelled the query, only the entries found so far.
+	 */
+	public synchronized List<Entry> getEntries(List<File> pwyFiles, EntryListener listener)
+	{
+		if (entries == null) load();
+
+		int total = pwyFiles.size();
+		final Entry[] found = new Entry[total];
+		List<Integer> stale = new ArrayList<Integer>();
+		int done = 0;
+		boolean cancelled = false;
+		for (int i = 0; i < total && !cancelled; ++i)
+		{
+			File key = pwyFiles.get(i).getAbsoluteFile();
+			Entry entry = entries.get(key);
+			if (entry == null || !entry.isUpToDate(key))
+			{
+				stale.add(i);
+				continue;
+			}
+			found[i] = entry;
+			done++;
+			if (listener != null)
+			{
+				if (entry.isValid()) listener.entryAvailable(entry, done, total);
+				cancelled = listener.isCancelled();
+			}
+		}
+
+		if (!stale.isEmpty() && !cancelled)
+		{
+			int nrThreads = Math.min(stale.size(), Runtime.getRuntime().availableProcessors());
+			ExecutorService pool = Executors.newFixedThreadPool(nrThreads);
+			CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(pool);
+			final ThreadLocal<XMLReader> xmlReaders = new ThreadLocal<XMLReader>();
+			for (final int i : stale)
+			{
+				final File key = pwyFiles.get(i).getAbsoluteFile();
+				completion.submit(new Callable<Integer>()
+				{
+					public Integer call() throws SAXException
+					{
+						XMLReader xmlReader = xmlReaders.get();
+						if (xmlReader == null)
+						{
+							xmlReader = XMLReaderFactory.createXMLReader();
+							xmlReaders.set(xmlReader);
+						}
+						found[i] = parse(key, xmlReader);
+						return i;
+					}
+				});
+			}
+			try
+			{
+				for (int j = 0; j < stale.size() && !cancelled; ++j)
+				{
+					Entry entry = found[completion.take().get()];
+					entries.put(entry.file, entry);
+					changed = true;
+					done++;
+					if (listener != null)
+					{
+						if (entry.isValid()) listener.entryAvailable(entry, done, total);
+						cancelled = listener.isCancelled();
+					}
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				cancelled = true;
+			}
+			catch (ExecutionException e)
+			{
+				Logger.log.error("Could not create xml reader", e.getCause());
+				throw new IllegalStateException(e.getCause());
+			}
+			finally
+			{
+				// interrupts workers, and drops files that haven't been started yet
+				pool.shutdownNow();
+			}
+		}
+		Logger.log.info("Pathway index: " + total + " files, " + stale.size() + " stale" +
+				(cancelled ? ", cancelled" : ""));
+
+		List<Entry> result = new ArrayList<Entry>();
+		for (Entry entry : found)
+		{
+			// entries completed after cancellation are not in the index yet, leave them out too
+			if (entry != null && entry.isValid() && entries.get(entry.file) == entry) result.add(entry);
+		}
+		if (changed) save();
+		return result;
+	}
+
+	private static Entry parse(File f, XMLReader xmlReader)
+	{
+		// stat before parsing, so a file that changes during parsing is parsed again next time
+		long lastModified = f.lastModified();
+		long size = f.length();
+		try
+		{
+			PathwayParser parser = new PathwayParser(f, xmlReader);
+			return new Entry(f, lastModified, size, parser.getName(), parser.getGenes());
+		}
+		catch (PathwayParser.ParseException ex)
+		{
+			return new Entry(f, lastModified, size, null, null);
+		}
+		catch (RuntimeException ex)
+		{
+			// e.g. an unknown data source; don't let one bad file abort the whole query
+			Logger.log.error("Could not index pathway " + f, ex);
+			return new Entry(f, lastModified, size, null, null);
+		}
+	}
+
+	/**
+	 * Read the index file. If it doesn't exist or can't be read, we start with an empty index.
+	 */
+	private void load()
+	{
+		entries = new HashMap<File, Entry>();
+		if (indexFile == null || !indexFile.exists()) return;
+
+		DataInputStream in = null;
+		try
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+			{
+				Logger.log.info("Ignoring pathway index with unknown format " + indexFile);
+				return;
+			}
+			int nrEntries = in.readInt();
+			for (int i = 0; i < nrEntries; ++i)
+			{
+				File file = new File(in.readUTF());
+				long lastModified = in.readLong();
+				long size = in.readLong();
+				String name = readString(in);
+				int nrGenes = in.readInt();
+				List<XrefWithSymbol> genes = null;
+				boolean ok = true;
+				if (nrGenes >= 0)
+				{
+					genes = new ArrayList<XrefWithSymbol>(nrGenes);
+					for (int j = 0; j < nrGenes; ++j)
+					{
+						String dsName = readString(in);
+						String id = readString(in);
+						String symbol = readString(in);
+						DataSource ds = null;
+						if (dsName != null)
+						{
+							// data sources are registered at run time,
+							// if this one is not known now the entry is stale.
+							if (DataSource.fullNameExists(dsName))
+								ds = DataSource.getExistingByFullName(dsName);
+							else
+								ok = false;
+						}
+						genes.add(new XrefWithSymbol(id, ds, symbol));
+					}
+				}
+				if (ok) entries.put(file, new Entry(file, lastModified, size, name, genes));
+			}
+		}
+		catch (IOException ex)
+		{
+			Logger.log.warn("Could not read pathway index " + indexFile + ", starting with an empty index", ex);
+			entries.clear();
+		}
+		finally
+		{
+			if (in != null) try { in.close(); } catch (IOException ex) { /* ignore */ }
+		}
+	}
+
+	/**
+	 * Write the index file. Entries of files that don't exist anymore are dropped.
+	 * The index is written to a temporary file first, so a crash can't leave a half-written index.
+	 */
+	private void save()
+	{
+		for (Iterator<File> it = entries.keySet().iterator(); it.hasNext(); )
+		{
+			if (!it.next().exists()) it.remove();
+		}
+		changed = false;
+		if (indexFile == null) return;
+
+		File tmp = new File(indexFile.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try
+		{
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(entries.size());
+			for (Entry e : entries.values())
+			{
+				out.writeUTF(e.file.getPath());
+				out.writeLong(e.lastModified);
+				out.writeLong(e.size);
+				writeString(out, e.name);
+				if (e.isValid())
+				{
+					out.writeInt(e.genes.size());
+					for (XrefWithSymbol gene : e.genes)
+					{
+						writeString(out, gene.getDataSource() == null ? null : gene.getDataSource().getFullName());
+						writeString(out, gene.getId());
+						writeString(out, gene.getSymbol());
+					}
+				}
+				else
+				{
+					out.writeInt(-1);
+				}
+			}
+			out.close();
+			out = null;
+			if ((indexFile.exists() && !indexFile.delete()) || !tmp.renameTo(indexFile))
+			{
+				Logger.log.warn("Could not replace pathway index " + indexFile);
+			}
+		}
+		catch (IOException ex)
+		{
+			Logger.log.warn("Could not write pathway index " + indexFile, ex);
+		}
+		finally
+		{
+			if (out != null) try { out.close(); } catch (IOException ex) { /* ignore */ }
+		}
+	}
+
+	/** write a string that may be null */
+	private static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		out.writeBoolean(s != null);
+		if (s != null) out.writeUTF(s);
+	}
+
+	/** read a string written by writeString */
+	private static String readString(DataInputStream in) throws IOException
+	{
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
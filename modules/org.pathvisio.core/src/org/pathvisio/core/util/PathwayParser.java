@@ -20,7 +20,9 @@
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.bridgedb.DataSource;
 import org.pathvisio.core.data.XrefWithSymbol;
@@ -35,6 +37,10 @@
 /**
  * This sax handler can be used to quickly parse pathway information from
  * a gpml file
+ * <p>
+ * The whole file is always read. Gene searches look up the pathways in the
+ * {@link PathwayIndex}, which stores every gene of a file, so there is no
+ * use for a parse that stops at the first matching gene.
  */
 public class PathwayParser extends DefaultHandler
 {
@@ -51,22 +57,32 @@ public ParseException (Exception e)
 
 	String name;
 	private List<XrefWithSymbol> genes;
+	// same contents as genes, for constant time duplicate checks
+	private Set<XrefWithSymbol> geneSet;
 
 	public PathwayParser()
 	{
 		name = "";
 		genes = new ArrayList<XrefWithSymbol>();
+		geneSet = new HashSet<XrefWithSymbol>();
 	}
 
 	public PathwayParser(File f, XMLReader xmlReader) throws ParseException
 	{
 		this();
+		parse(f, xmlReader);
+	}
+
+	private void parse(File f, XMLReader xmlReader) throws ParseException
+	{
 		xmlReader.setContentHandler(this);
 		xmlReader.setEntityResolver(this);
 
+		FileReader reader = null;
 		try
 		{
-			xmlReader.parse(new InputSource (new FileReader(f)));
+			reader = new FileReader(f);
+			xmlReader.parse(new InputSource (reader));
 		}
 		catch (IOException e)
 		{
@@ -77,6 +93,11 @@ public PathwayParser(File f, XMLReader xmlReader) throws ParseException
 			throw new ParseException (e);
 			// ignore pathways that generate an exception (return empty list)
 		}
+		finally
+		{
+			// close explicitly, the reader may not have reached the end of the file
+			if (reader != null) try { reader.close(); } catch (IOException e) { /* ignore */ }
+		}
 	}
 
 	public List<XrefWithSymbol> getGenes() { return genes; }
@@ -110,9 +131,8 @@ else if(localName.equals("Xref"))
 
 			XrefWithSymbol currentGene = new XrefWithSymbol (
 					currentId, currentDs, currentSymbol);
-			if(!genes.contains(currentGene)) //Don't add duplicate genes
+			if(geneSet.add(currentGene)) //Don't add duplicate genes
 				genes.add(currentGene);
-			currentGene = null;
 		}
 	}
 
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.view;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The area of a {@link VPathway} that has to be repainted, as a small set of rectangles.
+ * <p>
+ * Rectangles that overlap, or that are so close that painting their union costs little
+ * more than painting both, are merged. The number of rectangles is capped, beyond that the pair that
+ * is cheapest to merge is merged, so changes all over the drawing end up as a few larger areas.
+ * The owner takes the rectangles once per event cycle with {@link #flush()}.
+ * <p>
+ * Elements may be marked dirty from other threads, e.g. while loading, so all methods are synchronized.
+ */
+class DirtyRegion
+{
+	/** maximum number of separate rectangles */
+	static final int MAX_RECTS = 8;
+	/** merge if the union is at most this much larger than the two rectangles together */
+	private static final double MERGE_FACTOR = 1.25;
+
+	private final List<Rectangle> rects = new ArrayList<Rectangle>();
+
+	/**
+	 * Add an area to the region.
+	 * @return true if the region was empty before, so the caller knows a flush has to be scheduled
+	 */
+	synchronized boolean add(Rectangle r)
+	{
+		// Swing doesn't paint empty areas either
+		if (r.isEmpty()) return false;
+		boolean wasEmpty = rects.isEmpty();
+		addMerged(new Rectangle(r));
+		if (rects.size() > MAX_RECTS) mergeCheapestPair();
+		return wasEmpty;
+	}
+
+	/**
+	 * Take all rectangles, leaving the region empty.
+	 */
+	synchronized List<Rectangle> flush()
+	{
+		List<Rectangle> result = new ArrayList<Rectangle>(rects);
+		rects.clear();
+		return result;
+	}
+
+	private static boolean shouldMerge(Rectangle a, Rectangle b)
+	{
+		return a.intersects(b) ||
+			area(a.union(b)) <= MERGE_FACTOR * (area(a) + area(b));
+	}
+
+	/** merge the two rectangles whose union adds the least area */
+	private void mergeCheapestPair()
+	{
+		int bestI = 0;
+		int bestJ = 1;
+		double bestCost = Double.MAX_VALUE;
+		for (int i = 0; i < rects.size(); ++i)
+		{
+			for (int j = i + 1; j < rects.size(); ++j)
+			{
+				Rectangle a = rects.get(i);
+				Rectangle b = rects.get(j);
+				double cost = area(a.union(b)) - area(a) - area(b);
+				if (cost < bestCost)
+				{
+					bestCost = cost;
+					bestI = i;
+					bestJ = j;
+				}
+			}
+		}
+		Rectangle merged = rects.get(bestI).union(rects.get(bestJ));
+		// remove the higher index first, so the lower one stays valid
+		rects.remove(bestJ);
+		rects.remove(bestI);
+		addMerged(merged);
+	}
+
+	/** add a rectangle, merged with all rectangles it should be merged with */
+	private void addMerged(Rectangle merged)
+	{
+		// after a merge, the result may overlap rectangles it didn't overlap before
+		boolean changed = true;
+		while (changed)
+		{
+			changed = false;
+			for (Iterator<Rectangle> it = rects.iterator(); it.hasNext();)
+			{
+				Rectangle other = it.next();
+				if (shouldMerge(merged, other))
+				{
+					merged = merged.union(other);
+					it.remove();
+					changed = true;
+				}
+			}
+		}
+		rects.add(merged);
+	}
+
+	private static double area(Rectangle r)
+	{
+		return (double)r.width * r.height;
+	}
+}
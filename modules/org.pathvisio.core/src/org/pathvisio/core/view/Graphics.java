@@ -33,6 +33,7 @@
 import org.pathvisio.core.model.PathwayElement;
 import org.pathvisio.core.model.PathwayElementEvent;
 import org.pathvisio.core.model.PathwayElementListener;
+import org.pathvisio.core.model.StaticProperty;
 
 /**
  * This class is a parent class for all graphics
@@ -60,6 +61,18 @@ protected Citation createCitation()
 		return new Citation(canvas, this, new Point2D.Double(1, -1));
 	}
 
+	/**
+	 * Let the drawing know if the z-order of this element may have changed,
+	 * so the drawing order is restored before the next repaint.
+	 */
+	protected final void checkZOrder(PathwayElementEvent e)
+	{
+		if (!e.isCoordinateChange() && e.affectsProperty(StaticProperty.ZORDER))
+		{
+			canvas.zOrderChanged();
+		}
+	}
+
 	public final void checkCitation()
 	{
 		List<PublicationXref> xrefs = gdata.getBiopaxReferenceManager().getPublicationXRefs();
@@ -107,6 +120,7 @@ public void gmmlObjectModified(PathwayElementEvent e) {
 		{
 			markDirty(); // mark everything dirty
 			checkCitation();
+			checkZOrder(e);
 		}
 	}
 
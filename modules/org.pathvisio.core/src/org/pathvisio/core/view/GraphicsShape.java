@@ -472,6 +472,7 @@ public void gmmlObjectModified(PathwayElementEvent e)
 	{
 		markDirty(); // mark everything dirty
 		checkCitation();
+		checkZOrder(e);
 		if (handles.length > 0) setHandleLocation();
 	}
 
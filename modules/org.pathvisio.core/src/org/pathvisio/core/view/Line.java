@@ -636,6 +636,7 @@ public void gmmlObjectModified(PathwayElementEvent e) {
 			setAnchors();
 		}
 		checkCitation();
+		checkZOrder(e);
 		updateAnchorPositions();
 		updateCitationPosition();
 	}
@@ -18,6 +18,7 @@
 
 import java.awt.Shape;
 import java.awt.geom.GeneralPath;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -38,10 +39,11 @@ by calling  registerShape() on BasicShapes, GenMAPPShapes and MIMShapes.
 	private static ArrowShape defaultArrow = null;
 	private static AnchorShape defaultAnchor = null;
 
-	private static Map <String, IShape> shapeMap = new HashMap <String, IShape>();
-	private static Map <String, ArrowShape> arrowMap = new HashMap <String, ArrowShape>();
-	private static Map <String, AnchorShape> anchorMap = new HashMap <String, AnchorShape>();
-	private static Map<String, IShape> mappMappings = new HashMap<String, IShape>();
+	// synchronized, because plug-ins may register shapes while pathways are drawn on other threads
+	private static Map <String, IShape> shapeMap = Collections.synchronizedMap(new HashMap <String, IShape>());
+	private static Map <String, ArrowShape> arrowMap = Collections.synchronizedMap(new HashMap <String, ArrowShape>());
+	private static Map <String, AnchorShape> anchorMap = Collections.synchronizedMap(new HashMap <String, AnchorShape>());
+	private static Map<String, IShape> mappMappings = Collections.synchronizedMap(new HashMap<String, IShape>());
 
 	static
 	{
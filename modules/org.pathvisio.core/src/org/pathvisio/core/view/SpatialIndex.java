@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.view;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Uniform grid over the bounds of the elements of a {@link VPathway},
+ * used to find the elements near a point or rectangle without
+ * checking every element.
+ * <p>
+ * Bounds are stored in model coordinates, so the grid doesn't depend on the zoom factor.
+ * The index doesn't calculate bounds itself when an element changes. Elements
+ * are marked as pending whenever their shape cache is reset, and are
+ * re-inserted on the next query, so an element that moves several times
+ * between two queries is only updated once.
+ * <p>
+ * Queries return candidates only: all elements whose bounds
+ * may overlap with the query area. Callers still have to do the exact test.
+ */
+class SpatialIndex
+{
+	/** size of a grid cell, in model coordinates */
+	private static final double CELL_SIZE = 256;
+	/** margin added around bounds, to allow for rounding in the view to model conversion */
+	private static final double MARGIN = 1;
+	/** elements covering more cells than this are not put in the grid, but always returned */
+	private static final int MAX_CELLS = 1024;
+
+	private final VPathway canvas;
+
+	/** all elements in the index, with the cell range they were inserted in. null if not in the grid */
+	private final Map<VPathwayElement, int[]> ranges = new IdentityHashMap<VPathwayElement, int[]>();
+	private final Map<Long, List<VPathwayElement>> cells = new HashMap<Long, List<VPathwayElement>>();
+	/** elements that are too large for the grid, or have invalid bounds */
+	private final Set<VPathwayElement> large = Collections.newSetFromMap(new IdentityHashMap<VPathwayElement, Boolean>());
+	/** elements that have to be (re-)inserted before the next query */
+	private final Set<VPathwayElement> pending = Collections.newSetFromMap(new IdentityHashMap<VPathwayElement, Boolean>());
+
+	SpatialIndex(VPathway canvas)
+	{
+		this.canvas = canvas;
+	}
+
+	boolean contains(VPathwayElement elt)
+	{
+		return ranges.containsKey(elt);
+	}
+
+	void add(VPathwayElement elt)
+	{
+		if (ranges.containsKey(elt)) return;
+		ranges.put(elt, null);
+		pending.add(elt);
+	}
+
+	void remove(VPathwayElement elt)
+	{
+		if (!ranges.containsKey(elt)) return;
+		unlink(elt);
+		ranges.remove(elt);
+		pending.remove(elt);
+	}
+
+	/**
+	 * Called when the bounds of an element may have changed.
+	 * Ignored for elements that are not in the index.
+	 */
+	void invalidate(VPathwayElement elt)
+	{
+		if (ranges.containsKey(elt)) pending.add(elt);
+	}
+
+	void clear()
+	{
+		ranges.clear();
+		cells.clear();
+		large.clear();
+		pending.clear();
+	}
+
+	/**
+	 * Find all elements whose bounds may overlap with the given area.
+	 * @param vArea area in view coordinates. May have zero width and height to query a single point.
+	 * @return candidate elements, in drawing order (see {@link VPathwayElement#compareTo})
+	 */
+	List<VPathwayElement> query(Rectangle2D vArea)
+	{
+		flush();
+		Set<VPathwayElement> found = Collections.newSetFromMap(new IdentityHashMap<VPathwayElement, Boolean>());
+		found.addAll(large);
+		int[] r = cellRange(vArea);
+		if (r == null || (long)(r[2] - r[0] + 1) * (r[3] - r[1] + 1) > cells.size())
+		{
+			// area covers more cells than there are in use, cheaper to return everything
+			found.addAll(ranges.keySet());
+		}
+		else
+		{
+			for (int cx = r[0]; cx <= r[2]; ++cx)
+			{
+				for (int cy = r[1]; cy <= r[3]; ++cy)
+				{
+					List<VPathwayElement> cell = cells.get(key(cx, cy));
+					if (cell != null) found.addAll(cell);
+				}
+			}
+		}
+		List<VPathwayElement> result = new ArrayList<VPathwayElement>(found);
+		Collections.sort(result);
+		return result;
+	}
+
+	private void flush()
+	{
+		if (pending.isEmpty()) return;
+		// calculating bounds may invalidate other elements, those are handled in the next flush
+		List<VPathwayElement> todo = new ArrayList<VPathwayElement>(pending);
+		pending.clear();
+		for (VPathwayElement elt : todo)
+		{
+			unlink(elt);
+			int[] r = cellRange(elt.getVBounds());
+			if (r == null || (long)(r[2] - r[0] + 1) * (r[3] - r[1] + 1) > MAX_CELLS)
+			{
+				large.add(elt);
+				ranges.put(elt, null);
+				continue;
+			}
+			for (int cx = r[0]; cx <= r[2]; ++cx)
+			{
+				for (int cy = r[1]; cy <= r[3]; ++cy)
+				{
+					Long key = key(cx, cy);
+					List<VPathwayElement> cell = cells.get(key);
+					if (cell == null)
+					{
+						cell = new ArrayList<VPathwayElement>(4);
+						cells.put(key, cell);
+					}
+					cell.add(elt);
+				}
+			}
+			ranges.put(elt, r);
+		}
+	}
+
+	/** remove an element from the grid cells it is currently in */
+	private void unlink(VPathwayElement elt)
+	{
+		large.remove(elt);
+		int[] r = ranges.get(elt);
+		if (r == null) return;
+		for (int cx = r[0]; cx <= r[2]; ++cx)
+		{
+			for (int cy = r[1]; cy <= r[3]; ++cy)
+			{
+				Long key = key(cx, cy);
+				List<VPathwayElement> cell = cells.get(key);
+				if (cell == null) continue;
+				cell.remove(elt);
+				if (cell.isEmpty()) cells.remove(key);
+			}
+		}
+		ranges.put(elt, null);
+	}
+
+	/**
+	 * Range of cells covered by a rectangle in view coordinates, as {minX, minY, maxX, maxY},
+	 * or null if the rectangle is not finite.
+	 */
+	private int[] cellRange(Rectangle2D vr)
+	{
+		double x1 = canvas.mFromV(vr.getMinX()) - MARGIN;
+		double y1 = canvas.mFromV(vr.getMinY()) - MARGIN;
+		double x2 = canvas.mFromV(vr.getMaxX()) + MARGIN;
+		double y2 = canvas.mFromV(vr.getMaxY()) + MARGIN;
+		if (!isFinite(x1) || !isFinite(y1) || !isFinite(x2) || !isFinite(y2)) return null;
+		double limit = Integer.MAX_VALUE * CELL_SIZE / 2;
+		if (Math.abs(x1) > limit || Math.abs(y1) > limit || Math.abs(x2) > limit || Math.abs(y2) > limit) return null;
+		return new int[] {
+			(int)Math.floor(x1 / CELL_SIZE), (int)Math.floor(y1 / CELL_SIZE),
+			(int)Math.floor(x2 / CELL_SIZE), (int)Math.floor(y2 / CELL_SIZE)
+		};
+	}
+
+	private static boolean isFinite(double d)
+	{
+		return !Double.isNaN(d) && !Double.isInfinite(d);
+	}
+
+	private static Long key(int cx, int cy)
+	{
+		return ((long)cx << 32) | (cy & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.view;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Images of the static content of a {@link VPathway}, in square tiles of the view.
+ * <p>
+ * Tiles are kept per zoom level, so zooming back to a previous level doesn't
+ * render everything again. Only the most recently used tiles are kept, up to {@link #MAX_BYTES}
+ * of images. Tiles for high resolution screens have more pixels, so fewer of them fit.
+ * When part of the drawing changes, the tiles that overlap it are dropped,
+ * at all zoom levels, and rendered again the next time they are painted.
+ * <p>
+ * Elements may be marked dirty from other threads, e.g. while loading, so all methods are synchronized.
+ */
+class TileCache
+{
+	/** width and height of a tile, in view coordinates */
+	static final int TILE_SIZE = 256;
+	/** maximum memory used by the tile images, 128 tiles at scale 1 */
+	static final long MAX_BYTES = 32L * 1024 * 1024;
+	/** extra space around invalidated areas, for anti-aliasing that falls just outside the bounds */
+	private static final double MARGIN = 2.0;
+
+	/** in order of access, least recently used first */
+	private final Map<Key, BufferedImage> tiles = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true);
+	/** memory used by the images in tiles */
+	private long bytes = 0;
+
+	/** incremented on each invalidation, see {@link #put} */
+	private int generation = 0;
+
+	/**
+	 * @param zoom the zoom factor the tile is drawn at
+	 * @param scale the scale of the device, larger than 1 on high resolution screens
+	 * @param x column of the tile, i.e. the view x coordinate divided by {@link #TILE_SIZE}
+	 * @param y row of the tile
+	 * @return the cached image, or null if it has to be rendered
+	 */
+	synchronized BufferedImage get(double zoom, double scale, int x, int y)
+	{
+		return tiles.get(new Key(zoom, scale, x, y));
+	}
+
+	/**
+	 * Returns a value that changes each time tiles are invalidated.
+	 * Get it before rendering a tile, and pass it to {@link #put}.
+	 */
+	synchronized int getGeneration()
+	{
+		return generation;
+	}
+
+	/**
+	 * Store a rendered tile. If anything was invalidated while rendering,
+	 * the tile may be out of date already, and is not stored.
+	 * @param generation the result of {@link #getGeneration()} before rendering started
+	 */
+	synchronized void put(double zoom, double scale, int x, int y, BufferedImage image, int generation)
+	{
+		if (generation != this.generation) return;
+		BufferedImage old = tiles.put(new Key(zoom, scale, x, y), image);
+		if (old != null) bytes -= getBytes(old);
+		bytes += getBytes(image);
+		for (Iterator<BufferedImage> it = tiles.values().iterator(); bytes > MAX_BYTES && it.hasNext();)
+		{
+			bytes -= getBytes(it.next());
+			it.remove();
+		}
+	}
+
+	/** memory used by the pixels of an image */
+	private static long getBytes(BufferedImage image)
+	{
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		return (long)buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+
+	/**
+	 * Drop all tiles that overlap the given area.
+	 * @param r the changed area, in view coordinates
+	 * @param zoom the zoom factor the area is in
+	 */
+	synchronized void invalidate(Rectangle2D r, double zoom)
+	{
+		generation++;
+		for (Iterator<Map.Entry<Key, BufferedImage>> it = tiles.entrySet().iterator(); it.hasNext();)
+		{
+			Map.Entry<Key, BufferedImage> entry = it.next();
+			Key k = entry.getKey();
+			// tiles of other zoom levels cover a different area of the view
+			double f = k.zoom / zoom;
+			double minX = r.getMinX() * f - MARGIN;
+			double maxX = r.getMaxX() * f + MARGIN;
+			double minY = r.getMinY() * f - MARGIN;
+			double maxY = r.getMaxY() * f + MARGIN;
+			double tileX = (double)k.x * TILE_SIZE;
+			double tileY = (double)k.y * TILE_SIZE;
+			if (maxX > tileX && minX < tileX + TILE_SIZE &&
+				maxY > tileY && minY < tileY + TILE_SIZE)
+			{
+				bytes -= getBytes(entry.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	/** Drop all tiles */
+	synchronized void clear()
+	{
+		generation++;
+		tiles.clear();
+		bytes = 0;
+	}
+
+	synchronized int size()
+	{
+		return tiles.size();
+	}
+
+	/** memory used by the cached images */
+	synchronized long getBytes()
+	{
+		return bytes;
+	}
+
+	private static class Key
+	{
+		final double zoom;
+		final double scale;
+		final int x;
+		final int y;
+
+		Key(double zoom, double scale, int x, int y)
+		{
+			this.zoom = zoom;
+			this.scale = scale;
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key)) return false;
+			Key other = (Key)o;
+			return x == other.x && y == other.y &&
+				zoom == other.zoom && scale == other.scale;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			long bits = Double.doubleToLongBits(zoom) * 31 + Double.doubleToLongBits(scale);
+			return ((int)(bits ^ (bits >>> 32)) * 31 + x) * 31 + y;
+		}
+	}
+}
@@ -1,13 +1,13 @@
 /*******************************************************************************
  * PathVisio, a tool for data visualization and analysis using biological pathways
  * Copyright 2006-2024 PathVisio
- * 
+ *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License.  You may obtain a copy
  * of the License at
- * 
+ *
  *   http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
@@ -16,17 +16,55 @@
  ******************************************************************************/
 package org.pathvisio.core.view;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.pathvisio.core.model.MLine;
 import org.pathvisio.core.model.Pathway;
+import org.pathvisio.core.model.PathwayElement;
+import org.pathvisio.core.model.PathwayElement.MAnchor;
+import org.pathvisio.core.model.PathwayElement.MPoint;
+import org.pathvisio.core.model.StaticProperty;
+import org.pathvisio.core.util.Utils;
 
 /**
  * a single item on the undo stack.
- * Stores a complete copy of the Pathway as it was before the user modified it, so
- * it can be restored.
+ * <p>
+ * Stores the changes made to the pathway, as recorded by the {@link UndoManager}.
+ * For each element that was modified, only the state before its first modification
+ * is kept, so dragging an element around results in a single change, no matter
+ * how many intermediate positions there were. Elements that were added or deleted
+ * are recorded as well. Undo replays the changes in reverse order on the
+ * affected elements only.
+ * <p>
+ * For backwards compatibility, an action can also be created from a complete copy
+ * of the pathway, in which case undo replaces the whole pathway.
  *
  * TODO: remember selection state as well.
  */
 public class UndoAction
 {
+	/**
+	 * Create an action that collects the changes recorded by the undo manager.
+	 * Pass it to {@link UndoManager#newAction(UndoAction)} before making the changes,
+	 * or use {@link UndoManager#startAction(String)}.
+	 */
+	public UndoAction(String aMessage)
+	{
+		message = aMessage;
+	}
+
+	/**
+	 * Create an action that restores a complete copy of the pathway.
+	 * Undoing this action replaces the pathway, which discards
+	 * older actions that were recorded as changes.
+	 * @deprecated use {@link UndoManager#startAction(String)}, which doesn't need a copy of the pathway.
+	 */
 	public UndoAction(String aMessage,
 					  Pathway current)
 	{
@@ -34,10 +72,35 @@ public UndoAction(String aMessage,
 		originalState = current;
 	}
 
+	private static final int MODIFIED = 0;
+	private static final int ADDED = 1;
+	private static final int DELETED = 2;
+
+	/** A single recorded change of one element */
+	private static class Change
+	{
+		final int type;
+		final PathwayElement elt;
+		/** copy of the element before the change, null for added elements */
+		final PathwayElement before;
+
+		Change(int type, PathwayElement elt, PathwayElement before)
+		{
+			this.type = type;
+			this.elt = elt;
+			this.before = before;
+		}
+	}
+
 	private String message;
 	private Pathway originalState;
 	private UndoManager undoMgr;
 
+	private final List<Change> changes = new ArrayList<Change>();
+	/** elements for which a MODIFIED change was recorded already */
+	private final Set<PathwayElement> touched =
+		Collections.newSetFromMap(new IdentityHashMap<PathwayElement, Boolean>());
+
 	/**
 	 * Set the undo manager that will be used to perform
 	 * the undo. This will be set by {@link UndoManager#newAction}
@@ -52,21 +115,242 @@ public String getMessage()
 		return message;
 	}
 
+	void setMessage(String value)
+	{
+		message = value;
+	}
+
+	/** true if this action restores a complete copy of the pathway */
+	boolean isSnapshot()
+	{
+		return originalState != null;
+	}
+
+	boolean isEmpty()
+	{
+		return originalState == null && changes.isEmpty();
+	}
+
+	/**
+	 * Record a modification. Ignored if this element was modified before in this action,
+	 * because then the earlier state is already known.
+	 */
+	void recordModified(PathwayElement elt, PathwayElement before)
+	{
+		if (touched.add(elt)) changes.add(new Change(MODIFIED, elt, before));
+	}
+
+	void recordAdded(PathwayElement elt)
+	{
+		changes.add(new Change(ADDED, elt, null));
+	}
+
+	/**
+	 * @param before state of the element before this action, may be null
+	 * if the element was added in this action
+	 */
+	void recordDeleted(PathwayElement elt, PathwayElement before)
+	{
+		changes.add(new Change(DELETED, elt, before));
+	}
+
+	/**
+	 * Append the changes of a later action to this one. Used for changes that
+	 * were recorded without ending up in an action of their own.
+	 */
+	void merge(UndoAction later)
+	{
+		for (Change c : later.changes)
+		{
+			if (c.type == MODIFIED)
+			{
+				recordModified(c.elt, c.before);
+			}
+			else
+			{
+				changes.add(c);
+			}
+		}
+	}
+
 	void printSummary()
 	{
 		System.out.printf ("'%20s'\n", message);
-		System.out.print ("" + originalState.summary());
+		if (originalState != null)
+		{
+			System.out.print ("" + originalState.summary());
+		}
+		else
+		{
+			System.out.print (changes.size() + " changes");
+		}
 	}
 
 	public void undo()
 	{
-		/*
-		UndoManager um = Engine.getCurrent().getActiveVPathway().getUndoManager();
-		Engine.getCurrent().createVPathway (originalState);
-		Engine.getCurrent().getActiveVPathway().setUndoManager(um);
-		*/
-		if(undoMgr != null) {
+		if(undoMgr == null) return;
+		if (originalState != null)
+		{
 			undoMgr.getEngine().replacePathway (originalState);
+			return;
+		}
+		Pathway pathway = undoMgr.getPathway();
+		for (int i = changes.size() - 1; i >= 0; --i)
+		{
+			Change c = changes.get(i);
+			switch (c.type)
+			{
+			case ADDED:
+				if (c.elt.getParent() == pathway) pathway.remove(c.elt);
+				break;
+			case DELETED:
+				if (c.elt.getParent() == null) pathway.add(c.elt);
+				if (c.before != null) restore(c.elt, c.before);
+				break;
+			default:
+				if (c.elt.getParent() == pathway) restore(c.elt, c.before);
+				break;
+			}
+		}
+	}
+
+	/** line properties that are restored through the points of the line instead */
+	private static final Set<StaticProperty> LINE_POINT_PROPS = EnumSet.of(
+		StaticProperty.STARTX, StaticProperty.STARTY,
+		StaticProperty.ENDX, StaticProperty.ENDY,
+		StaticProperty.STARTGRAPHREF, StaticProperty.ENDGRAPHREF
+	);
+
+	/**
+	 * Restore the properties of a live element from a copy, in place.
+	 * Only properties that differ are set, so unchanged elements don't fire events.
+	 */
+	static void restore(PathwayElement elt, PathwayElement before)
+	{
+		boolean isLine = elt instanceof MLine;
+		for (StaticProperty t : elt.getStaticPropertyKeys())
+		{
+			if (isLine && LINE_POINT_PROPS.contains(t)) continue;
+			Object value = before.getStaticProperty(t);
+			if (!equal(value, elt.getStaticProperty(t)))
+			{
+				// don't share mutable lists with the copy
+				if (value instanceof List<?>) value = new ArrayList<Object>((List<?>)value);
+				elt.setStaticProperty(t, value);
+			}
+		}
+
+		Set<String> keys = new HashSet<String>(elt.getDynamicPropertyKeys());
+		keys.addAll(before.getDynamicPropertyKeys());
+		for (String key : keys)
+		{
+			String value = before.getDynamicProperty(key);
+			if (!equal(value, elt.getDynamicProperty(key)))
+			{
+				elt.setDynamicProperty(key, value);
+			}
+		}
+
+		if (isLine)
+		{
+			restorePoints(elt, before);
+			restoreAnchors(elt, before);
+		}
+	}
+
+	private static boolean equal(Object a, Object b)
+	{
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Restore the points of a line. The start and end point are kept,
+	 * because the view refers to them.
+	 */
+	private static void restorePoints(PathwayElement elt, PathwayElement before)
+	{
+		List<MPoint> points = elt.getMPoints();
+		List<MPoint> oldPoints = before.getMPoints();
+		if (points.size() == oldPoints.size())
+		{
+			for (int i = 0; i < points.size(); ++i)
+			{
+				restorePoint(points.get(i), oldPoints.get(i));
+			}
+		}
+		else
+		{
+			List<MPoint> result = new ArrayList<MPoint>();
+			result.add(elt.getMStart());
+			for (int i = 1; i < oldPoints.size() - 1; ++i)
+			{
+				MPoint p = oldPoints.get(i);
+				result.add(elt.new MPoint(p.getX(), p.getY()));
+			}
+			result.add(elt.getMEnd());
+			elt.setMPoints(result);
+			restorePoint(elt.getMStart(), oldPoints.get(0));
+			restorePoint(elt.getMEnd(), oldPoints.get(oldPoints.size() - 1));
+		}
+	}
+
+	/**
+	 * Restore a point from its copy. The copy has no parent,
+	 * so its x and y are the stored coordinates, not derived from the linked object.
+	 */
+	private static void restorePoint(MPoint p, MPoint old)
+	{
+		String ref = old.getGraphRef();
+		if (Utils.stringEquals(ref, p.getGraphRef()))
+		{
+			if (p.isRelative())
+			{
+				if (p.getRelX() == old.getRelX() && p.getRelY() == old.getRelY()) return;
+			}
+			else if (p.getX() == old.getX() && p.getY() == old.getY()) return;
+		}
+		p.setGraphRef(ref);
+		p.moveTo(old.getX(), old.getY());
+		if (ref != null) p.setRelativePosition(old.getRelX(), old.getRelY());
+	}
+
+	/**
+	 * Restore the anchors of a line. Anchors are modified in place if the number
+	 * of anchors didn't change, so the view can keep its anchor objects.
+	 */
+	private static void restoreAnchors(PathwayElement elt, PathwayElement before)
+	{
+		List<MAnchor> anchors = elt.getMAnchors();
+		List<MAnchor> oldAnchors = before.getMAnchors();
+		if (anchors.size() != oldAnchors.size())
+		{
+			for (MAnchor a : new ArrayList<MAnchor>(anchors))
+			{
+				a.setGraphId(null);
+				elt.removeMAnchor(a);
+			}
+			for (MAnchor old : oldAnchors)
+			{
+				elt.addMAnchor(old.getPosition());
+			}
+		}
+		for (int i = 0; i < oldAnchors.size(); ++i)
+		{
+			MAnchor a = anchors.get(i);
+			MAnchor old = oldAnchors.get(i);
+			a.setPosition(old.getPosition());
+			a.setShape(old.getShape());
+			// clear ids first, ids have to be unique at all times
+			if (!Utils.stringEquals(a.getGraphId(), old.getGraphId()))
+			{
+				a.setGraphId(null);
+			}
+		}
+		for (int i = 0; i < oldAnchors.size(); ++i)
+		{
+			MAnchor a = anchors.get(i);
+			String id = oldAnchors.get(i).getGraphId();
+			if (id != null && !id.equals(a.getGraphId())) a.setGraphId(id);
 		}
 	}
 }
@@ -17,13 +17,36 @@
 package org.pathvisio.core.view;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.pathvisio.core.Engine;
+import org.pathvisio.core.model.ObjectType;
 import org.pathvisio.core.model.Pathway;
+import org.pathvisio.core.model.PathwayElement;
+import org.pathvisio.core.model.PathwayElementEvent;
+import org.pathvisio.core.model.PathwayElementListener;
+import org.pathvisio.core.model.PathwayEvent;
+import org.pathvisio.core.model.PathwayListener;
 
-/** Manages a stack of undo actions */
-public class UndoManager
+/**
+ * Manages a stack of undo actions.
+ * <p>
+ * Changes to the pathway are recorded from the model events. The undo manager keeps a
+ * copy of each element as it was at the start of the current action; when an element
+ * is modified for the first time in an action, that copy is stored in the action.
+ * Copies are refreshed only for the elements that changed, when the next action starts.
+ * This way the memory used by the undo stack depends on the number of changed elements,
+ * not on the size of the pathway.
+ * <p>
+ * Changes that happen after an action was started belong to that action,
+ * until the next action is started.
+ */
+public class UndoManager implements PathwayListener, PathwayElementListener
 {
 	public static final String CANT_UNDO = "Can't undo";
 
@@ -31,8 +54,49 @@
 
 	private Pathway pathway;
 
+	/** the action that receives the changes, may be null */
+	private UndoAction recording = null;
+	/** true if the recording action is on the undo stack */
+	private boolean recordingOnStack = false;
+	/** true while undoing, so the undo itself is not recorded */
+	private boolean replaying = false;
+
+	/**
+	 * For each element in the pathway, a copy of its state at the start of the current action.
+	 * Created when the first action is started.
+	 */
+	private Map<PathwayElement, PathwayElement> shadows = null;
+	/** elements whose copy is outdated */
+	private Set<PathwayElement> dirty =
+		Collections.newSetFromMap(new IdentityHashMap<PathwayElement, Boolean>());
+
 	public void setPathway (Pathway pathway) {
+		if (this.pathway == pathway) return;
+		if (this.pathway != null)
+		{
+			this.pathway.removeListener(this);
+			for (PathwayElement elt : this.pathway.getDataObjects()) elt.removeListener(this);
+		}
 		this.pathway = pathway;
+		shadows = null;
+		dirty.clear();
+		recording = null;
+		recordingOnStack = false;
+		// recorded changes refer to elements of the previous pathway
+		for (Iterator<UndoAction> i = undoList.iterator(); i.hasNext(); )
+		{
+			if (!i.next().isSnapshot()) i.remove();
+		}
+		if (pathway != null)
+		{
+			pathway.addListener(this);
+			for (PathwayElement elt : pathway.getDataObjects()) elt.addListener(this);
+		}
+	}
+
+	Pathway getPathway()
+	{
+		return pathway;
 	}
 
 	private Engine engine;
@@ -69,32 +133,46 @@ protected Engine getEngine() {
 
 	static final int MAX_UNDO_SIZE = 25;
 	/**
-	   Insert a new action into the Undo Queue based on an UndoAction
-	   object that already contains a copy of the original state of
-	   the pathway. This way you can actually record the action after
+	   Insert a new action into the Undo Queue.
+	   <p>
+	   If the action was returned by {@link #startAction}, it already contains
+	   the changes made since then. This way you can actually record the action after
 	   the pathway has already modified, useful for collapsing
 	   multiple drag events into one action.
+	   Otherwise the action will record the changes from now on.
 
-	   @param act: UndoAction containing pre-recorded pathway state
+	   @param act: UndoAction containing pre-recorded changes
 	   and description of the action.
 	 */
 	public void newAction (UndoAction act)
 	{
 		if(!isActive()) return; //Don' record event if inactive
 
+		if (act != recording) endRecording();
 		act.setUndoManager(this);
 		undoList.add (act);
 		if (undoList.size() > MAX_UNDO_SIZE)
 		{
 			undoList.remove(0);
 		}
+		if (act.isSnapshot())
+		{
+			// a snapshot covers all changes until the next action
+			recording = null;
+			recordingOnStack = false;
+		}
+		else
+		{
+			recording = act;
+			recordingOnStack = true;
+		}
 		fireUndoManagerEvent (new UndoManagerEvent (getTopMessage()));
 	}
 
 	/**
-	   Insert a new action into the Undo Queue. This method
-	   will make a copy of the current state of the pathway, so call
-	   this method before the action actually takes place.
+	   Insert a new action into the Undo Queue. The changes
+	   made to the pathway from now on will be recorded in this action,
+	   so call this method before the action actually takes place.
 
 	   @param desc: description of the change, for display in the edit
 	   menu.
@@ -104,9 +182,113 @@ public void newAction (String desc)
 		if(!isActive()) return; //Don' record event if inactive
 
 		if(pathway != null) {
-			UndoAction x = new UndoAction (desc, (Pathway)pathway.clone());
-			x.setUndoManager(this);
-			newAction (x);
+			newAction (new UndoAction (desc));
+		}
+	}
+
+	/**
+	   Start recording changes in an action that is not put on the Undo Queue yet.
+	   Pass the result to {@link #newAction(UndoAction)} when it turns out the changes
+	   should be undoable as a separate action. If that doesn't happen, the changes
+	   are added to the previous action as soon as another action is started.
+
+	   @param desc: description of the change, for display in the edit
+	   menu.
+	 */
+	public UndoAction startAction (String desc)
+	{
+		UndoAction act = new UndoAction (desc);
+		if(!isActive() || pathway == null) return act;
+
+		endRecording();
+		act.setUndoManager(this);
+		recording = act;
+		recordingOnStack = false;
+		return act;
+	}
+
+	/**
+	 * True if changes made now are recorded in the given action, that is,
+	 * it is on top of the Undo Queue and no other action was started since.
+	 */
+	boolean isRecording (UndoAction act)
+	{
+		return act != null && act == recording && recordingOnStack;
+	}
+
+	/**
+	 * Stop recording in the current action, and bring the copies of
+	 * changed elements up to date.
+	 */
+	private void endRecording()
+	{
+		if (recording != null && !recordingOnStack && !recording.isEmpty() && undoList.size() > 0)
+		{
+			UndoAction top = undoList.get(undoList.size() - 1);
+			if (!top.isSnapshot()) top.merge(recording);
+		}
+		recording = null;
+		recordingOnStack = false;
+		updateShadows();
+	}
+
+	private void updateShadows()
+	{
+		if (pathway == null) return;
+		if (shadows == null)
+		{
+			shadows = new IdentityHashMap<PathwayElement, PathwayElement>();
+			for (PathwayElement elt : pathway.getDataObjects()) updateShadow(elt);
+		}
+		else
+		{
+			for (PathwayElement elt : dirty) updateShadow(elt);
+		}
+		dirty.clear();
+	}
+
+	private void updateShadow(PathwayElement elt)
+	{
+		// Biopax is not modified through element properties, so it can't be restored that way
+		if (elt.getParent() == pathway && elt.getObjectType() != ObjectType.BIOPAX)
+		{
+			shadows.put(elt, elt.copy());
+		}
+		else
+		{
+			shadows.remove(elt);
+		}
+	}
+
+	public void gmmlObjectModified(PathwayElementEvent e)
+	{
+		PathwayElement elt = e.getModifiedPathwayElement();
+		if (elt.getParent() != pathway) return;
+		dirty.add(elt);
+		if (replaying || recording == null || shadows == null) return;
+		PathwayElement before = shadows.get(elt);
+		// no copy means the element was added in this action
+		if (before != null) recording.recordModified(elt, before);
+	}
+
+	public void pathwayModified(PathwayEvent e)
+	{
+		PathwayElement elt = e.getAffectedData();
+		switch (e.getType())
+		{
+		case PathwayEvent.ADDED:
+			elt.addListener(this);
+			dirty.add(elt);
+			if (!replaying && recording != null) recording.recordAdded(elt);
+			break;
+		case PathwayEvent.DELETED:
+			elt.removeListener(this);
+			dirty.add(elt);
+			if (!replaying && recording != null && shadows != null)
+			{
+				recording.recordDeleted(elt, shadows.get(elt));
+			}
+			break;
 		}
 	}
 
@@ -128,9 +310,25 @@ void undo()
 	{
 		if (undoList.size() > 0 && isActive())
 		{
+			endRecording();
 			UndoAction a = undoList.get(undoList.size()-1);
-			a.undo();
+			replaying = true;
+			try
+			{
+				a.undo();
+			}
+			finally
+			{
+				replaying = false;
+			}
 			undoList.remove(a);
+			updateShadows();
+			// further changes belong to the action that is now on top, as before it was undone
+			if (undoList.size() > 0 && !undoList.get(undoList.size() - 1).isSnapshot())
+			{
+				recording = undoList.get(undoList.size() - 1);
+				recordingOnStack = true;
+			}
 			fireUndoManagerEvent (new UndoManagerEvent (getTopMessage()));
 		}
 	}
@@ -159,6 +357,7 @@ void fireUndoManagerEvent (UndoManagerEvent e)
 	public void dispose()
 	{
 		assert (!disposed);
+		setPathway(null);
 		undoList.clear();
 		listeners.clear();
 		disposed = true;
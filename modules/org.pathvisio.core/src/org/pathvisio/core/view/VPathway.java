@@ -18,14 +18,17 @@
 
 import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.awt.GraphicsDevice;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -40,6 +43,7 @@
 
 import javax.swing.Action;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 
 import org.pathvisio.core.Engine;
@@ -59,6 +63,7 @@
 import org.pathvisio.core.preferences.GlobalPreference;
 import org.pathvisio.core.preferences.PreferenceManager;
 import org.pathvisio.core.util.Utils;
+import org.pathvisio.core.view.SelectionBox.SelectionEvent;
 import org.pathvisio.core.view.SelectionBox.SelectionListener;
 import org.pathvisio.core.view.VPathwayEvent.VPathwayEventType;
 import org.pathvisio.core.view.ViewActions.KeyMoveAction;
@@ -86,7 +91,7 @@ public class VPathway implements PathwayListener
 	
 	private boolean selectionEnabled = true;
 
-	private Pathway temporaryCopy = null;
+	private UndoAction dragUndoAction = null;
 
 	/**
 	 * Retuns true if snap to anchors is enabled
@@ -123,6 +128,19 @@ public void setSelectionEnabled(boolean value)
 	private List<VPathwayElement> drawingObjects;
 	private List<VPathwayElement> toAdd = new ArrayList<VPathwayElement>();
 
+	/**
+	 * Grid index on the bounds of drawingObjects,
+	 * used for hit testing and for finding the elements to repaint.
+	 */
+	private final SpatialIndex spatialIndex = new SpatialIndex(this);
+
+	/**
+	 * True if drawingObjects is sorted in drawing order.
+	 * New elements are inserted in place, so the list only
+	 * needs to be sorted again after a z-order change.
+	 */
+	private boolean zOrderValid = true;
+
 	/**
 	 * Obtain all VPathwayElements on this VPathway
 	 */
@@ -191,6 +209,14 @@ public VPathway(VPathwayWrapper parent)
 		drawingObjects = new ArrayList<VPathwayElement>();
 
 		selection = new SelectionBox(this);
+		selection.addListener(new SelectionListener()
+		{
+			public void selectionEvent(SelectionEvent e)
+			{
+				// the next nudge moves other objects, so it is a new action
+				keyMoveAction = null;
+			}
+		});
 
 		//Code that uses VPathway have to initialize
 		//the keyboard actions explicitly, if necessary.
@@ -208,6 +234,7 @@ public VPathway(VPathwayWrapper parent)
 	 */
 	public void redraw()
 	{
+		tileCache.clear();
 		if (parent != null)
 			parent.redraw();
 	}
@@ -269,6 +296,8 @@ public void replacePathway(Pathway originalState)
 
 		clearSelection();
 		drawingObjects = new ArrayList<VPathwayElement>();
+		spatialIndex.clear();
+		zOrderValid = true;
 		// transfer selectionBox with corresponding listeners
 		SelectionBox newSelection = new SelectionBox(this);
 		for(Iterator<SelectionListener> i = selection.getListeners().iterator(); i.hasNext(); )
@@ -328,19 +357,88 @@ public void setNewTemplate(Template t) {
 	 * Adds object boundaries to the "dirty" area, the area which needs to be redrawn. 
 	 * The redraw will not happen immediately, but
 	 * will be scheduled on the event dispatch thread.
+	 * @param elt the element that changed
+	 * @param ar the area it covers, in view coordinates
+	 */
+	void addDirtyRect(VPathwayElement elt, Rectangle2D ar)
+	{
+		if (parent == null) return;
+		if (tileCaching && mayBeInTiles(elt))
+		{
+			tileCache.invalidate(ar, zoomFactor);
+		}
+		if (dirtyRegion.add(ar.getBounds()))
+		{
+			// first damage since the last flush, flush after the pending events are handled
+			SwingUtilities.invokeLater(flushDirtyRegion);
+		}
+	}
+
+	/**
+	 * False for elements that are drawn on top of the tiles, and were already drawn like
+	 * that last time, so they can't be in any tile. Changes to those don't invalidate tiles,
+	 * which is what keeps dragging a selection fast.
+	 */
+	private boolean mayBeInTiles(VPathwayElement elt)
+	{
+		if (elt instanceof Handle || elt == selection) return false;
+		return !(elt.isSelected() && drawnLive.contains(elt));
+	}
+
+	/** area that has to be repainted, handed to the wrapper once per event cycle */
+	private final DirtyRegion dirtyRegion = new DirtyRegion();
+
+	private final Runnable flushDirtyRegion = new Runnable()
+	{
+		public void run()
+		{
+			redrawDirtyRect();
+		}
+	};
+
+	/**
+	 * Called by elements when their cached bounds are reset,
+	 * so they will be moved in the spatial index before the next hit test or repaint.
+	 */
+	void boundsInvalidated(VPathwayElement elt)
+	{
+		spatialIndex.invalidate(elt);
+	}
+
+	/**
+	 * Called when the z-order of an element has changed.
+	 * The drawing order will be restored on the next repaint.
+	 */
+	void zOrderChanged()
+	{
+		zOrderValid = false;
+	}
+
+	/**
+	 * Sort drawingObjects in drawing order, if it isn't already.
 	 */
-	void addDirtyRect(Rectangle2D ar)
+	private void ensureZOrder()
 	{
-		if (parent != null) parent.redraw(ar.getBounds());
+		if (!zOrderValid)
+		{
+			// the list is nearly sorted at this point, which the merge sort handles in linear time
+			Collections.sort(drawingObjects);
+			zOrderValid = true;
+		}
 	}
 
 	/**
-	 * Deprecated: Does nothing, redraws are now scheduled by Swing.
-	 * call addDirtyRect() or redraw() instead, or remove calls to this altogether
+	 * Hand the dirty area collected with addDirtyRect() to the wrapper, as a few merged rectangles.
+	 * This is done automatically once per event cycle, calling it directly
+	 * only makes the repaint happen before the current event is finished.
 	 */
-	@Deprecated 
 	public void redrawDirtyRect()
 	{
+		if (parent == null) return;
+		for (Rectangle r : dirtyRegion.flush())
+		{
+			parent.redraw(r);
+		}
 	}
 
 	/**
@@ -782,6 +880,9 @@ void stop() {
 		}
 	}
 
+	/** action of the last arrow key move, continued by the next move while it is on top */
+	private UndoAction keyMoveAction = null;
+
 	/**
 	 * Handles movement of objects with the arrow keys
 	 *
@@ -793,25 +894,32 @@ public void moveByKey(KeyStroke ks, int increment)
 
 		if (selectedGraphics.size() > 0)
 		{
-
+			double dx = 0;
+			double dy = 0;
 			switch (ks.getKeyCode())
 			{
 			case 37:
-				undoManager.newAction("Move object");
-				selection.vMoveBy(-increment, 0);
+				dx = -increment;
 				break;
 			case 39:
-				undoManager.newAction("Move object");
-				selection.vMoveBy(increment, 0);
+				dx = increment;
 				break;
 			case 38:
-				undoManager.newAction("Move object");
-				selection.vMoveBy(0, -increment);
+				dy = -increment;
 				break;
 			case 40:
-				undoManager.newAction("Move object");
-				selection.vMoveBy(0, increment);
+				dy = increment;
+				break;
+			default:
+				return;
+			}
+			// consecutive nudges of the same selection are undone at once
+			if (!undoManager.isRecording(keyMoveAction))
+			{
+				keyMoveAction = new UndoAction("Move object");
+				undoManager.newAction(keyMoveAction);
 			}
+			selection.vMoveBy(dx, dy);
 		}
 	}
 
@@ -842,7 +950,7 @@ public void mouseDown(MouseEvent e)
 		if(!openHref(e, vpe)) {
 			// setFocus();
 			vDragStart = new Point(e.getX(), e.getY());
-			temporaryCopy = (Pathway) data.clone();
+			dragUndoAction = undoManager.startAction("Drag Object");
 		
 			if (editMode)
 			{
@@ -876,7 +984,7 @@ public void mouseUp(MouseEvent e)
 		{
 			if (dragUndoState == DRAG_UNDO_CHANGED)
 			{
-				assert (temporaryCopy != null);
+				assert (dragUndoAction != null);
 				// further specify the type of undo event,
 				// depending on the type of object being dragged
 				String message = "Drag Object";
@@ -890,8 +998,9 @@ public void mouseUp(MouseEvent e)
 						message = "Resize Object";
 					}
 				}
-				undoManager.newAction(new UndoAction(message, temporaryCopy));
-				temporaryCopy = null;
+				dragUndoAction.setMessage(message);
+				undoManager.newAction(dragUndoAction);
+				dragUndoAction = null;
 			}
 			resetHighlight();
 			hideLinkAnchors();
@@ -961,31 +1070,76 @@ public void draw(Graphics2D g2d)
 				area = new Rectangle(0, 0, size.width, size.height);
 			}
 
-			// erase the background
-			g2d.setColor(java.awt.Color.WHITE);
-			g2d.fillRect(area.x, area.y, area.width, area.height);
+			// printers get vector graphics, not cached images
+			boolean useTiles = tileCaching &&
+				g2d.getDeviceConfiguration().getDevice().getType() != GraphicsDevice.TYPE_PRINTER;
 
-			g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
-					RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-					RenderingHints.VALUE_ANTIALIAS_ON);
-			g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
-					RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+			ensureZOrder();
+			if (useTiles)
+			{
+				drawTiles(g2d, area);
+			}
+			else
+			{
+				// erase the background
+				g2d.setColor(java.awt.Color.WHITE);
+				g2d.fillRect(area.x, area.y, area.width, area.height);
+			}
 
+			setRenderingHints(g2d);
 			g2d.clip(area);
 			g2d.setColor(java.awt.Color.BLACK);
-			Collections.sort(drawingObjects);
-			cleanUp();
-			for (VPathwayElement o : drawingObjects)
+			if (useTiles)
+			{
+				forgetDrawnLive();
+			}
+			List<VPathwayElement> candidates = spatialIndex.query(area);
+			// with tiles, the area of the selected elements is drawn completely: the background
+			// is erased, and all elements that overlap it are drawn again, clipped to it.
+			List<Rectangle2D> live = new ArrayList<Rectangle2D>();
+			Area liveArea = null;
+			if (useTiles)
+			{
+				for (VPathwayElement o : candidates)
+				{
+					if (o.isSelected() && o.vIntersects(area) && checkDrawAllowed(o))
+					{
+						// whole pixels, so that the erased area and the clip below cover the same pixels
+						addLiveBounds(live, o.getVBounds().getBounds());
+					}
+				}
+				if (!live.isEmpty())
+				{
+					liveArea = new Area();
+					for (Rectangle2D r : live) liveArea.add(new Area(r));
+					Graphics2D g = (Graphics2D) g2d.create();
+					g.setColor(java.awt.Color.WHITE);
+					g.fill(liveArea);
+					g.dispose();
+				}
+			}
+			for (VPathwayElement o : candidates)
 			{
 				if (o.vIntersects(area))
 				{
-					if (checkDrawAllowed(o))
+					// with tiles, only draw live elements, and the elements that overlap the selected ones
+					boolean inTiles = useTiles && !isLive(o);
+					if (checkDrawAllowed(o) && (!inTiles || overlaps(o, live)))
 					{
-						o.draw((Graphics2D) g2d.create());
-						fireVPathwayEvent(new VPathwayEvent(this, o,
-								(Graphics2D) g2dFull.create(),
+						Graphics2D g = (Graphics2D) g2d.create();
+						Graphics2D gEvent = (Graphics2D) g2dFull.create();
+						if (inTiles)
+						{
+							g.clip(liveArea);
+							gEvent.clip(liveArea);
+						}
+						o.draw(g);
+						fireVPathwayEvent(new VPathwayEvent(this, o, gEvent,
 								VPathwayEventType.ELEMENT_DRAWN));
+						if (useTiles && isLive(o))
+						{
+							drawnLive.add(o);
+						}
 					}
 				}
 			}
@@ -997,6 +1151,161 @@ public void draw(Graphics2D g2d)
 		}
 	}
 
+	private static void setRenderingHints(Graphics2D g2d)
+	{
+		g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+				RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+				RenderingHints.VALUE_ANTIALIAS_ON);
+		g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
+				RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+	}
+
+	private boolean tileCaching = false;
+	private final TileCache tileCache = new TileCache();
+	/** elements that were drawn on top of the tiles, see {@link #mayBeInTiles} */
+	private final Set<VPathwayElement> drawnLive =
+		Collections.synchronizedSet(new HashSet<VPathwayElement>());
+
+	/**
+	 * Enable or disable drawing from cached tiles.
+	 * <p>
+	 * When enabled, elements that are not selected are rendered once into images
+	 * (tiles) per zoom level, together with what is drawn on top of them in response to
+	 * {@link VPathwayEventType#ELEMENT_DRAWN}, such as visualizations.
+	 * Only the area of the selected elements and the handles are drawn on every repaint, on top of the tiles.
+	 * This makes scrolling and dragging fast on large pathways, at the cost of memory.
+	 * Tiles are updated when elements are marked dirty. Changes that don't mark elements dirty,
+	 * such as a new visualization, have to call {@link #redraw()}, as before.
+	 * <p>
+	 * Off by default, as it is only useful for drawing on screen, not when exporting.
+	 */
+	public void setTileCaching(boolean value)
+	{
+		tileCaching = value;
+		tileCache.clear();
+		drawnLive.clear();
+	}
+
+	public boolean isTileCaching()
+	{
+		return tileCaching;
+	}
+
+	/** true for elements that are drawn on top of the tiles, instead of in them */
+	private boolean isLive(VPathwayElement o)
+	{
+		return o instanceof Handle || o == selection || o.isSelected();
+	}
+
+	private static boolean overlaps(VPathwayElement o, List<Rectangle2D> live)
+	{
+		if (live.isEmpty()) return false;
+		Rectangle2D bounds = o.getVBounds();
+		for (Rectangle2D r : live)
+		{
+			if (r.intersects(bounds)) return true;
+		}
+		return false;
+	}
+
+	/** maximum number of separate live bounds, beyond that they are combined */
+	private static final int MAX_LIVE_BOUNDS = 32;
+
+	private static void addLiveBounds(List<Rectangle2D> live, Rectangle2D bounds)
+	{
+		if (live.size() < MAX_LIVE_BOUNDS)
+		{
+			live.add(bounds);
+		}
+		else
+		{
+			// a large selection: compare with the area around all of it
+			Rectangle2D union = bounds.getBounds2D();
+			for (Rectangle2D r : live) union.add(r);
+			live.clear();
+			live.add(union);
+		}
+	}
+
+	/** drop elements that are no longer drawn on top, so changes to them invalidate tiles again */
+	private void forgetDrawnLive()
+	{
+		synchronized (drawnLive)
+		{
+			for (Iterator<VPathwayElement> it = drawnLive.iterator(); it.hasNext();)
+			{
+				VPathwayElement o = it.next();
+				if (!isLive(o) || o.toBeRemoved()) it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Fill the given area with tiles, rendering the ones that are not cached.
+	 */
+	private void drawTiles(Graphics2D g2d, Rectangle area)
+	{
+		// on high resolution screens, render tiles at the resolution of the device
+		double scale = Math.max(1.0, g2d.getTransform().getScaleX());
+		int size = TileCache.TILE_SIZE;
+		int minX = Math.floorDiv(area.x, size);
+		int maxX = Math.floorDiv(area.x + area.width - 1, size);
+		int minY = Math.floorDiv(area.y, size);
+		int maxY = Math.floorDiv(area.y + area.height - 1, size);
+		for (int x = minX; x <= maxX; ++x)
+		{
+			for (int y = minY; y <= maxY; ++y)
+			{
+				BufferedImage tile = tileCache.get(zoomFactor, scale, x, y);
+				if (tile == null)
+				{
+					int generation = tileCache.getGeneration();
+					tile = renderTile(g2d, scale, x, y);
+					tileCache.put(zoomFactor, scale, x, y, tile, generation);
+				}
+				g2d.drawImage(tile, x * size, y * size, size, size, null);
+			}
+		}
+	}
+
+	/**
+	 * Render the elements that are not live in a single tile.
+	 */
+	private BufferedImage renderTile(Graphics2D g2d, double scale, int x, int y)
+	{
+		int size = TileCache.TILE_SIZE;
+		int pixels = (int)Math.ceil(size * scale);
+		BufferedImage tile = g2d.getDeviceConfiguration().createCompatibleImage(pixels, pixels);
+		Graphics2D tg = tile.createGraphics();
+		try
+		{
+			tg.scale(scale, scale);
+			tg.translate(-x * size, -y * size);
+			Rectangle area = new Rectangle(x * size, y * size, size, size);
+			tg.setColor(java.awt.Color.WHITE);
+			tg.fill(area);
+			setRenderingHints(tg);
+			tg.clip(area);
+			tg.setColor(java.awt.Color.BLACK);
+			for (VPathwayElement o : spatialIndex.query(area))
+			{
+				if (o.vIntersects(area) && checkDrawAllowed(o) && !isLive(o))
+				{
+					o.draw((Graphics2D) tg.create());
+					fireVPathwayEvent(new VPathwayEvent(this, o,
+							(Graphics2D) tg.create(),
+							VPathwayEventType.ELEMENT_DRAWN));
+				}
+			}
+		}
+		finally
+		{
+			tg.dispose();
+		}
+		return tile;
+	}
+
 	boolean checkDrawAllowed(VPathwayElement o)
 	{
 		if (isEditMode())
@@ -1136,7 +1445,11 @@ public VPathwayElement getObjectAt(Point2D p2d)
 	{
 		int zmax = Integer.MIN_VALUE; 
 		VPathwayElement probj = null;
-		for (VPathwayElement o : drawingObjects)
+		// the fuzz area also covers the point itself, so one query is enough for both tests
+		Rectangle2D fuzz = new Rectangle2D.Double (
+				p2d.getX() - FUZZY_SIZE, p2d.getY() - FUZZY_SIZE, FUZZY_SIZE * 2, FUZZY_SIZE * 2);
+		List<VPathwayElement> candidates = spatialIndex.query(fuzz);
+		for (VPathwayElement o : candidates)
 		{
 			// first we use vContains, which is good for detecting (non-transparent) shapes
 			if (o.vContains(p2d) && o.getZOrder() > zmax)
@@ -1149,9 +1462,7 @@ public VPathwayElement getObjectAt(Point2D p2d)
 		{
 			// if there is nothing at that point, we use vIntersects with a fuzz area,
 			// which is good for detecting lines and transparent shapes.
-			Rectangle2D fuzz = new Rectangle2D.Double (
-					p2d.getX() - FUZZY_SIZE, p2d.getY() - FUZZY_SIZE, FUZZY_SIZE * 2, FUZZY_SIZE * 2);
-			for (VPathwayElement o : drawingObjects)
+			for (VPathwayElement o : candidates)
 			{
 				if (o.vIntersects(fuzz) && o.getZOrder() > zmax)
 				{
@@ -1173,7 +1484,7 @@ public VPathwayElement getObjectAt(Point2D p2d)
 	public List<VPathwayElement> getObjectsAt(Point2D p2d)
 	{
 		List<VPathwayElement> result = new ArrayList<VPathwayElement>();
-		for (VPathwayElement o : drawingObjects)
+		for (VPathwayElement o : spatialIndex.query(pointArea(p2d)))
 		{
 			if (o.vContains(p2d))
 			{
@@ -1183,9 +1494,14 @@ public List<VPathwayElement> getObjectsAt(Point2D p2d)
 		return result;
 	}
 
+	private static Rectangle2D pointArea(Point2D p)
+	{
+		return new Rectangle2D.Double(p.getX(), p.getY(), 0, 0);
+	}
+
 	private List<LinkProvider> getLinkProvidersAt(Point2D p) {
 		List<LinkProvider> result = new ArrayList<LinkProvider>();
-		for (VPathwayElement o : drawingObjects)
+		for (VPathwayElement o : spatialIndex.query(pointArea(p)))
 		{
 			if (o instanceof LinkProvider && o.getVBounds().contains(p))
 			{
@@ -1862,13 +2178,32 @@ public void layoutSelected(LayoutType layoutType)
 		if (selectedGraphics.size() > 0)
 		{
 			undoManager.newAction(layoutType.getDescription());
+			// aligning and scaling only look at the bounds of an element before moving it,
+			// so its events can be fired in one go. Stacking needs the updated bounds of
+			// the previous element, including the shape of connectors.
 			switch (layoutType)
 			{
 				case COMMON_WIDTH:
-					scaleWidth(selectedGraphics);
+					data.beginEdit();
+					try
+					{
+						scaleWidth(selectedGraphics);
+					}
+					finally
+					{
+						data.commitEdit();
+					}
 					break;
 				case COMMON_HEIGHT:
-					scaleHeight(selectedGraphics);
+					data.beginEdit();
+					try
+					{
+						scaleHeight(selectedGraphics);
+					}
+					finally
+					{
+						data.commitEdit();
+					}
 					break;
 				case ALIGN_CENTERX:
 				case ALIGN_CENTERY:
@@ -1876,7 +2211,15 @@ public void layoutSelected(LayoutType layoutType)
 				case ALIGN_LEFT:
 				case ALIGN_RIGHT:
 				case ALIGN_BOTTOM:
-					alignGraphics(layoutType, selectedGraphics);
+					data.beginEdit();
+					try
+					{
+						alignGraphics(layoutType, selectedGraphics);
+					}
+					finally
+					{
+						data.commitEdit();
+					}
 					break;
 				case STACK_BOTTOM:
 				case STACK_TOP:
@@ -2103,6 +2446,8 @@ else if (nextGraphics != null && iorder < nextZ && iorder > order)
 	 */
 	private void autoRenumberZOrder()
 	{
+		// drawingObjects is already in z-order, no need to sort again
+		ensureZOrder();
 		List<Graphics> elts = new ArrayList<Graphics>();
 		for (VPathwayElement vp : drawingObjects)
 		{
@@ -2112,7 +2457,6 @@ private void autoRenumberZOrder()
 			}
 		}
 		if (elts.size() < 2) return; // nothing to renumber
-		Collections.sort (elts, new ZComparator());
 
 		final int spacing = 2;
 
@@ -2170,7 +2514,7 @@ public List<Graphics> getOverlappingGraphics(Graphics g)
 		List<Graphics> result = new ArrayList<Graphics>();
 		Rectangle2D r1 = g.getVBounds();
 
-		for (VPathwayElement ve : drawingObjects)
+		for (VPathwayElement ve : spatialIndex.query(r1))
 		{
 			if (ve instanceof Graphics && ve != g)
 			{
@@ -2371,44 +2715,52 @@ public void paste(List<PathwayElement> elements, double xShift, double yShift) {
 		generateNewIds (elements, idmap, newids);
 		
 		// Step 2: do the actual copying
-		for (PathwayElement o : elements)
+		data.beginEdit();
+		try
 		{
-			if (o.getObjectType() == ObjectType.INFOBOX) {
-				// we skip infobox because it should be unique in a pathway
-				continue;
-			}
+			for (PathwayElement o : elements)
+			{
+				if (o.getObjectType() == ObjectType.INFOBOX) {
+					// we skip infobox because it should be unique in a pathway
+					continue;
+				}
 
-			if (o.getObjectType() == ObjectType.BIOPAX) {
-				// Merge the copied biopax elements with existing
-				data.getBiopax().mergeBiopax((BiopaxElement)o);
-				continue;
-			}
+				if (o.getObjectType() == ObjectType.BIOPAX) {
+					// Merge the copied biopax elements with existing
+					data.getBiopax().mergeBiopax((BiopaxElement)o);
+					continue;
+				}
 
-			lastAdded = null;
+				lastAdded = null;
 
-			if(o.getObjectType() == ObjectType.LINE || o.getObjectType() == ObjectType.GRAPHLINE) {
-				for (MPoint mp : o.getMPoints())
-				{
-					mp.setX(mp.getX() + xShift);
-					mp.setY(mp.getY() + yShift);
+				if(o.getObjectType() == ObjectType.LINE || o.getObjectType() == ObjectType.GRAPHLINE) {
+					for (MPoint mp : o.getMPoints())
+					{
+						mp.setX(mp.getX() + xShift);
+						mp.setY(mp.getY() + yShift);
+					}
+				} else {
+					o.setMLeft(o.getMLeft() + xShift);
+					o.setMTop(o.getMTop() + yShift);
 				}
-			} else {
-				o.setMLeft(o.getMLeft() + xShift);
-				o.setMTop(o.getMTop() + yShift);
-			}
 
-			// make another copy to preserve clipboard contents for next paste
-			PathwayElement p = o.copy();
+				// make another copy to preserve clipboard contents for next paste
+				PathwayElement p = o.copy();
 
-			// use the idMap to set consistent new id's
-			replaceIdsAndRefs (p, idmap);
+				// use the idMap to set consistent new id's
+				replaceIdsAndRefs (p, idmap);
 
-			data.add(p); // causes lastAdded to be set
-			lastAdded.select();
-			if (!(lastAdded instanceof Group)){ // avoids "double selecting" grouped objects
-				selection.addToSelection(lastAdded);
+				data.add(p); // causes lastAdded to be set
+				lastAdded.select();
+				if (!(lastAdded instanceof Group)){ // avoids "double selecting" grouped objects
+					selection.addToSelection(lastAdded);
+				}
 			}
 		}
+		finally
+		{
+			data.commitEdit();
+		}
 
 		// Step 3: refresh connector shapes
 		for(PathwayElement o : elements) {
@@ -2609,6 +2961,7 @@ public UndoManager getUndoManager()
 	 */
 	public void undo()
 	{
+		keyMoveAction = null;
 		undoManager.undo();
 	}
 
@@ -2647,9 +3000,24 @@ void addScheduled()
 	{
 		for (VPathwayElement elt : toAdd)
 		{
-			if (!drawingObjects.contains(elt))
+			if (!spatialIndex.contains(elt))
 			{ // Don't add duplicates!
-				drawingObjects.add(elt);
+				if (tileCaching && tileCache.size() > 0)
+				{
+					// not every new element is marked dirty
+					tileCache.invalidate(elt.getVBounds(), zoomFactor);
+				}
+				if (zOrderValid)
+				{
+					// keep the list sorted by inserting in place
+					int pos = Collections.binarySearch(drawingObjects, elt);
+					drawingObjects.add(pos < 0 ? -pos - 1 : pos, elt);
+				}
+				else
+				{
+					drawingObjects.add(elt);
+				}
+				spatialIndex.add(elt);
 			}
 		}
 		toAdd.clear();
@@ -2660,7 +3028,11 @@ private void cleanUp()
 		for (Iterator<VPathwayElement> i = drawingObjects.iterator(); i.hasNext(); )
 		{
 			VPathwayElement elt = i.next();
-			if (elt.toBeRemoved()) { i.remove(); }
+			if (elt.toBeRemoved())
+			{
+				i.remove();
+				spatialIndex.remove(elt);
+			}
 		}
 	}
 
@@ -2689,20 +3061,29 @@ public void moveMultipleElements (Collection<? extends VPathwayElement> toMove,
 			}
 		}
 
-		for (VPathwayElement o : toMove) 
+		// connectors and groups are updated once, after all elements have moved
+		data.beginEdit();
+		try
 		{
-			// skip if parent of state is also in selection.
-			if (o instanceof State && eltIds.contains (((State)o).getPathwayElement().getGraphRef()))
-					continue;
-			
-			if(o instanceof Graphics) 
+			for (VPathwayElement o : toMove) 
 			{
-				// skip if parent group is also in selection
-				if (groupIds.contains (((Graphics)o).getPathwayElement().getGroupRef())) continue;
+				// skip if parent of state is also in selection.
+				if (o instanceof State && eltIds.contains (((State)o).getPathwayElement().getGraphRef()))
+						continue;
 				
-				o.vMoveBy(vdx, vdy);
+				if(o instanceof Graphics) 
+				{
+					// skip if parent group is also in selection
+					if (groupIds.contains (((Graphics)o).getPathwayElement().getGroupRef())) continue;
+					
+					o.vMoveBy(vdx, vdy);
+				}
 			}
 		}
+		finally
+		{
+			data.commitEdit();
+		}
 	}
 
 }
@@ -49,6 +49,7 @@ protected VPathwayElement(VPathway canvas)
 	public static Color selectColor = PreferenceManager.getCurrent().getColor(GlobalPreference.COLOR_SELECTED);
 	public static final float HIGHLIGHT_STROKE_WIDTH = 5.0f;
 
+	/** area last marked dirty, in model coordinates */
 	private Rectangle2D oldrect = null;
 
 	private boolean isSelected;
@@ -73,6 +74,7 @@ void zoomChanged() {
 	protected void resetShapeCache() {
 		vOutlineCache = null;
 		vBoundsCache = null;
+		canvas.boundsInvalidated(this);
 	}
 
 	public final void draw(Graphics2D g2d)
@@ -104,12 +106,17 @@ protected void markDirty()
 	{
 		if (oldrect != null)
 		{
-			canvas.addDirtyRect(oldrect);
+			// the zoom factor may have changed since
+			canvas.addDirtyRect(this, new Rectangle2D.Double(
+					canvas.vFromM(oldrect.getX()), canvas.vFromM(oldrect.getY()),
+					canvas.vFromM(oldrect.getWidth()), canvas.vFromM(oldrect.getHeight())));
 		}
 		resetShapeCache();
 		Rectangle2D newrect = getVBounds();
-		canvas.addDirtyRect(newrect);
-		oldrect = newrect;
+		canvas.addDirtyRect(this, newrect);
+		oldrect = new Rectangle2D.Double(
+				canvas.mFromV(newrect.getX()), canvas.mFromV(newrect.getY()),
+				canvas.mFromV(newrect.getWidth()), canvas.mFromV(newrect.getHeight()));
 	}
 
 	/**
@@ -350,9 +357,10 @@ public int compareTo(VPathwayElement d)
 		b = d.getZOrder();
 
 		// if sorting order is equal, use hash code
+		// (compared, not subtracted, to keep the ordering consistent when the difference overflows)
 		if (b == a)
 		{
-			return hashCode() - d.hashCode();
+			return Integer.compare(hashCode(), d.hashCode());
 		}
 		else
 			// not simply "a - b" because of the risk of integer overflows
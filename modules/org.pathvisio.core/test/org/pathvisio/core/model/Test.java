@@ -16,6 +16,7 @@
  ******************************************************************************/
 package org.pathvisio.core.model;
 
+import java.awt.Color;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -230,6 +231,54 @@ public void testRef()
 		assertTrue ("reference created (2)", data.getReferringObjects("2").contains(l.getMEnd()));
 	}
 
+	/**
+	 * Test that events are collected during an edit, and fired once per element on commit
+	 */
+	public void testEdit()
+	{
+		o.setGraphId("1");
+		l.setStartGraphRef("1");
+		l.setEndGraphRef("1");
+		final List<PathwayElementEvent> lineEvents = new ArrayList<PathwayElementEvent>();
+		l.addListener(new PathwayElementListener()
+		{
+			public void gmmlObjectModified(PathwayElementEvent e)
+			{
+				lineEvents.add(e);
+			}
+		});
+		receivedElementEvents.clear();
+
+		data.beginEdit();
+		o.setMCenterX(100);
+		o.setMCenterY(200);
+		data.beginEdit();
+		o.setColor(Color.RED);
+		data.commitEdit();
+		assertEquals ("no events during the edit", 0, receivedElementEvents.size());
+		assertEquals ("no events during the edit", 0, lineEvents.size());
+		data.commitEdit();
+
+		assertEquals ("single event for all changes", 1, receivedElementEvents.size());
+		PathwayElementEvent e = receivedElementEvents.get(0);
+		assertTrue (e.isCoordinateChange());
+		assertTrue (e.affectsProperty(StaticProperty.COLOR));
+		assertEquals ("connector updated once for both ends", 1, lineEvents.size());
+		assertTrue (lineEvents.get(0).isCoordinateChange());
+
+		data.beginEdit();
+		o.setMCenterX(2000);
+		data.commitEdit();
+		assertEquals ("board resized once after the edit", 2000 + o.getMWidth() / 2 + 30, data.getMBoardSize()[0], 0.01);
+
+		try
+		{
+			data.commitEdit();
+			fail ("commit without begin should generate exception");
+		}
+		catch (IllegalStateException ex) {}
+	}
+
 	/**
 	 * test that Xref and XrefWithSymbol obey the equals contract
 	 */
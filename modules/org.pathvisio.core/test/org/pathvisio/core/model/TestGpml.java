@@ -16,11 +16,19 @@
  ******************************************************************************/
 package org.pathvisio.core.model;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
 
 import junit.framework.TestCase;
 
+import org.jdom2.output.XMLOutputter;
+import org.pathvisio.core.util.FileUtils;
+
 public class TestGpml extends TestCase 
 {
 	private static final File PATHVISIO_BASEDIR = new File ("../..");
@@ -96,5 +104,157 @@ public void testDeprecatedFields() throws ConverterException
 		PathwayElement dn = pwy.getElementById("e4fa1");
 		assertEquals ("This is a backpage head", dn.getDynamicProperty("org.pathvisio.model.BackpageHead"));
 	}
-	
+
+	/**
+	 * The schema of each version is compiled once, and shared after that.
+	 */
+	public void testSchemaCache() throws ConverterException
+	{
+		assertSame (GpmlFormat2013a.GPML_2013A.getSchema(), GpmlFormat2013a.GPML_2013A.getSchema());
+		assertNotSame (GpmlFormat2010a.GPML_2010A.getSchema(), GpmlFormat2013a.GPML_2013A.getSchema());
+	}
+
+	private static String readAsGpml(File f, boolean streaming) throws ConverterException
+	{
+		boolean old = GpmlFormat.isStreamingReader();
+		GpmlFormat.setStreamingReader(streaming);
+		try
+		{
+			Pathway pwy = new Pathway();
+			pwy.readFromXml(f, true);
+			return new XMLOutputter().outputString(GpmlFormat.createJdom(pwy));
+		}
+		finally
+		{
+			GpmlFormat.setStreamingReader(old);
+		}
+	}
+
+	/**
+	 * The streaming reader should give the same pathway as the reader that builds a JDOM tree.
+	 */
+	public void testStreamingReader() throws ConverterException, IOException
+	{
+		String[] files = new String[] {
+			"testData/WP248_2008a.gpml", "testData/WP248_2010a.gpml",
+			"testData/test.gpml", "testData/shapes.gpml",
+			"testData/2010a/biopax-literaturexref-testcase.gpml",
+			"testData/2010a/biopax-opencontrolledvocabulary-testcase.gpml"
+		};
+		for (String name : files)
+		{
+			File f = new File (PATHVISIO_BASEDIR, name);
+			assertTrue (f.exists());
+			assertEquals (name, readAsGpml(f, false), readAsGpml(f, true));
+		}
+
+		// and the current version
+		Pathway pwy = new Pathway();
+		pwy.readFromXml(new File (PATHVISIO_BASEDIR, "testData/WP248_2010a.gpml"), true);
+		File tmp = File.createTempFile("test", ".gpml");
+		tmp.deleteOnExit();
+		GpmlFormat2013a.GPML_2013A.writeToXml(pwy, tmp, true);
+		assertEquals (readAsGpml(tmp, false), readAsGpml(tmp, true));
+	}
+
+	/**
+	 * Writing one element at a time gives the same bytes as building the whole document first.
+	 */
+	public void testStreamWriter() throws ConverterException, IOException
+	{
+		int compared = 0;
+		for (File f : FileUtils.getFiles(new File (PATHVISIO_BASEDIR, "testData"), "gpml", true))
+		{
+			Pathway pwy = new Pathway();
+			try
+			{
+				pwy.readFromXml(f, false);
+			}
+			catch (ConverterException ex)
+			{
+				continue; // some files are broken on purpose
+			}
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			new XMLOutputter(GpmlStreamWriter.getGpmlFormat()).output(GpmlFormat.createJdom(pwy), expected);
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+			GpmlFormat.writeToXml(pwy, actual, false);
+			assertTrue (f.toString(), Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+			compared++;
+		}
+		assertTrue (compared > 20);
+	}
+
+	/**
+	 * A gzipped pathway can be read again, from a file as well as from a stream.
+	 */
+	public void testGzip() throws ConverterException, IOException
+	{
+		Pathway pwy = new Pathway();
+		pwy.readFromXml(new File (PATHVISIO_BASEDIR, "testData/WP248_2010a.gpml"), true);
+		File tmp = File.createTempFile("test", ".gpml.gz");
+		tmp.deleteOnExit();
+		GpmlFormat.writeToXml(pwy, tmp, true, true);
+
+		InputStream in = new FileInputStream(tmp);
+		assertEquals (0x1f, in.read());
+		assertEquals (0x8b, in.read());
+		in.close();
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		GpmlFormat.writeToXml(pwy, expected, false);
+
+		Pathway fromFile = new Pathway();
+		GpmlFormat.readFromXml(fromFile, tmp, true);
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		GpmlFormat.writeToXml(fromFile, actual, false);
+		assertTrue (Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+
+		Pathway fromStream = new Pathway();
+		in = new FileInputStream(tmp);
+		GpmlFormat.readFromXml(fromStream, in, true);
+		in.close();
+		actual = new ByteArrayOutputStream();
+		GpmlFormat.writeToXml(fromStream, actual, false);
+		assertTrue (Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+	}
+
+	/**
+	 * An invalid pathway doesn't overwrite an existing file.
+	 */
+	public void testWriteInvalid() throws ConverterException, IOException
+	{
+		File dir = File.createTempFile("gpmlwrite", "");
+		dir.delete();
+		dir.mkdir();
+		File f = new File(dir, "test.gpml");
+
+		Pathway pwy = new Pathway();
+		pwy.readFromXml(new File (PATHVISIO_BASEDIR, "testData/WP248_2010a.gpml"), true);
+		GpmlFormat.writeToXml(pwy, f, true);
+		byte[] before = Files.readAllBytes(f.toPath());
+
+		// not a valid xsd:ID
+		PathwayElement label = PathwayElement.createPathwayElement(ObjectType.LABEL);
+		pwy.add(label);
+		label.setGraphId("1 invalid");
+		try
+		{
+			GpmlFormat.writeToXml(pwy, f, true);
+			fail ("Expected a validation error");
+		}
+		catch (ConverterException ex)
+		{
+			// ok
+		}
+		assertTrue (Arrays.equals(before, Files.readAllBytes(f.toPath())));
+		// no temporary file left behind
+		assertEquals (1, dir.listFiles().length);
+
+		// without validation, the file is written anyway
+		GpmlFormat.writeToXml(pwy, f, false);
+		assertFalse (Arrays.equals(before, Files.readAllBytes(f.toPath())));
+
+		f.delete();
+		dir.delete();
+	}
 }
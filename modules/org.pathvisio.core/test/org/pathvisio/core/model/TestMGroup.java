@@ -16,6 +16,8 @@
  ******************************************************************************/
 package org.pathvisio.core.model;
 
+import java.awt.geom.Rectangle2D;
+
 import junit.framework.TestCase;
 
 public class TestMGroup extends TestCase
@@ -73,5 +75,72 @@ public void testUngroup()
 		assertNull (line.getEndGraphRef());
 		assertNull (node.getGroupRef());
 	}
-	
+
+	private static PathwayElement addNode(Pathway pwy, MGroup group, double left, double top)
+	{
+		PathwayElement node = PathwayElement.createPathwayElement(ObjectType.DATANODE);
+		pwy.add(node);
+		node.setMWidth(20);
+		node.setMHeight(10);
+		node.setMLeft(left);
+		node.setMTop(top);
+		node.setGroupRef(group.getGroupId());
+		return node;
+	}
+
+	/**
+	 * The group bounds are cached, check that they follow changes of the members.
+	 */
+	public void testBounds()
+	{
+		Pathway pwy = new Pathway();
+		final MGroup group = (MGroup)PathwayElement.createPathwayElement(ObjectType.GROUP);
+		pwy.add(group);
+		group.createGroupId();
+		PathwayElement a = addNode(pwy, group, 100, 100);
+		PathwayElement b = addNode(pwy, group, 200, 150);
+		double margin = group.getGroupStyle().getMMargin();
+
+		assertEquals (100 - margin, group.getMLeft(), 0.01);
+		assertEquals (120 + 2 * margin, group.getMWidth(), 0.01);
+
+		// moving a member
+		b.setMLeft(300);
+		assertEquals (220 + 2 * margin, group.getMWidth(), 0.01);
+		a.setMTop(50);
+		assertEquals (50 - margin, group.getMTop(), 0.01);
+		assertEquals (110 + 2 * margin, group.getMHeight(), 0.01);
+
+		// moving the whole group
+		group.setMLeft(0);
+		assertEquals (0, group.getMLeft(), 0.01);
+		assertEquals (margin, a.getMLeft(), 0.01);
+		assertEquals (200 + margin, b.getMLeft(), 0.01);
+
+		// listeners of the member events see the bounds of the members so far while resizing
+		final PathwayElement[] members = { a, b };
+		final int[] events = { 0 };
+		PathwayElementListener listener = new PathwayElementListener()
+		{
+			public void gmmlObjectModified(PathwayElementEvent e)
+			{
+				Rectangle2D expected = members[0].getMBounds();
+				expected.add(members[1].getMBounds());
+				assertEquals (expected.getMaxX(), group.getMBounds().getMaxX() - group.getGroupStyle().getMMargin(), 0.01);
+				events[0]++;
+			}
+		};
+		a.addListener(listener);
+		b.addListener(listener);
+		group.setMWidth(group.getMWidth() + 10);
+		assertTrue (events[0] >= 2);
+		a.removeListener(listener);
+		b.removeListener(listener);
+		assertEquals (30, a.getMWidth(), 0.01);
+		assertEquals (230 + 2 * margin, group.getMWidth(), 0.01);
+
+		// a member that leaves the group
+		b.setGroupRef(null);
+		assertEquals (30 + 2 * margin, group.getMWidth(), 0.01);
+	}
 }
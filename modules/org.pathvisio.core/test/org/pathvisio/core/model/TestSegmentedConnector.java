@@ -64,5 +64,135 @@ line.new MPoint(25.0, 25.0)
 		assertEquals (0.5, con.toLineCoordinate(v), 0.01);
 		assertEquals (0.628, con.toLineCoordinate(w), 0.01);
 	}
-	
+
+	private static PathwayElement createNode(Pathway pwy, String id, double x, double y)
+	{
+		PathwayElement node = PathwayElement.createPathwayElement(ObjectType.DATANODE);
+		node.setMCenterX(x);
+		node.setMCenterY(y);
+		node.setMWidth(60);
+		node.setMHeight(20);
+		node.setGraphId(id);
+		pwy.add(node);
+		return node;
+	}
+
+	/** routed connector should go around an obstacle, and only recalculate when something changed */
+	public void testRouted()
+	{
+		Pathway pwy = new Pathway();
+		createNode(pwy, "a", 100, 200);
+		createNode(pwy, "b", 400, 200);
+		PathwayElement obstacle = PathwayElement.createPathwayElement(ObjectType.SHAPE);
+		obstacle.setMCenterX(250);
+		obstacle.setMCenterY(200);
+		obstacle.setMWidth(60);
+		obstacle.setMHeight(100);
+		pwy.add(obstacle);
+
+		MLine line = (MLine)PathwayElement.createPathwayElement(ObjectType.LINE);
+		line.setConnectorType(ConnectorType.ROUTED);
+		pwy.add(line);
+		line.getMStart().linkTo(pwy.getElementById("a"), 1, 0);
+		line.getMEnd().linkTo(pwy.getElementById("b"), -1, 0);
+
+		ConnectorShape con = line.getConnectorShape();
+		assertTrue (con instanceof RoutedConnectorShape);
+		con.recalculateShape(line);
+		Segment[] segments = con.getSegments();
+
+		assertEquals (line.getStartPoint(), segments[0].getMStart());
+		assertEquals (line.getEndPoint(), segments[segments.length - 1].getMEnd());
+		for (Segment s : segments)
+		{
+			assertTrue ("only horizontal and vertical segments",
+					s.getMStart().getX() == s.getMEnd().getX() || s.getMStart().getY() == s.getMEnd().getY());
+			for (double l = 0; l <= 1; l += 0.1)
+			{
+				Point2D p = new Point2D.Double(
+						s.getMStart().getX() + l * (s.getMEnd().getX() - s.getMStart().getX()),
+						s.getMStart().getY() + l * (s.getMEnd().getY() - s.getMStart().getY()));
+				assertFalse ("route crosses obstacle at " + p, obstacle.getMBounds().contains(p));
+			}
+		}
+
+		// nothing changed, the route is cached
+		con.recalculateShape(line);
+		assertSame (segments, con.getSegments());
+
+		// an obstacle far from the route doesn't invalidate it
+		final List<PathwayElementEvent> events = new ArrayList<PathwayElementEvent>();
+		line.addListener(new PathwayElementListener()
+		{
+			public void gmmlObjectModified(PathwayElementEvent e)
+			{
+				events.add(e);
+			}
+		});
+		PathwayElement far = createNode(pwy, "far", 250, 1000);
+		far.setMLeft(300);
+		con.recalculateShape(line);
+		assertSame (segments, con.getSegments());
+		assertEquals (0, events.size());
+
+		// moving an obstacle away from the route invalidates it, and the line is told to route again
+		obstacle.setMTop(500);
+		assertEquals (1, events.size());
+		assertTrue (events.get(0).isCoordinateChange());
+		con.recalculateShape(line);
+		assertNotSame (segments, con.getSegments());
+		assertEquals ("straight route when nothing is in the way", 1, con.getSegments().length);
+
+		// moving an obstacle onto the route invalidates it as well
+		segments = con.getSegments();
+		obstacle.setMTop(150);
+		assertEquals (2, events.size());
+		con.recalculateShape(line);
+		assertTrue (con.getSegments().length > 1);
+	}
+
+	/** obstacles too large for the grid of the index are still found */
+	public void testRoutedLargeObstacles()
+	{
+		Pathway pwy = new Pathway();
+		PathwayElement huge = createNode(pwy, "huge", 0, 0);
+		huge.setMWidth(1e12);
+		huge.setMHeight(1e12);
+		PathwayElement infinite = createNode(pwy, "infinite", 0, 0);
+		infinite.setMWidth(Double.POSITIVE_INFINITY);
+		MLine line = (MLine)PathwayElement.createPathwayElement(ObjectType.LINE);
+		pwy.add(line);
+
+		assertNotNull (line.mayCross(new Point2D.Double(1e10, -1e10)));
+		assertNull (line.mayCross(new Point2D.Double(1e12, 1e12)));
+
+		// and leave the index when removed
+		pwy.remove(huge);
+		pwy.remove(infinite);
+		assertNull (line.mayCross(new Point2D.Double(1e10, -1e10)));
+	}
+
+	/** if AStar gives up, the routed connector uses the segments of the elbow connector */
+	public void testRoutedFallback()
+	{
+		MLine line = (MLine)PathwayElement.createPathwayElement(ObjectType.LINE);
+		line.setMStartX(0);
+		line.setMStartY(0);
+		line.setMEndX(200000);
+		line.setMEndY(100000);
+		line.setConnectorType(ConnectorType.ROUTED);
+
+		ConnectorShape con = line.getConnectorShape();
+		ElbowConnectorShape elbow = new ElbowConnectorShape();
+		elbow.recalculateShape(line);
+
+		Segment[] segments = con.getSegments();
+		assertEquals (elbow.getSegments().length, segments.length);
+		for (int i = 0; i < segments.length; ++i)
+		{
+			assertEquals (elbow.getSegments()[i].getMStart(), segments[i].getMStart());
+			assertEquals (elbow.getSegments()[i].getMEnd(), segments[i].getMEnd());
+		}
+	}
+
 }
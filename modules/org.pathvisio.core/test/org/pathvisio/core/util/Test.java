@@ -16,8 +16,22 @@
  ******************************************************************************/
 package org.pathvisio.core.util;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import junit.framework.TestCase;
 
+import org.bridgedb.DataSource;
+import org.pathvisio.core.model.ConverterException;
+import org.pathvisio.core.model.ObjectType;
+import org.pathvisio.core.model.Pathway;
+import org.pathvisio.core.model.PathwayElement;
+
 /**
  * Test various utility functions in org.pathvisio.util package.
  */
@@ -35,4 +49,154 @@ public void testConverter() {
 		}
 	*/
 	}
+
+	private static void writePathway(File f, String name, String... ids) throws IOException
+	{
+		FileWriter writer = new FileWriter(f);
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		writer.write("<Pathway xmlns=\"http://pathvisio.org/GPML/2013a\" Name=\"" + name + "\">\n");
+		for (String id : ids)
+		{
+			writer.write("<DataNode TextLabel=\"sym" + id + "\" GraphId=\"n" + id + "\" Type=\"GeneProduct\">");
+			writer.write("<Xref Database=\"Index test\" ID=\"" + id + "\" /></DataNode>\n");
+		}
+		writer.write("</Pathway>\n");
+		writer.close();
+	}
+
+	private static void replaceInFile(File f, String from, String to) throws IOException
+	{
+		String content = new String(Files.readAllBytes(f.toPath()), "UTF-8");
+		FileWriter writer = new FileWriter(f);
+		writer.write(content.replace(from, to));
+		writer.close();
+	}
+
+	public void testPathwayIndex() throws IOException
+	{
+		DataSource.register("Ixt", "Index test");
+		File dir = File.createTempFile("pwindex", "");
+		dir.delete();
+		dir.mkdir();
+		File f1 = new File(dir, "a.gpml");
+		File f2 = new File(dir, "b.gpml");
+		File broken = new File(dir, "c.gpml");
+		File unknownDs = new File(dir, "d.gpml");
+		File indexFile = new File(dir, "index.bin");
+		writePathway(f1, "First", "1", "2", "2");
+		writePathway(f2, "Second", "3");
+		FileWriter writer = new FileWriter(broken);
+		writer.write("not xml");
+		writer.close();
+		// well-formed, but refers to a data source that doesn't exist
+		writePathway(unknownDs, "Unknown", "5");
+		replaceInFile(unknownDs, "Index test", "No such database");
+
+		List<File> files = Arrays.asList(f1, f2, broken, unknownDs);
+		List<PathwayIndex.Entry> entries = new PathwayIndex(indexFile).getEntries(files);
+		assertEquals(2, entries.size());
+		assertEquals("First", entries.get(0).getName());
+		assertEquals(2, entries.get(0).getGenes().size()); // duplicate removed
+		assertEquals("sym1", entries.get(0).getGenes().get(0).getSymbol());
+		assertTrue(indexFile.exists());
+
+		// a fresh instance reads the stored index
+		entries = new PathwayIndex(indexFile).getEntries(files);
+		assertEquals(2, entries.size());
+		assertEquals("Second", entries.get(1).getName());
+		assertEquals("3", entries.get(1).getGenes().get(0).getId());
+		assertEquals(DataSource.getExistingByFullName("Index test"), entries.get(1).getGenes().get(0).getDataSource());
+
+		// changed files are parsed again
+		writePathway(f2, "Second changed", "3", "4");
+		entries = new PathwayIndex(indexFile).getEntries(files);
+		assertEquals("Second changed", entries.get(1).getName());
+		assertEquals(2, entries.get(1).getGenes().size());
+
+		// listener sees entries as they come, and can cancel the query
+		final List<PathwayIndex.Entry> seen = new ArrayList<PathwayIndex.Entry>();
+		entries = new PathwayIndex(null).getEntries(files, new PathwayIndex.EntryListener()
+		{
+			public void entryAvailable(PathwayIndex.Entry entry, int done, int total)
+			{
+				seen.add(entry);
+				assertEquals(4, total);
+			}
+
+			public boolean isCancelled()
+			{
+				return seen.size() > 0;
+			}
+		});
+		assertEquals(1, seen.size());
+		assertEquals(seen, entries);
+
+		for (File f : dir.listFiles()) f.delete();
+		dir.delete();
+	}
+
+	private static void deleteRecursive(File f)
+	{
+		File[] children = f.listFiles();
+		if (children != null) for (File child : children) deleteRecursive(child);
+		f.delete();
+	}
+
+	private static void writeValidPathway(File f, String name) throws ConverterException
+	{
+		Pathway pathway = new Pathway();
+		pathway.getMappInfo().setMapInfoName(name);
+		PathwayElement node = PathwayElement.createPathwayElement(ObjectType.DATANODE);
+		node.setMCenterX(100);
+		node.setMCenterY(50);
+		node.setMWidth(80);
+		node.setMHeight(20);
+		node.setTextLabel(name);
+		pathway.add(node);
+		pathway.writeToXml(f, true);
+	}
+
+	public void testBatchConverter() throws IOException, ConverterException
+	{
+		File dir = File.createTempFile("batch", "");
+		dir.delete();
+		File in = new File(dir, "in");
+		File out = new File(dir, "out");
+		new File(in, "sub").mkdirs();
+		writeValidPathway(new File(in, "a.gpml"), "First");
+		writeValidPathway(new File(in, "sub/b.gpml"), "Second");
+		FileWriter writer = new FileWriter(new File(in, "c.gpml"));
+		writer.write("not xml");
+		writer.close();
+
+		BatchConverter.Report report = new BatchConverter(2, -1).convert(in, out, "gpml");
+		assertEquals(3, report.getNrFiles());
+		assertEquals(2, report.getNrConverted());
+		assertEquals(1, report.getFailures().size());
+		assertTrue(report.getFailures().containsKey(new File(in, "c.gpml")));
+
+		// directory structure is kept, and the output can be read back
+		Pathway second = new Pathway();
+		second.readFromXml(new File(out, "sub/b.gpml"), true);
+		assertEquals("Second", second.getMappInfo().getMapInfoName());
+		assertTrue(new File(out, "a.gpml").exists());
+		assertFalse(new File(out, "c.gpml").exists());
+
+		// an interrupted batch doesn't count files that didn't finish
+		deleteRecursive(out);
+		Thread.currentThread().interrupt();
+		try
+		{
+			report = new BatchConverter(1, -1).convert(in, out, "gpml");
+		}
+		finally
+		{
+			assertTrue(Thread.interrupted());
+		}
+		assertEquals(3, report.getNrFiles());
+		assertEquals(0, report.getNrConverted());
+		assertTrue(report.getFailures().isEmpty());
+
+		deleteRecursive(dir);
+	}
 }
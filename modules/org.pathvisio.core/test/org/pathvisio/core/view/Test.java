@@ -16,12 +16,24 @@
  ******************************************************************************/
 package org.pathvisio.core.view;
 
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.KeyEvent;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import javax.swing.Action;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+
 import junit.framework.TestCase;
 
+import org.pathvisio.core.Engine;
 import org.pathvisio.core.biopax.BiopaxReferenceManager;
 import org.pathvisio.core.biopax.PublicationXref;
 import org.pathvisio.core.model.ObjectType;
@@ -124,6 +136,198 @@ public void testCopyPaste()
 //		assertTrue("test pathway".equals(pTarget.getMappInfo().getMapInfoName()));
     }
 
+	/** dirty areas should be merged when they overlap or are close, and stay separate otherwise */
+	public void testDirtyRegion()
+	{
+		DirtyRegion region = new DirtyRegion();
+		assertTrue ("first area schedules a flush", region.add(new Rectangle(0, 0, 10, 10)));
+		assertFalse (region.add(new Rectangle(5, 5, 10, 10)));
+		assertFalse ("empty area is ignored", region.add(new Rectangle(500, 500, 0, 10)));
+		region.add(new Rectangle(1000, 1000, 10, 10));
+		List<Rectangle> rects = region.flush();
+		assertEquals (2, rects.size());
+		assertTrue (rects.contains(new Rectangle(0, 0, 15, 15)));
+		assertTrue (rects.contains(new Rectangle(1000, 1000, 10, 10)));
+		assertTrue (region.flush().isEmpty());
+
+		// far apart areas are capped, merging the closest ones
+		for (int i = 0; i < 20; ++i)
+		{
+			region.add(new Rectangle(i * 100, 0, 10, 10));
+		}
+		rects = region.flush();
+		assertTrue (rects.size() <= DirtyRegion.MAX_RECTS);
+		Rectangle union = rects.get(0);
+		for (Rectangle r : rects) union = union.union(r);
+		assertEquals (new Rectangle(0, 0, 1910, 10), union);
+	}
+
+	public void testTileCache()
+	{
+		TileCache cache = new TileCache();
+		BufferedImage img = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+		cache.put(1.0, 1.0, 0, 0, img, cache.getGeneration());
+		cache.put(1.0, 1.0, 1, 0, img, cache.getGeneration());
+		cache.put(2.0, 1.0, 1, 0, img, cache.getGeneration());
+		assertSame (img, cache.get(1.0, 1.0, 0, 0));
+		assertNull (cache.get(1.0, 2.0, 0, 0));
+
+		// x 300 is in tile 1 at zoom 1, and in tile 2 at zoom 2
+		cache.invalidate(new Rectangle(300, 10, 10, 10), 1.0);
+		assertNotNull (cache.get(1.0, 1.0, 0, 0));
+		assertNull (cache.get(1.0, 1.0, 1, 0));
+		assertNotNull (cache.get(2.0, 1.0, 1, 0));
+
+		// a tile rendered while something changed is not kept
+		int generation = cache.getGeneration();
+		cache.invalidate(new Rectangle(5000, 5000, 10, 10), 1.0);
+		cache.put(1.0, 1.0, 1, 0, img, generation);
+		assertNull (cache.get(1.0, 1.0, 1, 0));
+
+		// the cache is limited by memory, tiles at scale 2 have four times the pixels
+		int size = TileCache.TILE_SIZE;
+		cache.clear();
+		BufferedImage tile = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		int fit = (int)(TileCache.MAX_BYTES / (size * size * 4));
+		for (int i = 0; i < fit * 2; ++i)
+		{
+			cache.put(1.0, 1.0, i, 10, tile, cache.getGeneration());
+		}
+		assertEquals (fit, cache.size());
+		BufferedImage hiDpi = new BufferedImage(size * 2, size * 2, BufferedImage.TYPE_INT_RGB);
+		for (int i = 0; i < fit; ++i)
+		{
+			cache.put(1.0, 2.0, i, 10, hiDpi, cache.getGeneration());
+		}
+		assertEquals (fit / 4, cache.size());
+		assertEquals (TileCache.MAX_BYTES, cache.getBytes());
+		cache.invalidate(new Rectangle((fit - 1) * size + 10, 10 * size + 10, 10, 10), 1.0);
+		assertEquals (fit / 4 - 1, cache.size());
+		assertEquals (TileCache.MAX_BYTES - size * size * 16, cache.getBytes());
+		cache.clear();
+		assertEquals (0, cache.size());
+		assertEquals (0, cache.getBytes());
+	}
+
+	/** a wrapper without a window, so that changes reach the tile cache like on screen */
+	private static class OffscreenWrapper implements VPathwayWrapper
+	{
+		private final Rectangle view;
+
+		OffscreenWrapper(Rectangle view)
+		{
+			this.view = view;
+		}
+
+		public void redraw() {}
+		public void redraw(Rectangle r) {}
+		public Rectangle getViewRect() { return view; }
+		public void resized() {}
+		public VPathway createVPathway() { return null; }
+		public void registerKeyboardAction(KeyStroke k, Action a) {}
+		public void copyToClipboard(Pathway source, List<PathwayElement> copyElements) {}
+		public void pasteFromClipboard() {}
+		public void positionPasteFromClipboard(Point cursorPosition) {}
+		public void scrollTo(Rectangle r) {}
+		public void scrollCenterTo(int x, int y) {}
+		public void dispose() {}
+	}
+
+	private static BufferedImage render(VPathway vp, Rectangle view, int scale) throws Exception
+	{
+		// let the view handle the pending changes first
+		SwingUtilities.invokeAndWait(new Runnable() { public void run() {} });
+		BufferedImage img = new BufferedImage(view.width * scale, view.height * scale, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2 = img.createGraphics();
+		g2.scale(scale, scale);
+		g2.setClip(view);
+		vp.draw(g2);
+		g2.dispose();
+		return img;
+	}
+
+	private static void assertSameImage(String message, BufferedImage expected, BufferedImage actual)
+	{
+		for (int x = 0; x < expected.getWidth(); ++x)
+		{
+			for (int y = 0; y < expected.getHeight(); ++y)
+			{
+				if (expected.getRGB(x, y) != actual.getRGB(x, y))
+				{
+					fail (message + ": pixel " + x + ", " + y + " differs");
+				}
+			}
+		}
+	}
+
+	/** drawing from tiles should look exactly like drawing everything */
+	public void testTileCacheRendering() throws Exception
+	{
+		Pathway pathway = new Pathway();
+		List<PathwayElement> nodes = new ArrayList<PathwayElement>();
+		for (int i = 0; i < 120; ++i)
+		{
+			PathwayElement node = PathwayElement.createPathwayElement(ObjectType.DATANODE);
+			node.setMCenterX(50 + (i % 12) * 90);
+			node.setMCenterY(20 + (i / 12) * 40);
+			node.setMWidth(80);
+			node.setMHeight(20);
+			node.setTextLabel("Gene" + i);
+			// without distinct z-order, the drawing order of two views could differ
+			node.setZOrder(i);
+			pathway.add(node);
+			nodes.add(node);
+		}
+		Rectangle view = new Rectangle(0, 0, 600, 300);
+		VPathway plain = new VPathway(new OffscreenWrapper(view));
+		plain.fromModel(pathway);
+		VPathway tiled = new VPathway(new OffscreenWrapper(view));
+		tiled.fromModel(pathway);
+		tiled.setTileCaching(true);
+
+		for (int scale = 1; scale <= 2; ++scale)
+		{
+			String at = " at scale " + scale;
+			assertSameImage ("initial" + at, render(plain, view, scale), render(tiled, view, scale));
+
+			PathwayElement first = nodes.get(0);
+			plain.selectObject(plain.getPathwayElementView(first));
+			tiled.selectObject(tiled.getPathwayElementView(first));
+			assertSameImage ("selected" + at, render(plain, view, scale), render(tiled, view, scale));
+
+			first.setMCenterX(first.getMCenterX() + 300);
+			assertSameImage ("moved selected" + at, render(plain, view, scale), render(tiled, view, scale));
+
+			plain.clearSelection();
+			tiled.clearSelection();
+			nodes.get(20).setMCenterY(nodes.get(20).getMCenterY() + 15);
+			assertSameImage ("moved unselected" + at, render(plain, view, scale), render(tiled, view, scale));
+
+			plain.setPctZoom(50);
+			tiled.setPctZoom(50);
+			assertSameImage ("zoomed out" + at, render(plain, view, scale), render(tiled, view, scale));
+			plain.setPctZoom(100);
+			tiled.setPctZoom(100);
+		}
+	}
+
+    public void testObjectAt()
+    {
+    	Point2D p = new Point2D.Double(vPwy.vFromM(3000), vPwy.vFromM(3000));
+    	assertSame(vDn, vPwy.getObjectAt(p));
+    	assertTrue(vPwy.getObjectsAt(p).contains(vDn));
+
+    	// moved element must be found at its new location only
+    	eltDn.setMCenterX(20000);
+    	assertNotSame(vDn, vPwy.getObjectAt(p));
+    	assertSame(vDn, vPwy.getObjectAt(new Point2D.Double(vPwy.vFromM(20000), vPwy.vFromM(3000))));
+
+    	// and after zooming
+    	vPwy.setPctZoom(50);
+    	assertSame(vDn, vPwy.getObjectAt(new Point2D.Double(vPwy.vFromM(20000), vPwy.vFromM(3000))));
+    	assertTrue(vPwy.getOverlappingGraphics(vDn).isEmpty());
+    }
+
     public void testOrderAction()
     {
     	assertTrue(eltDn.getZOrder() > eltLa.getZOrder());
@@ -136,6 +340,11 @@ public void testOrderAction()
     	assertTrue(eltLa.getZOrder() > eltDn.getZOrder());
     	assertTrue(eltDn.getZOrder() > eltLi.getZOrder());
     	assertTrue(eltLi.getZOrder() > eltSh.getZOrder());
+
+    	// drawing restores the drawing order after z-order changes
+    	BufferedImage img = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+    	vPwy.draw(img.createGraphics());
+    	checkDrawingOrder(new VPathwayElement[] { vSh, vLi, vDn, vLa }, vPwy.getDrawingObjects());
     }
 
     /**
@@ -216,7 +425,89 @@ public void testDelete()
 
     public void testUndoAction()
     {
-    	//TODO
+    	vPwy.activateUndoManager(new Engine());
+    	UndoManager um = vPwy.getUndoManager();
+    	eltLi.getMEnd().linkTo(eltDn);
+    	double endX = eltLi.getMEndX();
+
+    	// several moves in one action are undone at once
+    	um.newAction("Move");
+    	eltDn.setMCenterX(3100);
+    	eltDn.setMCenterX(3200);
+    	eltSh.setMWidth(500);
+    	assertTrue (eltLi.getMEndX() != endX);
+    	vPwy.undo();
+    	assertEquals (3000.0, eltDn.getMCenterX(), 0.01);
+    	assertEquals (300.0, eltSh.getMWidth(), 0.01);
+    	assertEquals (endX, eltLi.getMEndX(), 0.01);
+
+    	// deleting an element unlinks the line, undo restores both
+    	um.newAction("Delete");
+    	pwy.remove(eltDn);
+    	assertNull (eltLi.getEndGraphRef());
+    	vPwy.undo();
+    	assertSame (pwy, eltDn.getParent());
+    	assertNotNull (vPwy.getPathwayElementView(eltDn));
+    	assertEquals (eltDn.getGraphId(), eltLi.getEndGraphRef());
+    	assertEquals (endX, eltLi.getMEndX(), 0.01);
+
+    	// changes made before the action is added to the stack
+    	UndoAction act = um.startAction("Drag Object");
+    	PathwayElement added = PathwayElement.createPathwayElement(ObjectType.LABEL);
+    	pwy.add(added);
+    	eltLa.setTextLabel("Changed");
+    	um.newAction(act);
+    	assertEquals ("Drag Object", um.getTopMessage());
+    	vPwy.undo();
+    	assertNull (added.getParent());
+    	assertEquals ("Test", eltLa.getTextLabel());
+    	assertEquals (UndoManager.CANT_UNDO, um.getTopMessage());
+    }
+
+    public void testMoveByKeyUndo()
+    {
+    	vPwy.activateUndoManager(new Engine());
+    	UndoManager um = vPwy.getUndoManager();
+    	KeyStroke right = KeyStroke.getKeyStroke(KeyEvent.VK_RIGHT, 0);
+    	KeyStroke down = KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, 0);
+
+    	// consecutive nudges of the same selection are one action
+    	vPwy.selectObject(vDn);
+    	vPwy.moveByKey(right, 10);
+    	vPwy.moveByKey(right, 10);
+    	vPwy.moveByKey(down, 10);
+    	assertTrue (eltDn.getMCenterX() > 3000);
+    	assertTrue (eltDn.getMCenterY() > 3000);
+    	vPwy.undo();
+    	assertEquals (3000.0, eltDn.getMCenterX(), 0.01);
+    	assertEquals (3000.0, eltDn.getMCenterY(), 0.01);
+    	assertEquals (UndoManager.CANT_UNDO, um.getTopMessage());
+
+    	// a selection change starts a new action
+    	vPwy.selectObject(vDn);
+    	vPwy.moveByKey(right, 10);
+    	double movedX = eltDn.getMCenterX();
+    	vPwy.selectObject(vSh);
+    	vPwy.moveByKey(right, 10);
+    	vPwy.undo();
+    	assertEquals (6000.0, eltSh.getMCenterX(), 0.01);
+    	assertEquals (movedX, eltDn.getMCenterX(), 0.01);
+    	vPwy.undo();
+    	assertEquals (3000.0, eltDn.getMCenterX(), 0.01);
+
+    	// so does any other action
+    	vPwy.selectObject(vDn);
+    	vPwy.moveByKey(right, 10);
+    	um.newAction("Change label");
+    	eltLa.setTextLabel("Changed");
+    	vPwy.moveByKey(right, 10);
+    	vPwy.undo();
+    	assertEquals (movedX, eltDn.getMCenterX(), 0.01);
+    	assertEquals ("Changed", eltLa.getTextLabel());
+    	vPwy.undo();
+    	assertEquals ("Test", eltLa.getTextLabel());
+    	vPwy.undo();
+    	assertEquals (3000.0, eltDn.getMCenterX(), 0.01);
     }
 
     public void testGroupingAction()
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link Criterion} that has been compiled for fast evaluation.
+ * <p>
+ * Sample names are bound to integer slots at compile time. Rows are passed
+ * as a double array indexed by slot, so evaluating a row doesn't allocate anything.
+ * Non-numeric and missing values should be passed as NaN.
+ * <p>
+ * Use {@link Criterion#compile(List)} to create an instance.
+ * Instances are immutable, but the row array is owned by the caller,
+ * so each thread should use its own row array.
+ */
+public final class CompiledCriterion
+{
+	/**
+	 * A node in the compiled expression tree.
+	 * Boolean values are represented as 1.0 and 0.0.
+	 */
+	static abstract class Node
+	{
+		/** true if this node evaluates to a boolean */
+		final boolean isBoolean;
+
+		Node (boolean isBoolean) { this.isBoolean = isBoolean; }
+
+		abstract double eval(double[] row);
+	}
+
+	static final double TRUE = 1.0;
+	static final double FALSE = 0.0;
+
+	private final Node root;
+	private final List<String> slotNames;
+	private final int[] usedSlots;
+
+	CompiledCriterion(Node root, List<String> slotNames, int[] usedSlots)
+	{
+		if (!root.isBoolean) throw new IllegalArgumentException("Expected Boolean expression");
+		this.root = root;
+		this.slotNames = Collections.unmodifiableList(slotNames);
+		this.usedSlots = usedSlots;
+	}
+
+	/**
+	 * Evaluate the criterion for a single row.
+	 * @param row values indexed by slot. Must be at least getSlotNames().size() long,
+	 * 	but only the slots returned by getUsedSlots() need to be filled in.
+	 */
+	public boolean evaluate(double[] row)
+	{
+		return root.eval(row) == TRUE;
+	}
+
+	/**
+	 * The names bound to each slot, in slot order.
+	 */
+	public List<String> getSlotNames()
+	{
+		return slotNames;
+	}
+
+	/**
+	 * The slots that are actually referred to by the expression, in ascending order.
+	 * Callers may use this to fill only the part of the row that matters.
+	 * The returned array should not be modified.
+	 */
+	public int[] getUsedSlots()
+	{
+		return usedSlots;
+	}
+
+	/**
+	 * Helper to convert a value as stored in an {@link IRow} to a slot value.
+	 * Numbers are converted to double, anything else to NaN.
+	 */
+	public static double toDouble(Object value)
+	{
+		return value instanceof Number ? ((Number)value).doubleValue() : Double.NaN;
+	}
+
+	static double bool(boolean value)
+	{
+		return value ? TRUE : FALSE;
+	}
+
+	static Node constant(final double value)
+	{
+		return new Node(false) {
+			double eval(double[] row) { return value; }
+		};
+	}
+
+	static Node slot(final int slot)
+	{
+		return new Node(false) {
+			double eval(double[] row) { return row[slot]; }
+		};
+	}
+}
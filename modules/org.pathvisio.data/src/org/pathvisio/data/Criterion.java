@@ -19,9 +19,13 @@
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+
+import org.pathvisio.data.CompiledCriterion.Node;
 
 /**
  * A criterion is a simple boolean expression that can
@@ -68,6 +72,7 @@ public String setExpression(String expression)
 	{
 		if (expression == null) throw new NullPointerException();
 		this.expression = expression;
+		parsed = null;
 		
 		try {
 			parsed = parse();
@@ -88,6 +93,7 @@ public String setExpression(String expression, List<String> symbols)
 	{
 		if (expression == null) throw new NullPointerException();
 		this.expression = expression;
+		parsed = null;
 
 		for(String s : symbols) {
 			symTab.put (s, 1.0);
@@ -127,10 +133,55 @@ public boolean evaluate(Map<String, Object> data) throws CriterionException {
 	public Object evaluateAsObject(Map<String, Object> data) throws CriterionException
 	{
 		setSampleData(data);
-		Token e = parse();
+		// only parse again if the expression was never parsed successfully
+		Token e = (parsed == null) ? parse() : parsed;
 		return e.evaluate();
 	}
 
+	/**
+	 * Compile the current expression, binding the given names to slots.
+	 * The compiled criterion evaluates rows passed as double arrays, where
+	 * the value for slotNames.get(i) is at index i.
+	 * <p>
+	 * Only numeric expressions can be compiled, i.e. expressions without
+	 * string literals or string functions. For those, null is returned,
+	 * and you should fall back to {@link #evaluate(Map)}.
+	 * Null is also returned if the expression refers to a name that is not in slotNames.
+	 * <p>
+	 * The compiled criterion treats non-numeric or missing values as NaN, where
+	 * {@link #evaluate(Map)} would throw an exception. In both cases the criterion is not met.
+	 */
+	public CompiledCriterion compile(List<String> slotNames)
+	{
+		if (parsed == null) return null;
+		Map<String, Integer> slots = new HashMap<String, Integer>();
+		for (int i = 0; i < slotNames.size(); ++i)
+		{
+			if (!slots.containsKey(slotNames.get(i))) slots.put (slotNames.get(i), i);
+		}
+		Set<Integer> used = new TreeSet<Integer>();
+		Node root = parsed.compile(slots, used);
+		if (root == null || !root.isBoolean) return null;
+
+		int[] usedSlots = new int[used.size()];
+		int i = 0;
+		for (int slot : used) usedSlots[i++] = slot;
+		return new CompiledCriterion(root, new ArrayList<String>(slotNames), usedSlots);
+	}
+
+	/**
+	 * Compile the current expression, binding only the names referred
+	 * to in the expression, in order of appearance.
+	 * See {@link #compile(List)}.
+	 */
+	public CompiledCriterion compile()
+	{
+		if (parsed == null) return null;
+		Set<String> symbols = new LinkedHashSet<String>();
+		parsed.collectSymbols(symbols);
+		return compile(new ArrayList<String>(symbols));
+	}
+
 	//Boolean expression parser by Martijn
 	String input;
 	int charNr;
@@ -749,6 +800,228 @@ Object evaluate() throws CriterionException
 			throw new CriterionException(error);
 		}
 
+		/** add the names of all symbols in this token tree to result */
+		void collectSymbols(Set<String> result)
+		{
+			if (type == TokenType.ID) result.add (symbolValue);
+			if (left != null) left.collectSymbols(result);
+			if (right != null) right.collectSymbols(result);
+			if (funcParams != null) for (Token t : funcParams) t.collectSymbols(result);
+		}
+
+		/**
+		 * Compile this token tree, see Criterion.compile().
+		 * Returns null if this tree can't be compiled.
+		 * @param slots maps names to slots
+		 * @param used receives all slots referred to.
+		 */
+		Node compile(Map<String, Integer> slots, Set<Integer> used)
+		{
+			final Node l = (left == null) ? null : left.compile(slots, used);
+			final Node r = (right == null) ? null : right.compile(slots, used);
+			if (left != null && l == null) return null;
+			if (right != null && r == null) return null;
+			switch (type)
+			{
+			case NUMBER_LITERAL:
+				return CompiledCriterion.constant((Double)literalValue);
+			case ID:
+			{
+				Integer slot = slots.get(symbolValue);
+				if (slot == null) return null;
+				used.add (slot);
+				return CompiledCriterion.slot(slot);
+			}
+			case AND:
+				if (!(l.isBoolean && r.isBoolean)) return null;
+				return new Node(true) {
+					double eval(double[] row) { return l.eval(row) == CompiledCriterion.TRUE ? r.eval(row) : CompiledCriterion.FALSE; }
+				};
+			case OR:
+				if (!(l.isBoolean && r.isBoolean)) return null;
+				return new Node(true) {
+					double eval(double[] row) { return l.eval(row) == CompiledCriterion.TRUE ? CompiledCriterion.TRUE : r.eval(row); }
+				};
+			case NOT:
+				if (!l.isBoolean) return null;
+				return new Node(true) {
+					double eval(double[] row) { return l.eval(row) == CompiledCriterion.TRUE ? CompiledCriterion.FALSE : CompiledCriterion.TRUE; }
+				};
+			case EQ:
+				if (l.isBoolean != r.isBoolean) return null;
+				// same semantics as Double.equals()
+				return new Node(true) {
+					double eval(double[] row) { return CompiledCriterion.bool(Double.doubleToLongBits(l.eval(row)) == Double.doubleToLongBits(r.eval(row))); }
+				};
+			case NE:
+				if (l.isBoolean != r.isBoolean) return null;
+				return new Node(true) {
+					double eval(double[] row) { return CompiledCriterion.bool(Double.doubleToLongBits(l.eval(row)) != Double.doubleToLongBits(r.eval(row))); }
+				};
+			case GE:
+				if (l.isBoolean || r.isBoolean) return null;
+				return new Node(true) {
+					double eval(double[] row) { return CompiledCriterion.bool(l.eval(row) >= r.eval(row)); }
+				};
+			case LE:
+				if (l.isBoolean || r.isBoolean) return null;
+				return new Node(true) {
+					double eval(double[] row) { return CompiledCriterion.bool(l.eval(row) <= r.eval(row)); }
+				};
+			case GT:
+				if (l.isBoolean || r.isBoolean) return null;
+				return new Node(true) {
+					double eval(double[] row) { return CompiledCriterion.bool(l.eval(row) > r.eval(row)); }
+				};
+			case LT:
+				if (l.isBoolean || r.isBoolean) return null;
+				return new Node(true) {
+					double eval(double[] row) { return CompiledCriterion.bool(l.eval(row) < r.eval(row)); }
+				};
+			case SUB:
+				if (l.isBoolean || r.isBoolean) return null;
+				return new Node(false) {
+					double eval(double[] row) { return l.eval(row) - r.eval(row); }
+				};
+			case ADD:
+				if (l.isBoolean || r.isBoolean) return null;
+				return new Node(false) {
+					double eval(double[] row) { return l.eval(row) + r.eval(row); }
+				};
+			case MUL:
+				if (l.isBoolean || r.isBoolean) return null;
+				return new Node(false) {
+					double eval(double[] row) { return l.eval(row) * r.eval(row); }
+				};
+			case DIV:
+				if (l.isBoolean || r.isBoolean) return null;
+				return new Node(false) {
+					double eval(double[] row) { return l.eval(row) / r.eval(row); }
+				};
+			case UNARY_MINUS:
+				if (l.isBoolean) return null;
+				return new Node(false) {
+					double eval(double[] row) { return -l.eval(row); }
+				};
+			case FUNC:
+				return compileFunction(slots, used);
+			default:
+				// string literals can't be compiled
+				return null;
+			}
+		}
+
+		/**
+		 * Compile the numeric subset of {@link Functions}.
+		 */
+		private Node compileFunction(Map<String, Integer> slots, Set<Integer> used)
+		{
+			final Node[] params = new Node[funcParams.size()];
+			for (int i = 0; i < params.length; ++i)
+			{
+				params[i] = funcParams.get(i).compile(slots, used);
+				if (params[i] == null) return null;
+			}
+
+			Functions f = Functions.valueOf(symbolValue);
+			if (f == Functions.IF)
+			{
+				if (params.length != 3 || !params[0].isBoolean || params[1].isBoolean != params[2].isBoolean) return null;
+				return new Node(params[1].isBoolean) {
+					double eval(double[] row) {
+						return params[0].eval(row) == CompiledCriterion.TRUE ? params[1].eval(row) : params[2].eval(row);
+					}
+				};
+			}
+
+			for (Node n : params) if (n.isBoolean) return null;
+
+			switch (f)
+			{
+			case SUM:
+				return new Node(false) {
+					double eval(double[] row) {
+						double sum = 0;
+						for (Node n : params) sum += n.eval(row);
+						return sum;
+					}
+				};
+			case SUMSQ:
+				return new Node(false) {
+					double eval(double[] row) {
+						double sumSq = 0;
+						for (Node n : params) { double p = n.eval(row); sumSq += p * p; }
+						return sumSq;
+					}
+				};
+			case AVERAGE:
+				return new Node(false) {
+					double eval(double[] row) {
+						double sum = 0;
+						for (Node n : params) sum += n.eval(row);
+						return sum / params.length;
+					}
+				};
+			case MAX:
+				if (params.length == 0) return null;
+				return new Node(false) {
+					double eval(double[] row) {
+						double max = params[0].eval(row);
+						for (int i = 1; i < params.length; ++i) { double p = params[i].eval(row); if (p > max) max = p; }
+						return max;
+					}
+				};
+			case MIN:
+				if (params.length == 0) return null;
+				return new Node(false) {
+					double eval(double[] row) {
+						double min = params[0].eval(row);
+						for (int i = 1; i < params.length; ++i) { double p = params[i].eval(row); if (p < min) min = p; }
+						return min;
+					}
+				};
+			case LOG:
+				if (params.length != 2) return null;
+				return new Node(false) {
+					double eval(double[] row) { return Math.log (params[0].eval(row)) / Math.log (params[1].eval(row)); }
+				};
+			case POWER:
+				if (params.length != 2) return null;
+				return new Node(false) {
+					double eval(double[] row) { return Math.pow (params[0].eval(row), params[1].eval(row)); }
+				};
+			case EXP:
+			case SIN:
+			case COS:
+			case SQRT:
+			case CEILING:
+			case FLOOR:
+			case LOG10:
+			case ABS:
+				if (params.length != 1) return null;
+				final Functions func = f;
+				return new Node(false) {
+					double eval(double[] row) {
+						double arg = params[0].eval(row);
+						switch (func)
+						{
+						case EXP: return Math.exp (arg);
+						case SIN: return Math.sin (arg);
+						case COS: return Math.cos (arg);
+						case SQRT: return Math.sqrt (arg);
+						case CEILING: return Math.ceil (arg);
+						case FLOOR: return Math.floor (arg);
+						case LOG10: return Math.log10 (arg);
+						default: return Math.abs (arg);
+						}
+					}
+				};
+			default:
+				// string functions, arrays and the like can't be compiled
+				return null;
+			}
+		}
+
 		Token (TokenType aType) { type = aType; literalValue = 0; symbolValue = ""; }
 		Token (TokenType aType, String aValue)
 		{
@@ -16,8 +16,11 @@
  ******************************************************************************/
 package org.pathvisio.desktop;
 
+import java.awt.Rectangle;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import javax.swing.Action;
 import javax.swing.JFrame;
@@ -27,6 +30,7 @@
 import javax.swing.JOptionPane;
 import javax.swing.JTabbedPane;
 
+import org.bridgedb.Xref;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.pathvisio.core.ApplicationEvent;
@@ -37,7 +41,9 @@
 import org.pathvisio.core.model.Pathway;
 import org.pathvisio.core.preferences.GlobalPreference;
 import org.pathvisio.core.preferences.PreferenceManager;
+import org.pathvisio.core.view.GeneProduct;
 import org.pathvisio.core.view.VPathway;
+import org.pathvisio.core.view.VPathwayElement;
 import org.pathvisio.data.DataException;
 import org.pathvisio.desktop.data.DBConnDerby;
 import org.pathvisio.desktop.data.DBConnectorSwing;
@@ -133,6 +139,9 @@ public void initPanels()
 			.booleanField(
 				GlobalPreference.ENABLE_DOUBLE_BUFFERING,
 				"Enable double-buffering (pathway is drawn slower, but flickerless)")
+			.booleanField(
+				GlobalPreference.ENABLE_TILE_CACHE,
+				"Cache the drawn pathway (faster scrolling and dragging, uses more memory)")
 			.build());
 
 
@@ -217,11 +226,36 @@ public void loadGexCache() {
 		if(p != null && gex != null) {
 			try
 			{
-				gex.clearCache();
+				// rows of pathways that were viewed before are reused, as far as they fit in the cache
+				gex.cancelPreSeed();
 				gex.setMapper (swingEngine.getGdbManager().getCurrentGdb());
-				gex.preSeed(p.getDataNodeXrefs());
-				gex.preSeed(p.getLineXrefs());
-				swingEngine.getEngine().getActiveVPathway().redraw();
+
+				// elements on screen are loaded first
+				Set<Xref> visible = new HashSet<Xref>();
+				VPathway vp = swingEngine.getEngine().getActiveVPathway();
+				if (vp != null && vp.getWrapper() != null)
+				{
+					Rectangle vr = vp.getWrapper().getViewRect();
+					for (VPathwayElement elt : vp.getDrawingObjects())
+					{
+						if (elt instanceof GeneProduct && vr.intersects(elt.getVBounds()))
+						{
+							visible.add(((GeneProduct)elt).getPathwayElement().getXref());
+						}
+					}
+				}
+				Set<Xref> others = new HashSet<Xref>(p.getDataNodeXrefs());
+				others.addAll(p.getLineXrefs());
+				others.removeAll(visible);
+
+				gex.preSeed(visible, others, new CachedData.Callback()
+				{
+					public void callback()
+					{
+						VPathway vp = swingEngine.getEngine().getActiveVPathway();
+						if (vp != null) vp.redraw();
+					}
+				});
 			}
 			catch (DataException e)
 			{
@@ -247,6 +281,9 @@ public void applicationEvent(ApplicationEvent e)
 	 */
 	public void gdbEvent(GdbEvent e)
 	{
+		// the mapper stays the same object, but the mapping results change
+		CachedData gex = gexManager.getCachedData();
+		if (gex != null) gex.clearMappingCache();
 		loadGexCache();
 	}
 
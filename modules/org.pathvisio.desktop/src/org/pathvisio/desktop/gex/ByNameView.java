@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.desktop.gex;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Package private.
+ *
+ * Read-only map of sample name to value for a single row, as returned by
+ * {@link org.pathvisio.data.IRow#getByName()}. Names are looked up in the {@link SampleIndex}
+ * shared by all rows of a dataset, and values are read from the row when asked for,
+ * so creating a view doesn't copy any data.
+ * <p>
+ * Cells with a null value are left out. If sample names are not unique,
+ * only the column that {@link SampleIndex#indexOf(String)} returns is visible.
+ */
+abstract class ByNameView extends AbstractMap<String, Object>
+{
+	private final SampleIndex index;
+
+	ByNameView(SampleIndex index)
+	{
+		this.index = index;
+	}
+
+	/** value of the given column of the row, or null if the cell is missing */
+	abstract Object getCell(int col);
+
+	@Override
+	public Object get(Object key)
+	{
+		if (!(key instanceof String)) return null;
+		int col = index.indexOf((String)key);
+		return col < 0 ? null : getCell(col);
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return get(key) != null;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet()
+	{
+		return new AbstractSet<Map.Entry<String, Object>>()
+		{
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator()
+			{
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size()
+			{
+				int result = 0;
+				for (Iterator<?> it = iterator(); it.hasNext(); it.next()) result++;
+				return result;
+			}
+		};
+	}
+
+	/** iterates over the visible cells that have a value */
+	private class EntryIterator implements Iterator<Map.Entry<String, Object>>
+	{
+		private int next = advance(0);
+
+		private int advance(int col)
+		{
+			while (col < index.size() &&
+					(getCell(col) == null || index.indexOf(index.getSample(col).getName()) != col))
+			{
+				col++;
+			}
+			return col;
+		}
+
+		public boolean hasNext()
+		{
+			return next < index.size();
+		}
+
+		public Map.Entry<String, Object> next()
+		{
+			if (!hasNext()) throw new NoSuchElementException();
+			int col = next;
+			next = advance(col + 1);
+			return new AbstractMap.SimpleImmutableEntry<String, Object>(index.getSample(col).getName(), getCell(col));
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
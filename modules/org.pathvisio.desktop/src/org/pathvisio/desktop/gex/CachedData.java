@@ -19,13 +19,16 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.SwingUtilities;
 
@@ -36,6 +39,7 @@
 import org.pathvisio.core.debug.Logger;
 import org.pathvisio.core.debug.ThreadSafe;
 import org.pathvisio.core.debug.WorkerThreadOnly;
+import org.pathvisio.core.preferences.GlobalPreference;
 import org.pathvisio.data.DataException;
 import org.pathvisio.data.DataInterface;
 import org.pathvisio.data.IRow;
@@ -46,14 +50,89 @@
  * The caching of expression data will occur when a pathway is opened and an expression dataset is loaded.
  * The cache will be refreshed when another dataset is selected, another gene database is selected or another
  * pathway is opened.
- * A CachedData object will contain a list of {@link ReporterData} object for every gene-product on the pathway for
- * which data is available in the expression dataset
+ * A CachedData object will contain a list of {@link IRow} objects for every gene-product on the pathway for
+ * which data is available in the expression dataset. Rows of a {@link SimpleGex} are {@link CompactRow}s,
+ * which share the sample columns of the dataset, so a cached row takes little more than its values.
+ * <p>
+ * The cache is bounded: when it holds more rows than the maximum, the gene-products
+ * that were used least recently are evicted. The results of ID mapping are kept separately,
+ * in an {@link IdMappingCache}, so they can be reused for another dataset. Both
+ * caches keep hit, miss and eviction counters, see {@link #getRowCache} and {@link #getMappingCache}.
  */
 public class CachedData
 {
-	//Data objects for gene-products on the pathway
-	private final ConcurrentHashMap<Xref, List<IRow>> data = new ConcurrentHashMap<Xref, List<IRow>>();
-	private final Executor executor;
+	/** default maximum number of rows in the cache, see {@link GlobalPreference#GEX_CACHE_ROWS} */
+	public static final int DEFAULT_MAX_ROWS = Integer.parseInt(GlobalPreference.GEX_CACHE_ROWS.getDefault());
+	/** default maximum number of id mapping results, see {@link GlobalPreference#GEX_CACHE_MAPPINGS} */
+	public static final int DEFAULT_MAX_MAPPINGS = Integer.parseInt(GlobalPreference.GEX_CACHE_MAPPINGS.getDefault());
+
+	/**
+	 * Cache of rows per gene-product, weighted by number of rows. A gene-product without data
+	 * still takes up an entry, so it weighs at least 1.
+	 */
+	private static class RowCache extends LruCache<Xref, List<IRow>>
+	{
+		RowCache(long maxRows)
+		{
+			super(maxRows);
+		}
+
+		@Override
+		protected int weigh(List<IRow> value)
+		{
+			return Math.max(1, value.size());
+		}
+	}
+
+	//Data objects for gene-products
+	private final RowCache data;
+	private final IdMappingCache mappings;
+	private final ThreadPoolExecutor executor;
+
+	/** priority of tasks for elements that are on screen */
+	private static final int PRIORITY_HIGH = 0;
+	/** priority of background tasks from {@link #preSeed} */
+	private static final int PRIORITY_LOW = 1;
+	/** number of Xrefs loaded by a single background task */
+	private static final int SEED_BATCH_SIZE = 100;
+
+	private final AtomicLong taskCount = new AtomicLong();
+	/** incremented when the cache is cleared, so pending seed tasks can tell they are outdated */
+	private final AtomicInteger generation = new AtomicInteger();
+
+	/**
+	 * Task for the executor, ordered by priority first,
+	 * and then in the order they were submitted.
+	 */
+	private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask>
+	{
+		private final int priority;
+		private final long seq;
+		private final Runnable task;
+
+		PrioritizedTask(int priority, long seq, Runnable task)
+		{
+			this.priority = priority;
+			this.seq = seq;
+			this.task = task;
+		}
+
+		public void run()
+		{
+			task.run();
+		}
+
+		public int compareTo(PrioritizedTask other)
+		{
+			if (priority != other.priority) return priority < other.priority ? -1 : 1;
+			return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+		}
+	}
+
+	private void submit(int priority, Runnable task)
+	{
+		executor.execute(new PrioritizedTask(priority, taskCount.getAndIncrement(), task));
+	}
 
 	private final DataInterface parent;
 
@@ -63,13 +142,27 @@
 	 * Or you'll end up with multiple caches.
 	 */
 	public CachedData (DataInterface parent)
+	{
+		this (parent, DEFAULT_MAX_ROWS, new IdMappingCache(DEFAULT_MAX_MAPPINGS));
+	}
+
+	/**
+	 * @param maxRows maximum number of rows to keep in the cache
+	 * @param mappings cache for id mapping results, may be shared with other instances
+	 */
+	public CachedData (DataInterface parent, int maxRows, IdMappingCache mappings)
 	{
 		this.parent = parent;
-		executor = Executors.newSingleThreadExecutor();
+		this.mappings = mappings;
+		data = new RowCache(maxRows);
+		executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>());
 	}
 
 	/**
-	 * Check whether the cached data contains data for the given gene-product
+	 * Check whether the cached data contains data for the given gene-product.
+	 * Note that the data may be evicted before you get it, use {@link #getData} and check for
+	 * null instead if you need the data.
 	 * @param pwId The IdCodePair that represents the gene-product
 	 * @return true if data is available for the gene-product, false if not
 	 */
@@ -79,14 +172,26 @@ public boolean hasData(Xref pwId) {
 
 	/**
 	 * Get the cached data the given gene-product. If there was nothing in cache
-	 * it returns 0. Should be used only in combination with asyncGet.
+	 * it returns null. Should be used only in combination with asyncGet.
 	 * @param idc The Xref for which the data has to be returned
-	 * @return a list of {@link ReporterData} object containing the cached data, or null when no data is available
+	 * @return a list of rows containing the cached data, or null when no data is available
 	 */
 	public List<? extends IRow> getData(Xref idc) {
 		return data.get(idc);
 	}
 
+	/** The cache of expression rows, for statistics. */
+	public LruCache<Xref, List<IRow>> getRowCache()
+	{
+		return data;
+	}
+
+	/** The cache of id mapping results, for statistics. May be shared with other instances. */
+	public IdMappingCache getMappingCache()
+	{
+		return mappings;
+	}
+
 	public interface Callback
 	{
 		public void callback();
@@ -112,37 +217,62 @@ private void updateTasks (int delta)
 	@WorkerThreadOnly
 	public List<? extends IRow> syncGet(Xref ref) throws IDMapperException, DataException
 	{
+		List<IRow> result = data.get(ref);
+		return result == null ? load(ref) : result;
+	}
+
+	/**
+	 * Helper for syncGet and asyncGet, loads data into the cache
+	 * unless it's there already. Doesn't count as a cache lookup.
+	 */
+	@WorkerThreadOnly
+	private List<IRow> load(Xref ref) throws IDMapperException, DataException
+	{
+		List<IRow> result = data.peek(ref);
+		if (result != null) return result;
+
 		if (destFilterCache == null)
 		{
 			destFilterCache = parent.getUsedDatasources();
 		}
 
-		List<IRow> result;
-		if (!data.containsKey (ref))
-		{
-			// get results and sort them
-			result = new ArrayList<IRow>();
-			Collection <? extends IRow> collection = getDataForXref(ref, mapper, destFilterCache);
-			if (collection != null) result.addAll(collection);
-			Collections.sort(result);
-			data.put (ref, result);
-		}
-		else
-		{
-			result = data.get(ref);
-		}
+		// get results and sort them
+		result = new ArrayList<IRow>();
+		Collection <? extends IRow> collection = getDataForXref(ref, mapper, destFilterCache);
+		if (collection != null) result.addAll(collection);
+		Collections.sort(result);
+		data.put (ref, result);
 		return result;
 	}
 
+	/**
+	 * Xrefs that are being loaded, with the callbacks to call when they are done.
+	 * Used so that a gene that is painted several times is only looked up once.
+	 */
+	private final Map<Xref, List<Callback>> waiting = new HashMap<Xref, List<Callback>>();
+
 	public void asyncGet(final Xref ref, final Callback callback)
 	{
+		synchronized (waiting)
+		{
+			List<Callback> callbacks = waiting.get(ref);
+			if (callbacks != null)
+			{
+				// already being loaded
+				callbacks.add(callback);
+				return;
+			}
+			callbacks = new ArrayList<Callback>();
+			callbacks.add(callback);
+			waiting.put(ref, callbacks);
+		}
 		updateTasks (+1);
-		executor.execute (new Runnable()
+		submit (PRIORITY_HIGH, new Runnable()
 		{
 			public void run()
 			{
 				try {
-					syncGet(ref);
+					load(ref);
 				} catch (IDMapperException e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
@@ -152,21 +282,66 @@ public void run()
 					e.printStackTrace();
 				}
 				updateTasks (-1);
-				SwingUtilities.invokeLater(new Runnable() {
-					public void run() {
-					callback.callback();
-				}});
+				fireCallbacks(Collections.singleton(ref), null);
+			}
+		});
+	}
+
+	/**
+	 * Call the callbacks that are waiting for the given Xrefs, plus an extra one,
+	 * with a single invokeLater.
+	 */
+	private void fireCallbacks(Collection<Xref> refs, Callback extra)
+	{
+		final List<Callback> result = new ArrayList<Callback>();
+		synchronized (waiting)
+		{
+			for (Xref ref : refs)
+			{
+				List<Callback> callbacks = waiting.remove(ref);
+				if (callbacks != null) result.addAll(callbacks);
+			}
+		}
+		if (extra != null) result.add(extra);
+		if (result.isEmpty()) return;
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				for (Callback c : result) c.callback();
 			}
 		});
 	}
 
 	private Collection<? extends IRow> getDataForXref(Xref srcRef, IDMapper gdb, Set<DataSource> destFilter) throws IDMapperException, DataException
 	{
-		// get all cross-refs for this id
+		Set<Xref> mapped = null;
+		if (gdb != null && gdb.isConnected() && srcRef.getId() != null && srcRef.getDataSource() != null)
+		{
+			mapped = mappings.get(srcRef);
+			if (mapped == null)
+			{
+				mapped = gdb.mapID(srcRef);
+				mappings.put(srcRef, mapped);
+			}
+		}
+		Set<Xref> destRefs = getDestRefs(srcRef, mapped, destFilter);
+		if(destRefs.size() > 0)
+		{
+			return parent.getData(destRefs);
+		}
+		else
+			return Collections.emptyList();
+	}
+
+	/**
+	 * Get all cross-refs for srcRef that may occur in the dataset.
+	 * @param mapped result of id mapping for srcRef, may be null if the mapper is not connected.
+	 */
+	private Set<Xref> getDestRefs(Xref srcRef, Set<Xref> mapped, Set<DataSource> destFilter)
+	{
 		Set<Xref> destRefs = new HashSet<Xref>();
-		if (gdb.isConnected() && srcRef.getId() != null && srcRef.getDataSource() != null)
+		if (mapped != null)
 		{
-			for (Xref destRef : gdb.mapID(srcRef))
+			for (Xref destRef : mapped)
 			{
 				// add only the ones that are in the dest filter.
 				if (destFilter.contains(destRef.getDataSource()))
@@ -181,13 +356,7 @@ private Collection<? extends IRow> getDataForXref(Xref srcRef, IDMapper gdb, Set
 		{
 			destRefs.add(srcRef);
 		}
-
-		if(destRefs.size() > 0)
-		{
-			return parent.getData(destRefs);
-		}
-		else
-			return Collections.emptyList();
+		return destRefs;
 	}
 
 	private IDMapper mapper = null;
@@ -204,43 +373,211 @@ public void setMapper(IDMapper mapper)
 			this.mapper = mapper;
 			clearCache();
 		}
+		mappings.setMapper(mapper);
 	}
 
 	/**
-	 * Starts loading expression data for all the given gene ids into memory
+	 * Starts loading expression data for all the given gene ids into memory,
+	 * in the background.
 	 * @param srcRefs Xrefs to cache the expression data for
 	 * 	(typically all genes and metabolites in a pathway)
 	 */
 	public void preSeed(Collection<Xref> srcRefs) throws DataException
+	{
+		preSeed(Collections.<Xref>emptyList(), srcRefs, null);
+	}
+
+	/**
+	 * Starts loading expression data for the given gene ids into memory, in the background.
+	 * <p>
+	 * The visible Xrefs are loaded first, in a single batch. The callback
+	 * is called once after that, on the event dispatch thread, so the pathway can
+	 * be repainted. The other Xrefs are loaded afterwards in smaller batches, with a lower priority than
+	 * {@link #asyncGet}, so elements that are painted in the meantime don't have to wait.
+	 * @param visibleRefs Xrefs of the elements that are on screen
+	 * @param otherRefs all other Xrefs to cache the expression data for
+	 * @param callback called when the visible Xrefs are loaded, may be null
+	 */
+	public void preSeed(Collection<Xref> visibleRefs, Collection<Xref> otherRefs, final Callback callback) throws DataException
 	{
 		// seed samples cache
 		parent.getSamples();
 
-		//TODO preseed cache with srcRefs in background.
-		// somehow with lower priority than the ones for visualization
+		final int gen = generation.get();
+		final List<Xref> visible = new ArrayList<Xref>(visibleRefs);
+		synchronized (waiting)
+		{
+			// asyncGet for these will wait for the batch, instead of loading them one by one
+			for (Xref ref : visible)
+			{
+				if (!waiting.containsKey(ref)) waiting.put(ref, new ArrayList<Callback>());
+			}
+		}
+		updateTasks (+1);
+		submit (PRIORITY_HIGH, new Runnable()
+		{
+			public void run()
+			{
+				seed(visible, gen);
+				updateTasks (-1);
+				fireCallbacks(visible, callback);
+			}
+		});
+
+		List<Xref> others = new ArrayList<Xref>(otherRefs);
+		for (int start = 0; start < others.size(); start += SEED_BATCH_SIZE)
+		{
+			final List<Xref> batch = others.subList(start, Math.min(start + SEED_BATCH_SIZE, others.size()));
+			updateTasks (+1);
+			submit (PRIORITY_LOW, new Runnable()
+			{
+				public void run()
+				{
+					seed(batch, gen);
+					updateTasks (-1);
+				}
+			});
+		}
+	}
+
+	/** helper for preSeed, does nothing if the cache was cleared in the meantime */
+	@WorkerThreadOnly
+	private void seed(Collection<Xref> refs, int gen)
+	{
+		if (generation.get() != gen || refs.isEmpty()) return;
+		try
+		{
+			syncSeed(refs);
+		}
+		catch (IDMapperException e)
+		{
+			Logger.log.error ("Exception while caching expression data ", e);
+		}
+		catch (DataException e)
+		{
+			Logger.log.error ("Exception while caching expression data ", e);
+		}
 	}
 
 	@WorkerThreadOnly
 	/**
 	 * Load expression data for given Xrefs into cache.
 	 * Waits until the process is done.
+	 * @return the rows for each of the given Xrefs. The cache is limited, so rows may be
+	 * evicted from it before the caller reads them, but the returned map holds on to all of them.
 	 */
-	public void syncSeed(Collection<Xref> srcRefs) throws DataException, IDMapperException
+	public Map<Xref, List<IRow>> syncSeed(Collection<Xref> srcRefs) throws DataException, IDMapperException
 	{
 		// seed samples cache
 		parent.getSamples();
 
+		if (destFilterCache == null)
+		{
+			destFilterCache = parent.getUsedDatasources();
+		}
+
+		// only look up what isn't cached yet
+		Map<Xref, List<IRow>> loaded = new HashMap<Xref, List<IRow>>();
+		Set<Xref> todo = new HashSet<Xref>();
 		for (Xref ref : srcRefs)
 		{
-			syncGet(ref);
+			List<IRow> cached = data.peek(ref);
+			if (cached != null) loaded.put (ref, cached);
+			else todo.add(ref);
+		}
+		if (todo.size() == 0) return loaded;
+
+		// map all ids that weren't mapped before in one go
+		Map<Xref, Set<Xref>> mapped = new HashMap<Xref, Set<Xref>>();
+		if (mapper != null && mapper.isConnected())
+		{
+			Set<Xref> mappable = new HashSet<Xref>();
+			for (Xref ref : todo)
+			{
+				if (ref.getId() == null || ref.getDataSource() == null) continue;
+				Set<Xref> cached = mappings.get(ref);
+				if (cached != null) mapped.put (ref, cached);
+				else mappable.add(ref);
+			}
+			if (mappable.size() > 0)
+			{
+				Map<Xref, Set<Xref>> result = mapper.mapID(mappable);
+				for (Xref ref : mappable)
+				{
+					Set<Xref> destRefs = result.get(ref);
+					if (destRefs == null) destRefs = Collections.emptySet();
+					mappings.put (ref, destRefs);
+					mapped.put (ref, destRefs);
+				}
+			}
+		}
+
+		Map<Xref, Set<Xref>> destRefsBySrc = new HashMap<Xref, Set<Xref>>();
+		Set<Xref> allDestRefs = new HashSet<Xref>();
+		for (Xref ref : todo)
+		{
+			Set<Xref> destRefs = getDestRefs(ref, mapped.get(ref), destFilterCache);
+			destRefsBySrc.put (ref, destRefs);
+			allDestRefs.addAll (destRefs);
+		}
+
+		// fetch data for all destination refs in a single batched query
+		Map<Xref, List<IRow>> rowsByDestRef = new HashMap<Xref, List<IRow>>();
+		if (allDestRefs.size() > 0)
+		{
+			for (IRow row : parent.getData(allDestRefs))
+			{
+				List<IRow> rows = rowsByDestRef.get(row.getXref());
+				if (rows == null)
+				{
+					rows = new ArrayList<IRow>();
+					rowsByDestRef.put (row.getXref(), rows);
+				}
+				rows.add (row);
+			}
+		}
+
+		// distribute the rows over the source refs, same as syncGet would.
+		for (Xref ref : todo)
+		{
+			List<IRow> result = new ArrayList<IRow>();
+			for (Xref destRef : destRefsBySrc.get(ref))
+			{
+				List<IRow> rows = rowsByDestRef.get(destRef);
+				if (rows != null) result.addAll (rows);
+			}
+			Collections.sort(result);
+			data.put (ref, result);
+			loaded.put (ref, result);
 		}
+		return loaded;
+	}
+
+	/**
+	 * Stop loading data for a previous call to {@link #preSeed}.
+	 * Data that was loaded already stays in the cache.
+	 */
+	public void cancelPreSeed()
+	{
+		generation.incrementAndGet();
 	}
 
 	public void clearCache()
 	{
+		generation.incrementAndGet();
 		data.clear();
 	}
 
+	/**
+	 * Clear the cache, including the results of id mapping.
+	 * Call this when the mapper was modified, for example when a database was added to it.
+	 */
+	public void clearMappingCache()
+	{
+		clearCache();
+		mappings.clear();
+	}
+
 	public String getDbName()
 	{
 		return parent.getDbName();
@@ -268,13 +605,14 @@ public boolean isConnected()
 		return parent.isConnected();
 	}
 
-	List<? extends ISample> getOrderedSamples() throws DataException
+	public List<? extends ISample> getOrderedSamples() throws DataException
 	{
 		return parent.getOrderedSamples();
 	}
 
 	public void dispose()
 	{
-		((ExecutorService)executor).shutdown();
+		Logger.log.info ("Expression cache: " + data + "; id mapping cache: " + mappings);
+		executor.shutdown();
 	}
 }
@@ -0,0 +1,454 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.desktop.gex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+import org.pathvisio.data.DataException;
+import org.pathvisio.data.DataInterface;
+import org.pathvisio.data.IRow;
+import org.pathvisio.data.ISample;
+
+/**
+ * Read-only, in-memory copy of a complete expression dataset.
+ * <p>
+ * The data is loaded once from another {@link DataInterface} (usually a {@link SimpleGex})
+ * and stored column-wise: one primitive double array per sample, plus a dictionary-encoded
+ * column for samples that contain text. Rows are indexed by group id and by Xref,
+ * so lookups don't touch the database anymore.
+ * <p>
+ * Rows returned by this class are light-weight views on the columns,
+ * they don't hold a copy of the data.
+ * <p>
+ * After loading, instances are immutable and can safely be read from multiple threads.
+ */
+public class ColumnarGex implements DataInterface
+{
+	/** code for a numeric cell in a text column */
+	private static final int CODE_NUMBER = -1;
+	/** code for a missing cell in a text column */
+	private static final int CODE_MISSING = -2;
+
+	private final String dbName;
+
+	private final Map<Integer, ISample> samples;
+	private final List<ISample> orderedSamples;
+	/** column of each sample, and of each sample name */
+	private final SampleIndex index;
+	private final Set<DataSource> usedDatasources = new HashSet<DataSource>();
+
+	private int nrRows;
+	private int[] groups;
+	private Xref[] refs;
+	private Map<Xref, int[]> rowsByRef;
+
+	/** numeric values, indexed by [column][row]. NaN for non-numeric cells */
+	private double[][] values;
+	/** per column null if all cells are numeric, otherwise a dictionary code per row */
+	private int[][] codes;
+	private String[] dictionary;
+
+	/**
+	 * Load all data from the given source. The source is not closed,
+	 * and is not used anymore after the constructor returns.
+	 */
+	public ColumnarGex(DataInterface source) throws DataException
+	{
+		dbName = source.getDbName();
+		samples = new HashMap<Integer, ISample>(source.getSamples());
+		index = new SampleIndex(source.getOrderedSamples());
+		orderedSamples = index.getSamples();
+		load(source);
+	}
+
+	private void load(DataInterface source) throws DataException
+	{
+		int nrCols = orderedSamples.size();
+		int capacity = 1024;
+		groups = new int[capacity];
+		refs = new Xref[capacity];
+		values = new double[nrCols][capacity];
+		codes = new int[nrCols][];
+
+		Map<String, Integer> dict = new HashMap<String, Integer>();
+		Map<Xref, Xref> uniqueRefs = new HashMap<Xref, Xref>();
+		boolean sorted = true;
+
+		for (IRow row : source.getIterator())
+		{
+			if (nrRows == capacity)
+			{
+				capacity *= 2;
+				groups = Arrays.copyOf(groups, capacity);
+				refs = Arrays.copyOf(refs, capacity);
+				for (int col = 0; col < nrCols; ++col)
+				{
+					values[col] = Arrays.copyOf(values[col], capacity);
+					if (codes[col] != null) codes[col] = Arrays.copyOf(codes[col], capacity);
+				}
+			}
+
+			groups[nrRows] = row.getGroup();
+			if (nrRows > 0 && groups[nrRows] < groups[nrRows - 1]) sorted = false;
+
+			// share Xref instances between rows of the same reporter
+			Xref ref = row.getXref();
+			Xref unique = uniqueRefs.get(ref);
+			if (unique == null && ref != null)
+			{
+				uniqueRefs.put(ref, ref);
+				unique = ref;
+				if (ref.getDataSource() != null) usedDatasources.add(ref.getDataSource());
+			}
+			refs[nrRows] = unique;
+
+			for (int col = 0; col < nrCols; ++col)
+			{
+				Object o = row.getSampleData(orderedSamples.get(col));
+				if (o instanceof Number)
+				{
+					values[col][nrRows] = ((Number)o).doubleValue();
+					if (codes[col] != null) codes[col][nrRows] = CODE_NUMBER;
+				}
+				else
+				{
+					values[col][nrRows] = Double.NaN;
+					if (codes[col] == null)
+					{
+						codes[col] = new int[capacity];
+						Arrays.fill(codes[col], 0, nrRows, CODE_NUMBER);
+					}
+					if (o == null)
+					{
+						codes[col][nrRows] = CODE_MISSING;
+					}
+					else
+					{
+						String s = o.toString();
+						Integer code = dict.get(s);
+						if (code == null)
+						{
+							code = dict.size();
+							dict.put(s, code);
+						}
+						codes[col][nrRows] = code;
+					}
+				}
+			}
+			nrRows++;
+		}
+
+		// trim to size
+		groups = Arrays.copyOf(groups, nrRows);
+		refs = Arrays.copyOf(refs, nrRows);
+		for (int col = 0; col < nrCols; ++col)
+		{
+			values[col] = Arrays.copyOf(values[col], nrRows);
+			if (codes[col] != null) codes[col] = Arrays.copyOf(codes[col], nrRows);
+		}
+		dictionary = new String[dict.size()];
+		for (Map.Entry<String, Integer> e : dict.entrySet())
+		{
+			dictionary[e.getValue()] = e.getKey();
+		}
+
+		// row order must follow group order, so we can binary search on group.
+		if (!sorted) sortByGroup();
+
+		// index rows by Xref
+		Map<Xref, List<Integer>> byRef = new HashMap<Xref, List<Integer>>();
+		for (int row = 0; row < nrRows; ++row)
+		{
+			if (refs[row] == null) continue;
+			List<Integer> list = byRef.get(refs[row]);
+			if (list == null)
+			{
+				list = new ArrayList<Integer>(1);
+				byRef.put(refs[row], list);
+			}
+			list.add(row);
+		}
+		rowsByRef = new HashMap<Xref, int[]>();
+		for (Map.Entry<Xref, List<Integer>> e : byRef.entrySet())
+		{
+			int[] rows = new int[e.getValue().size()];
+			for (int i = 0; i < rows.length; ++i) rows[i] = e.getValue().get(i);
+			rowsByRef.put(e.getKey(), rows);
+		}
+	}
+
+	private void sortByGroup()
+	{
+		Integer[] order = new Integer[nrRows];
+		for (int i = 0; i < nrRows; ++i) order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			public int compare(Integer a, Integer b)
+			{
+				return groups[a] < groups[b] ? -1 : (groups[a] == groups[b] ? 0 : 1);
+			}
+		});
+
+		int[] newGroups = new int[nrRows];
+		Xref[] newRefs = new Xref[nrRows];
+		for (int i = 0; i < nrRows; ++i)
+		{
+			newGroups[i] = groups[order[i]];
+			newRefs[i] = refs[order[i]];
+		}
+		groups = newGroups;
+		refs = newRefs;
+		for (int col = 0; col < values.length; ++col)
+		{
+			double[] v = new double[nrRows];
+			for (int i = 0; i < nrRows; ++i) v[i] = values[col][order[i]];
+			values[col] = v;
+			if (codes[col] != null)
+			{
+				int[] c = new int[nrRows];
+				for (int i = 0; i < nrRows; ++i) c[i] = codes[col][order[i]];
+				codes[col] = c;
+			}
+		}
+	}
+
+	/**
+	 * Value of a single cell, as Double or String, or null if the cell is missing.
+	 */
+	private Object getCell(int row, int col)
+	{
+		int[] c = codes[col];
+		if (c == null || c[row] == CODE_NUMBER) return values[col][row];
+		if (c[row] == CODE_MISSING) return null;
+		return dictionary[c[row]];
+	}
+
+	/**
+	 * A row in this dataset. Only holds the row index, data is read from the columns.
+	 */
+	private class ColumnarRow implements IRow
+	{
+		private final int row;
+
+		ColumnarRow(int row)
+		{
+			this.row = row;
+		}
+
+		@Override
+		public Xref getXref()
+		{
+			return refs[row];
+		}
+
+		@Override
+		public Object getSampleData(ISample s)
+		{
+			int col = index.indexOf(s);
+			return col < 0 ? null : getCell(row, col);
+		}
+
+		/**
+		 * A view on the columns, names are looked up in the index shared by all rows.
+		 */
+		@Override
+		public Map<String, Object> getByName()
+		{
+			return new ByNameView(index)
+			{
+				@Override
+				Object getCell(int col)
+				{
+					return ColumnarGex.this.getCell(row, col);
+				}
+			};
+		}
+
+		@Override
+		public Collection<? extends ISample> getSamples()
+		{
+			return orderedSamples;
+		}
+
+		@Override
+		public int getGroup()
+		{
+			return groups[row];
+		}
+
+		@Override
+		public int compareTo(IRow o)
+		{
+			if (o == null) return 1;
+			return getGroup() - o.getGroup();
+		}
+	}
+
+	@Override
+	public ISample getSample(int id) throws DataException
+	{
+		return samples.get(id);
+	}
+
+	@Override
+	public ISample findSample(String name) throws DataException
+	{
+		for (ISample s : orderedSamples)
+		{
+			if (s.getName().equals(name)) return s;
+		}
+		return null;
+	}
+
+	@Override
+	public List<String> getSampleNames() throws DataException
+	{
+		return getSampleNames(-1);
+	}
+
+	@Override
+	public List<String> getSampleNames(int dataType) throws DataException
+	{
+		List<String> names = new ArrayList<String>();
+		for (ISample s : orderedSamples)
+		{
+			if (dataType == s.getDataType() || dataType == -1)
+				names.add(s.getName());
+		}
+		return names;
+	}
+
+	@Override
+	public List<? extends ISample> getOrderedSamples() throws DataException
+	{
+		return orderedSamples;
+	}
+
+	@Override
+	public Set<DataSource> getUsedDatasources() throws DataException
+	{
+		return usedDatasources;
+	}
+
+	/** @deprecated use getIterator() instead */
+	@Override
+	public IRow getRow(int rowId) throws DataException
+	{
+		int row = Arrays.binarySearch(groups, rowId);
+		return row < 0 ? null : new ColumnarRow(row);
+	}
+
+	/** @deprecated use getIterator() instead */
+	@Override
+	public int getNrRow() throws DataException
+	{
+		return nrRows == 0 ? 0 : groups[nrRows - 1] + 1;
+	}
+
+	@Override
+	public Map<Integer, ? extends ISample> getSamples() throws DataException
+	{
+		return samples;
+	}
+
+	@Override
+	public Collection<? extends IRow> getData(Set<Xref> destRefs) throws DataException
+	{
+		List<IRow> result = new ArrayList<IRow>();
+		for (Xref ref : destRefs)
+		{
+			int[] rows = rowsByRef.get(ref);
+			if (rows == null) continue;
+			for (int row : rows) result.add(new ColumnarRow(row));
+		}
+		return result;
+	}
+
+	@Override
+	public Iterable<IRow> getIterator() throws DataException
+	{
+		return new Iterable<IRow>()
+		{
+			@Override
+			public Iterator<IRow> iterator()
+			{
+				return new Iterator<IRow>()
+				{
+					private int row = 0;
+
+					@Override
+					public boolean hasNext()
+					{
+						return row < nrRows;
+					}
+
+					@Override
+					public IRow next()
+					{
+						if (!hasNext()) throw new NoSuchElementException();
+						return new ColumnarRow(row++);
+					}
+
+					@Override
+					public void remove()
+					{
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public boolean isConnected()
+	{
+		return values != null;
+	}
+
+	@Override
+	public String getDbName()
+	{
+		return dbName;
+	}
+
+	/**
+	 * Releases the in-memory data.
+	 */
+	@Override
+	public void close() throws DataException
+	{
+		values = null;
+		codes = null;
+		dictionary = null;
+		rowsByRef = null;
+		refs = null;
+		groups = null;
+		nrRows = 0;
+	}
+}
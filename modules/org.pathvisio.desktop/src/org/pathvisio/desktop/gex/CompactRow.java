@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.desktop.gex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.bridgedb.Xref;
+import org.pathvisio.data.IRow;
+import org.pathvisio.data.ISample;
+
+/**
+ * A row of expression data, stored in arrays indexed by the column of the sample.
+ * <p>
+ * Numbers are kept as primitive doubles, text is only stored for the cells that
+ * contain text. The mapping from sample to column is shared by all rows of a dataset,
+ * see {@link SampleIndex}. Values are the same as those of {@link ReporterData}:
+ * a {@link Double} for cells that can be parsed as a number, a {@link String} otherwise.
+ * <p>
+ * Setters are package private, external classes are not supposed to modify this data.
+ */
+public class CompactRow implements IRow
+{
+	private static final byte MISSING = 0;
+	private static final byte NUMBER = 1;
+	private static final byte TEXT = 2;
+
+	private Xref ref;
+	private final int group;
+	private final SampleIndex index;
+
+	private final byte[] kinds;
+	/** value of each numeric cell, NaN for other cells */
+	private final double[] values;
+	/** only created when the first text cell is set */
+	private String[] text = null;
+	private int nrPresent = 0;
+
+	/** created on first use of {@link #getByName} */
+	private Map<String, Object> byName = null;
+
+	/**
+	 * @param ref the reporter of this row
+	 * @param groupId distinguishes rows with the same reporter, see {@link #getGroup}
+	 * @param index the columns of the dataset this row belongs to
+	 */
+	public CompactRow(Xref ref, int groupId, SampleIndex index)
+	{
+		this.ref = ref;
+		this.group = groupId;
+		this.index = index;
+		kinds = new byte[index.size()];
+		values = new double[index.size()];
+		Arrays.fill(values, Double.NaN);
+	}
+
+	/** set the xref (reporter) for this row. */
+	void setXref(Xref value) { ref = value; }
+
+	public Xref getXref() { return ref; }
+
+	public int getGroup() { return group; }
+
+	/**
+	 * Set the data for the given sample. Data is stored as a number if it can be parsed
+	 * the same way as {@link Double#parseDouble}, and as text otherwise.
+	 * Samples that are not part of the index of this row are ignored.
+	 */
+	void setSampleData(ISample sample, String data)
+	{
+		int col = index.indexOf(sample);
+		if (col >= 0) setSampleData(col, data);
+	}
+
+	void setSampleData(int col, String data)
+	{
+		if (kinds[col] == MISSING) nrPresent++;
+		if (isNumber(data))
+		{
+			kinds[col] = NUMBER;
+			values[col] = Double.parseDouble(data);
+			if (text != null) text[col] = null;
+		}
+		else if (data != null)
+		{
+			kinds[col] = TEXT;
+			values[col] = Double.NaN;
+			if (text == null) text = new String[kinds.length];
+			text[col] = data;
+		}
+		else
+		{
+			// null is the same as a missing cell
+			nrPresent--;
+			kinds[col] = MISSING;
+			values[col] = Double.NaN;
+		}
+	}
+
+	/**
+	 * Numeric value of a cell, without creating a {@link Double}.
+	 * @return the value, or NaN if the cell is missing or contains text
+	 */
+	public double getValue(ISample s)
+	{
+		int col = index.indexOf(s);
+		return col < 0 ? Double.NaN : values[col];
+	}
+
+	public Object getSampleData(ISample s)
+	{
+		int col = index.indexOf(s);
+		return col < 0 ? null : getCell(col);
+	}
+
+	private Object getCell(int col)
+	{
+		switch (kinds[col])
+		{
+		case NUMBER:
+			return values[col];
+		case TEXT:
+			return text[col];
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a read-only view of the data mapped to sample name.
+	 * The view is created once per row and looks names up in the shared {@link SampleIndex},
+	 * so calling this for every row doesn't copy any data.
+	 */
+	public Map<String, Object> getByName()
+	{
+		if (byName == null)
+		{
+			byName = new ByNameView(index)
+			{
+				@Override
+				Object getCell(int col)
+				{
+					return CompactRow.this.getCell(col);
+				}
+			};
+		}
+		return byName;
+	}
+
+	/** the samples that have a value in this row */
+	public Collection<? extends ISample> getSamples()
+	{
+		if (nrPresent == kinds.length) return index.getSamples();
+		List<ISample> result = new ArrayList<ISample>(nrPresent);
+		for (int col = 0; col < kinds.length; ++col)
+		{
+			if (kinds[col] != MISSING) result.add(index.getSample(col));
+		}
+		return result;
+	}
+
+	public int compareTo(IRow o)
+	{
+		if (o == null) return 1;
+		return group - o.getGroup();
+	}
+
+	/**
+	 * Checks if a string can be parsed by {@link Double#parseDouble}, without
+	 * throwing and catching an exception for each string that can't.
+	 * Accepts the same decimal syntax, including NaN, Infinity and a trailing type suffix.
+	 * Only hexadecimal notation is left to parseDouble itself.
+	 */
+	static boolean isNumber(String s)
+	{
+		if (s == null) return false;
+		String t = s.trim();
+		int n = t.length();
+		int i = 0;
+		if (i < n && (t.charAt(i) == '+' || t.charAt(i) == '-')) i++;
+		if (t.startsWith("NaN", i)) return i + 3 == n;
+		if (t.startsWith("Infinity", i)) return i + 8 == n;
+
+		int digits = 0;
+		while (i < n && isDigit(t.charAt(i))) { i++; digits++; }
+		if (i < n && t.charAt(i) == '.')
+		{
+			i++;
+			while (i < n && isDigit(t.charAt(i))) { i++; digits++; }
+		}
+		if (digits > 0 && i < n && (t.charAt(i) == 'e' || t.charAt(i) == 'E'))
+		{
+			i++;
+			if (i < n && (t.charAt(i) == '+' || t.charAt(i) == '-')) i++;
+			int expDigits = 0;
+			while (i < n && isDigit(t.charAt(i))) { i++; expDigits++; }
+			if (expDigits == 0) return false;
+		}
+		if (digits > 0 && i < n && "fFdD".indexOf(t.charAt(i)) >= 0) i++;
+		if (digits > 0 && i == n) return true;
+
+		// rare: hexadecimal floating point, e.g. 0x1.8p1
+		if (t.indexOf('x') < 0 && t.indexOf('X') < 0) return false;
+		try
+		{
+			Double.parseDouble(t);
+			return true;
+		}
+		catch (NumberFormatException e)
+		{
+			return false;
+		}
+	}
+
+	private static boolean isDigit(char c)
+	{
+		return c >= '0' && c <= '9';
+	}
+}
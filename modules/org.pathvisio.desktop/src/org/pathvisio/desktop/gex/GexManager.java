@@ -45,6 +45,9 @@
 	private CachedData cachedData = null;
 	public CachedData getCachedData() { return cachedData; }
 
+	/** id mapping results, shared between datasets */
+	private IdMappingCache mappingCache = null;
+
 	/**
 	 * Returns true if the current gex is initialized
 	 * (non-null), and if it is connected.
@@ -69,10 +72,21 @@ public void setCurrentGex (DataInterface gex)
 	{
 		close(); // close old gex.
 		currentGex = gex;
-		cachedData = new CachedData(gex);
+		if (mappingCache == null)
+		{
+			mappingCache = new IdMappingCache(getCacheSize(GlobalPreference.GEX_CACHE_MAPPINGS));
+		}
+		cachedData = new CachedData(gex, getCacheSize(GlobalPreference.GEX_CACHE_ROWS), mappingCache);
 		fireExpressionDataEvent(new GexManagerEvent(gex, GexManagerEvent.CONNECTION_OPENED));
 	}
 
+	/** read a cache size from the preferences, or use the default if there are no preferences (e.g. in tests) */
+	private static int getCacheSize(GlobalPreference p)
+	{
+		PreferenceManager prefs = PreferenceManager.getCurrent();
+		return prefs == null ? Integer.parseInt(p.getDefault()) : prefs.getInt(p);
+	}
+
 	/**
 	 * Create or connect to a new Gex based on the dbName.
 	 * Uses a DBConnector obtained from the preferences.
@@ -81,6 +95,22 @@ public void setCurrentGex (DataInterface gex)
 	 * @param create true if you want to create / overwrite a database
 	 */
 	public void setCurrentGex (String dbName, boolean create) throws DataException
+	{
+		setCurrentGex (dbName, create,
+				PreferenceManager.getCurrent().getBoolean(GlobalPreference.GEX_IN_MEMORY));
+	}
+
+	/**
+	 * Create or connect to a new Gex based on the dbName.
+	 * Uses a DBConnector obtained from the preferences.
+	 *
+	 * @param dbName name of the database (usually file or directory name)
+	 * @param create true if you want to create / overwrite a database
+	 * @param inMemory if true, an existing database is loaded completely into
+	 * 	a {@link ColumnarGex}, and the database connection is closed again.
+	 * 	Ignored when creating a new database.
+	 */
+	public void setCurrentGex (String dbName, boolean create, boolean inMemory) throws DataException
 	{
 		DBConnector connector;
 		try
@@ -100,7 +130,23 @@ public void setCurrentGex (String dbName, boolean create) throws DataException
 			throw new DataException (e);
 		}
 		SimpleGex gex = new SimpleGex (dbName, create, connector);
-		setCurrentGex (gex);
+		if (inMemory && !create)
+		{
+			ColumnarGex memGex;
+			try
+			{
+				memGex = new ColumnarGex (gex);
+			}
+			finally
+			{
+				gex.close();
+			}
+			setCurrentGex (memGex);
+		}
+		else
+		{
+			setCurrentGex (gex);
+		}
 	}
 
 	public DBConnector getDBConnector() throws
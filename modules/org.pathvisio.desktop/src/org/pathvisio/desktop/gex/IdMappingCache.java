@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.desktop.gex;
+
+import java.util.Set;
+
+import org.bridgedb.IDMapper;
+import org.bridgedb.Xref;
+
+/**
+ * Results of {@link IDMapper#mapID}, for the mapper they were obtained from.
+ * <p>
+ * ID mapping doesn't depend on the expression dataset, so a single
+ * instance is shared by all {@link CachedData} objects of a {@link GexManager},
+ * and the results survive when another dataset is opened.
+ */
+public class IdMappingCache extends LruCache<Xref, Set<Xref>>
+{
+	private IDMapper mapper = null;
+
+	/**
+	 * @param maxSize maximum number of source Xrefs to keep the results for
+	 */
+	public IdMappingCache(long maxSize)
+	{
+		super(maxSize);
+	}
+
+	/**
+	 * Set the mapper that the cached results belong to.
+	 * Clears the cache if it's a different mapper.
+	 */
+	public synchronized void setMapper(IDMapper value)
+	{
+		if (mapper != value)
+		{
+			mapper = value;
+			clear();
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.desktop.gex;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded map that evicts the least recently used entries first.
+ * <p>
+ * Each entry has a weight, see {@link #weigh}. When the total weight exceeds
+ * the maximum, entries are evicted until it fits again. The most recently
+ * added entry is never evicted, even if it is heavier than the maximum on its own.
+ * <p>
+ * Keeps counters of hits, misses and evictions, so the maximum can be tuned.
+ * All methods are synchronized, the cache is shared between the event dispatch thread
+ * and the worker thread of {@link CachedData}.
+ */
+public class LruCache<K, V>
+{
+	/** entries in insertion order, a lookup moves the entry to the end */
+	private final LinkedHashMap<K, V> map = new LinkedHashMap<K, V>();
+	private long maxWeight;
+	private long weight = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * @param maxWeight maximum total weight of the entries
+	 */
+	public LruCache(long maxWeight)
+	{
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * Weight of a single entry. Every entry weighs 1 by default,
+	 * so the maximum weight is the maximum number of entries.
+	 */
+	protected int weigh(V value)
+	{
+		return 1;
+	}
+
+	/**
+	 * Look up a value, and mark it as recently used.
+	 * Counts as a hit or a miss.
+	 * @return the value, or null if it's not in the cache
+	 */
+	public synchronized V get(K key)
+	{
+		V result = map.remove(key);
+		if (result == null)
+		{
+			misses++;
+			return null;
+		}
+		hits++;
+		map.put(key, result);
+		return result;
+	}
+
+	/**
+	 * Look up a value without counting it as a hit or miss,
+	 * and without changing the eviction order.
+	 */
+	public synchronized V peek(K key)
+	{
+		return map.get(key);
+	}
+
+	public synchronized boolean containsKey(K key)
+	{
+		return map.containsKey(key);
+	}
+
+	/**
+	 * Add or replace a value, evicting old entries if the cache gets too heavy.
+	 */
+	public synchronized void put(K key, V value)
+	{
+		V old = map.remove(key);
+		if (old != null) weight -= weigh(old);
+		map.put(key, value);
+		weight += weigh(value);
+		evict();
+	}
+
+	private void evict()
+	{
+		Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+		while (weight > maxWeight && map.size() > 1)
+		{
+			Map.Entry<K, V> eldest = it.next();
+			weight -= weigh(eldest.getValue());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized void clear()
+	{
+		map.clear();
+		weight = 0;
+	}
+
+	/**
+	 * Change the maximum weight, evicting entries if necessary.
+	 */
+	public synchronized void setMaxWeight(long value)
+	{
+		maxWeight = value;
+		evict();
+	}
+
+	public synchronized long getMaxWeight() { return maxWeight; }
+
+	/** total weight of the entries that are currently in the cache */
+	public synchronized long getWeight() { return weight; }
+
+	/** number of entries that are currently in the cache */
+	public synchronized int size() { return map.size(); }
+
+	public synchronized long getHits() { return hits; }
+
+	public synchronized long getMisses() { return misses; }
+
+	public synchronized long getEvictions() { return evictions; }
+
+	/** fraction of lookups that were a hit, or 0 if there were no lookups at all */
+	public synchronized double getHitRate()
+	{
+		long total = hits + misses;
+		return total == 0 ? 0 : (double)hits / (double)total;
+	}
+
+	public synchronized void resetStats()
+	{
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return String.format("%d entries, weight %d of %d, %d hits, %d misses (%.1f%%), %d evictions",
+				map.size(), weight, maxWeight, hits, misses, getHitRate() * 100, evictions);
+	}
+}
@@ -113,9 +113,7 @@ public Object getSampleData(ISample key)
 	 * @see SimpleGex#cacheData
 	 */
 	public void setSampleData(ISample sample, String data) {
-		Object parsedData = null;
-		try { parsedData = Double.parseDouble(data); }
-		catch(Exception e) { parsedData = data; }
+		Object parsedData = CompactRow.isNumber(data) ? (Object)Double.parseDouble(data) : data;
 		sampleData.put(sample, parsedData);
 	}
 
@@ -160,13 +158,12 @@ private static Object averageDouble(List<? extends IRow> dlist, ISample s)
 		double avg = 0;
 		int n = 0;
 		for(IRow d : dlist) {
-			try {
-				Double value = (Double)d.getSampleData(s);
-				if( !value.isNaN() ) {
-					avg += value;
-					n++;
-				}
-			} catch(Exception e) { }
+			// missing cells and text are skipped
+			Object value = d.getSampleData(s);
+			if(value instanceof Double && !((Double)value).isNaN()) {
+				avg += (Double)value;
+				n++;
+			}
 		}
 		if(n > 0) {
 			return avg / n;
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.desktop.gex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pathvisio.data.ISample;
+
+/**
+ * Maps the samples of a dataset, and their names, to a column index.
+ * A single instance is shared by all {@link CompactRow}s of a dataset.
+ * <p>
+ * Instances are immutable and can be used from multiple threads.
+ */
+public class SampleIndex
+{
+	private final List<ISample> samples;
+	private final Map<ISample, Integer> bySample = new HashMap<ISample, Integer>();
+	private final Map<String, Integer> byName = new HashMap<String, Integer>();
+
+	/**
+	 * @param orderedSamples samples in column order, usually {@link SimpleGex#getOrderedSamples}
+	 */
+	public SampleIndex(List<? extends ISample> orderedSamples)
+	{
+		samples = Collections.unmodifiableList(new ArrayList<ISample>(orderedSamples));
+		for (int i = 0; i < samples.size(); ++i)
+		{
+			bySample.put(samples.get(i), i);
+			// if names are not unique, the last sample with that name wins
+			byName.put(samples.get(i).getName(), i);
+		}
+	}
+
+	/** number of samples */
+	public int size()
+	{
+		return samples.size();
+	}
+
+	public ISample getSample(int col)
+	{
+		return samples.get(col);
+	}
+
+	/** all samples in column order */
+	public List<ISample> getSamples()
+	{
+		return samples;
+	}
+
+	/** @return column of a sample, or -1 if it's not part of this index */
+	public int indexOf(ISample s)
+	{
+		Integer col = bySample.get(s);
+		return col == null ? -1 : col;
+	}
+
+	/** @return column of the sample with the given name, or -1 if there is no such sample */
+	public int indexOf(String name)
+	{
+		Integer col = byName.get(name);
+		return col == null ? -1 : col;
+	}
+}
@@ -16,6 +16,17 @@
  ******************************************************************************/
 package org.pathvisio.desktop.gex;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.BatchUpdateException;
+import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -37,6 +48,7 @@
 import org.bridgedb.Xref;
 import org.bridgedb.rdb.construct.DBConnector;
 import org.pathvisio.core.debug.Logger;
+import org.pathvisio.core.debug.StopWatch;
 import org.pathvisio.data.DataException;
 import org.pathvisio.data.DataInterface;
 import org.pathvisio.data.IRow;
@@ -67,10 +79,14 @@ public class SimpleGex implements DataInterface
 {
 	private static final int GEX_COMPAT_VERSION = 2; //Preferred schema version
 	private static final int SAMPLE_NAME_LEN = 50; // max length of sample names
+	private static final int EXPR_COLUMN_LEN = 50; // max length of id, code and data of expression rows
 
 	private Connection con;
 	private DBConnector dbConnector;
-	private int commitCount = 0;
+	/** expression rows added to the batch but not executed yet, in the same order as the batch */
+	private List<ExprRow> pendingExpr = new ArrayList<ExprRow>();
+	/** number of expression rows that are inserted with a single batch */
+	private static final int EXPR_BATCH_SIZE = 1000;
 
 	private static CachedData cachedData;
 
@@ -103,7 +119,62 @@ public class SimpleGex implements DataInterface
 	PreparedStatement pstSample = null;
 	PreparedStatement pstExpr = null;
 
+	/** a row of the expression table */
+	private static class ExprRow
+	{
+		final Xref ref;
+		final String idSample;
+		final String value;
+		final int group;
+
+		ExprRow(Xref ref, String idSample, String value, int group)
+		{
+			this.ref = ref;
+			this.idSample = idSample;
+			this.value = value;
+			this.group = group;
+		}
+	}
+
+	/**
+	 * Receives the expression rows that could not be inserted.
+	 * Rows are inserted in batches, so this may happen some time after {@link SimpleGex#addExpr} returned.
+	 */
+	public interface ExprErrorListener
+	{
+		public void exprFailed(Xref ref, String idSample, String value, int group, SQLException ex);
+	}
+
+	private ExprErrorListener exprErrorListener = null;
+
+	/**
+	 * Set the listener for expression rows that could not be inserted.
+	 * Without a listener, the first failure of a batch is thrown after the
+	 * other rows of that batch have been inserted.
+	 */
+	public void setExprErrorListener(ExprErrorListener l)
+	{
+		exprErrorListener = l;
+	}
+
+	/** in bulk load mode, expression rows are written to this file, and imported by commit() or finalize() */
+	private File bulkFile = null;
+	private Writer bulkWriter = null;
+
 	public void prepare() throws SQLException
+	{
+		prepare(false);
+	}
+
+	/**
+	 * Prepare for adding samples and expression data.
+	 * @param bulkLoad if true, expression rows are collected in a temporary file and loaded into the
+	 * 	database at once when calling {@link #commit()} or {@link #finalize()}. This uses the bulk import
+	 * 	of Derby, which does minimal logging when loading into an empty table. If the import fails,
+	 * 	the rows are inserted in batches instead, so the rows that fail can be reported.
+	 * 	Ignored if the database is not Derby, in that case rows are inserted in batches as usual.
+	 */
+	public void prepare(boolean bulkLoad) throws SQLException
 	{
 		pstSample = con.prepareStatement(
 				" INSERT INTO SAMPLES " +
@@ -114,9 +185,22 @@ public void prepare() throws SQLException
 				"	(id, code,      			" +
 				"	 idSample, data, groupId)	" +
 		"VALUES	(?, ?, ?, ?, ?)			");
+		if (bulkLoad && con.getMetaData().getDatabaseProductName().startsWith("Apache Derby"))
+		{
+			try
+			{
+				bulkFile = File.createTempFile("pathvisio-gex", ".csv");
+				bulkWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(bulkFile), "UTF-8"));
+			}
+			catch (IOException ex)
+			{
+				Logger.log.warn("Could not create file for bulk load, inserting rows instead", ex);
+				if (bulkFile != null) bulkFile.delete();
+				bulkFile = null;
+			}
+		}
 	}
 
-
 	/**
 	 * add a Sample to the db.
 	 * Must call preprare() before.
@@ -135,24 +219,259 @@ public void addSample(int sampleId, String value, int type) throws SQLException
 
 	/**
 	 * Add an expression row to the db. Must call prepare() before.
+	 * <p>
+	 * Rows are inserted in batches, so a row may fail after this method has returned.
+	 * Such rows are passed to the {@link ExprErrorListener}.
+	 * Pending rows are written by {@link #commit()} and {@link #finalize()}.
 	 */
 	public void addExpr(Xref ref, String idSample, String value, int group)
 		throws SQLException
 	{
 		assert (pstExpr != null);
-		pstExpr.setString(1, ref.getId());
-		pstExpr.setString(2, ref.getDataSource().getSystemCode());
-		pstExpr.setString(3, idSample);
+		// check what the database would reject, so that a bad row can't make a bulk import fail
+		if (ref.getId() == null || ref.getId().length() > EXPR_COLUMN_LEN)
+			throw new IllegalArgumentException ("Identifier must be set and can't be longer than " + EXPR_COLUMN_LEN + " chars");
+		String code = ref.getDataSource() == null ? null : ref.getDataSource().getSystemCode();
+		if (code != null && code.length() > EXPR_COLUMN_LEN)
+			throw new IllegalArgumentException ("System code can't be longer than " + EXPR_COLUMN_LEN + " chars");
+		int sample;
+		try
+		{
+			sample = Integer.parseInt(idSample);
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new IllegalArgumentException ("Sample id is not a number: " + idSample);
+		}
 		//TODO: this is a hack.
 		// Proper solution: ask user which columns contain data
 		// don't even try to import annotation and other stuff
 		// give an exception if a data value is longer than 50
 		String truncValue = value;
-		if (value.length() > 50) truncValue = value.substring(0, 50);
-		pstExpr.setString(4, truncValue);
-		pstExpr.setInt(5, group);
-		pstExpr.execute();
-		if (++commitCount % 1000 == 0) con.commit();
+		if (value.length() > EXPR_COLUMN_LEN) truncValue = value.substring(0, EXPR_COLUMN_LEN);
+		if (bulkWriter != null)
+		{
+			try
+			{
+				// a missing system code is left empty, which the import reads as null
+				bulkWriter.write(quote(ref.getId()) + "," + (code == null ? "" : quote(code)) + "," +
+						sample + "," + quote(truncValue) + "," + group + "\n");
+			}
+			catch (IOException ex)
+			{
+				throw new SQLException("Could not write to bulk load file", ex);
+			}
+			return;
+		}
+		addRow(new ExprRow(ref, idSample, truncValue, group));
+	}
+
+	/** add a row to the batch, and execute the batch when it is full */
+	private void addRow(ExprRow row) throws SQLException
+	{
+		addBatch(row);
+		pendingExpr.add(row);
+		if (pendingExpr.size() >= EXPR_BATCH_SIZE) flushExpr();
+	}
+
+	private void addBatch(ExprRow row) throws SQLException
+	{
+		pstExpr.setString(1, row.ref.getId());
+		pstExpr.setString(2, row.ref.getDataSource() == null ? null : row.ref.getDataSource().getSystemCode());
+		pstExpr.setString(3, row.idSample);
+		pstExpr.setString(4, row.value);
+		pstExpr.setInt(5, row.group);
+		pstExpr.addBatch();
+	}
+
+	/** quote a string value for the Derby import format */
+	private static String quote(String value)
+	{
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * Split a line of the bulk load file into its fields.
+	 * Quotes are removed, an empty unquoted field is returned as null.
+	 */
+	private static List<String> splitQuoted(String line)
+	{
+		List<String> result = new ArrayList<String>();
+		int pos = 0;
+		while (pos <= line.length())
+		{
+			if (pos < line.length() && line.charAt(pos) == '"')
+			{
+				StringBuilder field = new StringBuilder();
+				pos++;
+				while (pos < line.length())
+				{
+					char c = line.charAt(pos++);
+					if (c != '"') field.append(c);
+					else if (pos < line.length() && line.charAt(pos) == '"') field.append(line.charAt(pos++));
+					else break;
+				}
+				result.add(field.toString());
+				pos++; // skip separator
+			}
+			else
+			{
+				int end = line.indexOf(',', pos);
+				if (end < 0) end = line.length();
+				result.add(end == pos ? null : line.substring(pos, end));
+				pos = end + 1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Load the rows collected in bulk load mode into the expression table.
+	 * If the bulk import fails, the rows are inserted in batches instead.
+	 */
+	private void bulkLoad() throws SQLException
+	{
+		if (bulkFile == null) return;
+		try
+		{
+			try
+			{
+				bulkWriter.close();
+			}
+			catch (IOException ex)
+			{
+				throw new SQLException("Could not write to bulk load file", ex);
+			}
+			try
+			{
+				// replace mode, so Derby can load the empty table without logging each row
+				CallableStatement cs = con.prepareCall(
+						"CALL SYSCS_UTIL.SYSCS_IMPORT_TABLE (null, 'EXPRESSION', ?, ',', '\"', 'UTF-8', 1)");
+				cs.setString(1, bulkFile.getAbsolutePath());
+				cs.execute();
+				cs.close();
+				con.commit();
+			}
+			catch (SQLException ex)
+			{
+				Logger.log.warn("Bulk import of expression data failed, inserting rows one batch at a time", ex);
+				con.rollback();
+				insertFromFile(bulkFile);
+			}
+		}
+		finally
+		{
+			bulkFile.delete();
+			bulkFile = null;
+			bulkWriter = null;
+		}
+	}
+
+	/**
+	 * Insert the rows of a bulk load file in batches, so rows that fail
+	 * are reported one by one.
+	 */
+	private void insertFromFile(File f) throws SQLException
+	{
+		BufferedReader in = null;
+		try
+		{
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				List<String> fields = splitQuoted(line);
+				DataSource ds = fields.get(1) == null ? null : DataSource.getExistingBySystemCode(fields.get(1));
+				addRow(new ExprRow(new Xref(fields.get(0), ds), fields.get(2),
+						fields.get(3), Integer.parseInt(fields.get(4))));
+			}
+			flushExpr();
+		}
+		catch (IOException ex)
+		{
+			throw new SQLException("Could not read bulk load file", ex);
+		}
+		finally
+		{
+			if (in != null) try { in.close(); } catch (IOException ex) { /* ignore */ }
+		}
+	}
+
+	/**
+	 * Execute the pending batch of expression rows, and commit.
+	 * <p>
+	 * If a row fails, it is reported and the rows after it are submitted again,
+	 * so a single bad row doesn't cause the rest of the batch to be lost.
+	 */
+	private void flushExpr() throws SQLException
+	{
+		SQLException firstFailure = null;
+		try
+		{
+			int start = 0;
+			while (start < pendingExpr.size())
+			{
+				try
+				{
+					pstExpr.executeBatch();
+					start = pendingExpr.size();
+				}
+				catch (BatchUpdateException ex)
+				{
+					int[] counts = ex.getUpdateCounts();
+					pstExpr.clearBatch();
+					if (counts != null && counts.length == pendingExpr.size() - start)
+					{
+						// the driver went on after the failure, only the failed rows are missing
+						for (int i = 0; i < counts.length; ++i)
+						{
+							if (counts[i] == Statement.EXECUTE_FAILED)
+							{
+								firstFailure = exprFailed(pendingExpr.get(start + i), ex, firstFailure);
+							}
+						}
+						start = pendingExpr.size();
+					}
+					else
+					{
+						// the driver stopped at the failed row, the rows before it were inserted
+						int failed = start + (counts == null ? 0 : counts.length);
+						firstFailure = exprFailed(pendingExpr.get(failed), ex, firstFailure);
+						start = failed + 1;
+						for (int i = start; i < pendingExpr.size(); ++i)
+						{
+							addBatch(pendingExpr.get(i));
+						}
+					}
+				}
+			}
+		}
+		finally
+		{
+			pendingExpr.clear();
+			pstExpr.clearBatch();
+		}
+		con.commit();
+		if (firstFailure != null) throw firstFailure;
+	}
+
+	/**
+	 * Report a row that could not be inserted to the listener.
+	 * @return the failure to throw at the end of the batch, if there is no listener.
+	 */
+	private SQLException exprFailed(ExprRow row, BatchUpdateException ex, SQLException firstFailure)
+	{
+		// the batch exception only says which statement failed, the next exception says why
+		SQLException cause = ex.getNextException() == null ? ex : ex.getNextException();
+		SQLException rowEx = new SQLException("Could not insert " + row.ref + ", sample " + row.idSample +
+				", value '" + row.value + "': " + cause.getMessage(), cause.getSQLState(), cause);
+		Logger.log.warn(rowEx.getMessage());
+		if (exprErrorListener != null)
+		{
+			exprErrorListener.exprFailed(row.ref, row.idSample, row.value, row.group, rowEx);
+			return firstFailure;
+		}
+		return firstFailure == null ? rowEx : firstFailure;
 	}
 
 	public ISample getSample(int id) throws DataException
@@ -214,6 +533,21 @@ public List<? extends ISample> getOrderedSamples() throws DataException
 		return samples;
 	}
 
+	private SampleIndex sampleIndex = null;
+
+	/**
+	 * Columns of the rows returned by this dataset, shared by all rows.
+	 * Cached, like the samples themselves.
+	 */
+	public SampleIndex getSampleIndex() throws DataException
+	{
+		if (sampleIndex == null)
+		{
+			sampleIndex = new SampleIndex(getOrderedSamples());
+		}
+		return sampleIndex;
+	}
+
 	@Override
 	public List<String> getSampleNames() {
 		return getSampleNames(-1);
@@ -231,16 +565,26 @@ public List<String> getSampleNames(int dataType) {
 		return names;
 	}
 
-	PreparedStatement pst1 = null;
-	private PreparedStatement getPst1() throws SQLException
+	/**
+	 * Maximum number of ids in the IN-list of a single batched lookup.
+	 * Smaller batches are padded by repeating the last id, so that
+	 * only a single prepared statement is needed.
+	 */
+	private static final int BATCH_SIZE = 64;
+
+	PreparedStatement pstBatch = null;
+	private PreparedStatement getPstBatch() throws SQLException
 	{
-		if (pst1 == null)
+		if (pstBatch == null)
 		{
-			pst1 = con.prepareStatement(
-			"SELECT id, code, data, idSample, groupId FROM expression " +
-			" WHERE id = ? AND code = ?");
+			StringBuilder sql = new StringBuilder(
+				"SELECT id, code, data, idSample, groupId FROM expression " +
+				" WHERE code = ? AND id IN (?");
+			for (int i = 1; i < BATCH_SIZE; ++i) sql.append (", ?");
+			sql.append (")");
+			pstBatch = con.prepareStatement(sql.toString());
 		}
-		return pst1;
+		return pstBatch;
 	}
 
 	PreparedStatement pst2 = null;
@@ -276,32 +620,67 @@ public Set<DataSource> getUsedDatasources() throws DataException
 		}
 	}
 
+	/**
+	 * Get all data for the given set of Xrefs.
+	 * <p>
+	 * The Xrefs are grouped by system code and looked up in chunks of
+	 * at most BATCH_SIZE ids, so the number of queries depends on the number
+	 * of distinct data sources, not on the number of Xrefs.
+	 */
 	@Override
 	public Collection<? extends IRow> getData(Set<Xref> destRefs) throws DataException
 	{
+		// group the ids by system code, keeping the original Xref for each id
+		Map<String, Map<String, Xref>> byCode = new HashMap<String, Map<String, Xref>>();
+		for (Xref destRef : destRefs)
+		{
+			if (destRef.getId() == null || destRef.getDataSource() == null) continue;
+			String code = destRef.getDataSource().getSystemCode();
+			Map<String, Xref> ids = byCode.get(code);
+			if (ids == null)
+			{
+				ids = new HashMap<String, Xref>();
+				byCode.put (code, ids);
+			}
+			ids.put (destRef.getId(), destRef);
+		}
+
 		try
 		{
-			PreparedStatement pst = getPst1();
-			Map<Integer, ReporterData> groupData = new HashMap<Integer, ReporterData>();
+			PreparedStatement pst = getPstBatch();
+			Map<Integer, CompactRow> groupData = new HashMap<Integer, CompactRow>();
+			Map<Integer, ? extends ISample> samples = getSamples();
+			SampleIndex index = getSampleIndex();
 
-			for (Xref destRef : destRefs)
+			for (Map.Entry<String, Map<String, Xref>> entry : byCode.entrySet())
 			{
-				pst.setString(1, destRef.getId());
-				pst.setString(2, destRef.getDataSource().getSystemCode());
-				ResultSet r = pst.executeQuery();
-
-				//r contains all data mapping to the destref
-				//there could be multiple data items
-				while(r.next())
+				Map<String, Xref> ids = entry.getValue();
+				List<String> idList = new ArrayList<String>(ids.keySet());
+				for (int start = 0; start < idList.size(); start += BATCH_SIZE)
 				{
-					int group = r.getInt("groupId");
-					ReporterData data = groupData.get(group);
-					if(data == null) {
-						data = new ReporterData(destRef, group);
-						groupData.put(group, data);
+					int end = Math.min (start + BATCH_SIZE, idList.size());
+					pst.setString(1, entry.getKey());
+					for (int i = 0; i < BATCH_SIZE; ++i)
+					{
+						// pad a partial batch with the last id
+						pst.setString(i + 2, idList.get(Math.min (start + i, end - 1)));
 					}
-					int idSample = r.getInt("idSample");
-					data.setSampleData(samples.get(idSample), r.getString("data"));
+					ResultSet r = pst.executeQuery();
+
+					//r contains all data mapping to the ids in this batch
+					//there could be multiple data items per id
+					while(r.next())
+					{
+						int group = r.getInt("groupId");
+						CompactRow data = groupData.get(group);
+						if(data == null) {
+							data = new CompactRow(ids.get(r.getString("id")), group, index);
+							groupData.put(group, data);
+						}
+						int idSample = r.getInt("idSample");
+						data.setSampleData(samples.get(idSample), r.getString("data"));
+					}
+					r.close();
 				}
 			}
 			return groupData.values();
@@ -359,6 +738,13 @@ public SimpleGex(String dbName, boolean create, DBConnector connector) throws Da
 	 */
 	public void close() throws DataException
 	{
+		if (bulkFile != null)
+		{
+			try { bulkWriter.close(); } catch (IOException e) { Logger.log.warn("Could not close bulk load file", e); }
+			bulkFile.delete();
+			bulkFile = null;
+			bulkWriter = null;
+		}
 		if(con != null)
 		{
 			try
@@ -431,15 +817,15 @@ protected void createGexTables() throws IDMapperException
 			sh.execute(
 					"CREATE TABLE					" +
 					"		expression						" +
-					" (   id VARCHAR(50),					" +
-					"     code VARCHAR(50),					" +
+					" (   id VARCHAR(" + EXPR_COLUMN_LEN + "),					" +
+					"     code VARCHAR(" + EXPR_COLUMN_LEN + "),					" +
 					"     idSample INTEGER,					" +
-					"     data VARCHAR(50),					" +
+					"     data VARCHAR(" + EXPR_COLUMN_LEN + "),					" +
 					"	  groupId INTEGER 					" +
 	//				"     PRIMARY KEY (id, code, idSample, data)	" +
 			")										");
 			con.setAutoCommit(false);
-			commitCount = 0;
+			pendingExpr.clear();
 		}
 		catch (SQLException e)
 		{
@@ -449,6 +835,9 @@ protected void createGexTables() throws IDMapperException
 
 	/**
 	 * Creates indices for a newly created expression database.
+	 * Only the indices needed by the queries of this class are created:
+	 * (id, code) for {@link #getData}, groupId for {@link #getRow} and the row iterator,
+	 * and code for {@link #getUsedDatasources}.
 	 * @param con The connection to the expression database
 	 * @throws SQLException
 	 */
@@ -458,21 +847,15 @@ public void createGexIndices() throws IDMapperException
 		{
 			con.setReadOnly(false);
 			Statement sh = con.createStatement();
-			sh.execute(
-					"CREATE INDEX i_expression_id " +
-			"ON expression(id)			 ");
-			sh.execute(
-					"CREATE INDEX i_expression_idSample " +
-			"ON expression(idSample)	 ");
-			sh.execute(
-					"CREATE INDEX i_expression_data " +
-			"ON expression(data)	     ");
 			sh.execute(
 					"CREATE INDEX i_expression_code " +
 			"ON expression(code)	 ");
 			sh.execute(
 					"CREATE INDEX i_expression_groupId" +
 			" ON expression(groupId)	");
+			sh.execute(
+					"CREATE INDEX i_expression_id_code " +
+			"ON expression(id, code)	 ");
 		}
 		catch (SQLException e)
 		{
@@ -486,19 +869,29 @@ public void createGexIndices() throws IDMapperException
 	 * once, to defragment the db and create indices.
 	 * This method closes the current database connection in order
 	 * for the {@link DBConnector} to clean up.
+	 * The time taken by each step is logged.
 	 */
 	public void finalize() throws IDMapperException
 	{
+		StopWatch timer = new StopWatch();
+		timer.start();
 		try
 		{
-			con.commit();
+			flushExpr();
+			bulkLoad();
 		}
 		catch (SQLException e)
 		{
 			throw new IDMapperException (e);
 		}
+		Logger.log.info("Finalizing expression data: loading rows took " + timer.stop() + " ms");
+		timer.start();
 		dbConnector.compact(con);
+		Logger.log.info("Finalizing expression data: compacting took " + timer.stop() + " ms");
+		timer.start();
 		createGexIndices();
+		Logger.log.info("Finalizing expression data: creating indices took " + timer.stop() + " ms");
+		timer.start();
 		dbConnector.closeConnection(con, DBConnector.PROP_FINALIZE);
 		//The dbConnector may change the database file after cleaning up,
 		//for example, the derby connector first creates the database as directory
@@ -506,16 +899,19 @@ public void finalize() throws IDMapperException
 		//The database name needs to be changed to the zip file in this case.
 		String newDb = dbConnector.finalizeNewDatabase(dbName);
 		setDbName(newDb);
+		Logger.log.info("Finalizing expression data: closing database took " + timer.stop() + " ms");
 	}
 
 	/**
-	   commit inserted data
+	   commit inserted data. In bulk load mode, this loads the rows added so far,
+	   rows added after this are inserted in batches.
 	 */
 	public void commit() throws IDMapperException
 	{
 		try
 		{
-			con.commit();
+			flushExpr();
+			bulkLoad();
 		}
 		catch (SQLException e)
 		{
@@ -540,18 +936,18 @@ private PreparedStatement getPstRow() throws SQLException
 	}
 
 	@Override
-	public ReporterData getRow(int rowId) throws DataException
+	public CompactRow getRow(int rowId) throws DataException
 	{
 		Map<Integer, ? extends ISample> samples = getSamples();
 		try
 		{
-			ReporterData result;
+			CompactRow result;
 			PreparedStatement ps = getPstRow();
 			ps.setInt(1, rowId);
 			ResultSet rs = ps.executeQuery();
 
 			Xref ref = null;
-			result = new ReporterData (null, rowId);
+			result = new CompactRow (null, rowId, getSampleIndex());
 
 			while (rs.next())
 			{
@@ -617,7 +1013,7 @@ private class RowIterator implements Iterator<IRow>
 		RowIterator() throws SQLException
 		{
 			PreparedStatement ps = getPstRowIterator();
-			ResultSet rs = ps.executeQuery();
+			rs = ps.executeQuery();
 			hasNext = rs.next();
 		}
 		
@@ -636,10 +1032,10 @@ public IRow next()
 			try
 			{
 				Map<Integer, ? extends ISample> samples = getSamples();
-				ReporterData result;
+				CompactRow result;
 
 				int currentGroup = rs.getInt(5);
-				result = new ReporterData (null, rs.getInt(5));
+				result = new CompactRow (null, rs.getInt(5), getSampleIndex());
 				
 				Xref ref = new Xref (rs.getString(1), DataSource.getExistingBySystemCode(rs.getString(2)));
 				result.setXref(ref);
@@ -35,15 +35,13 @@
 import org.pathvisio.core.data.XrefWithSymbol;
 import org.pathvisio.core.debug.Logger;
 import org.pathvisio.core.util.FileUtils;
-import org.pathvisio.core.util.PathwayParser;
-import org.pathvisio.core.util.PathwayParser.ParseException;
-import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.XMLReaderFactory;
+import org.pathvisio.core.util.PathwayIndex;
 
 /**
  * Utility functions for searching a directory tree of pathway files
  * for pathways that match certain criteria.
+ * The genes in each pathway are read from the {@link PathwayIndex},
+ * so only new or changed files are parsed.
  */
 public class SearchMethods
 {
@@ -61,10 +59,10 @@
 	private static abstract interface PathwayMatcher
 	{
 		/**
-		 * searches file for a match
-		 * returns a search result or null if the file doesn't match.
+		 * searches indexed pathway for a match
+		 * returns a search result or null if the pathway doesn't match.
 		 */
-		MatchResult testMatch (File f);
+		MatchResult testMatch (PathwayIndex.Entry entry);
 	}
 
 	/**
@@ -89,41 +87,22 @@ public ByXrefMatcher(IDMapper gdb, Xref ref) throws SearchException
 			if(refs == null || refs.size() == 0) throw new SearchException(MSG_NOT_IN_GDB);
 		}
 
-		public MatchResult testMatch(File f)
+		public MatchResult testMatch(PathwayIndex.Entry entry)
 		{
-			//Get all genes in the pathway
-			try
+			//Check if one of the given ids is in the pathway
+			for (XrefWithSymbol gene : entry.getGenes())
 			{
-				XMLReader xmlReader = XMLReaderFactory.createXMLReader();
-				PathwayParser parser = new PathwayParser(f, xmlReader);
-				List<XrefWithSymbol> genes = parser.getGenes();
-				//Check if one of the given ids is in the pathway
-				for (XrefWithSymbol gene : genes)
+				//ignore symbol when comparing with refs from db.
+				if(refs.contains(gene.asXref()))
 				{
-					//ignore symbol when comparing with refs from db.
-					Xref geneWithoutSymbol =
-						new Xref(gene.getId(), gene.getDataSource());
-					if(refs.contains(geneWithoutSymbol))
-					{
-						//Gene found, add pathway to search result and break
-						List<String> idsFound = new ArrayList<String>();
-						List<XrefWithSymbol> matched = new ArrayList<XrefWithSymbol>();
-						idsFound.add(gene.getId());
-						matched.add(gene);
-						return new MatchResult(f, idsFound, null, matched);
-					}
+					//Gene found, add pathway to search result and break
+					List<String> idsFound = new ArrayList<String>();
+					List<XrefWithSymbol> matched = new ArrayList<XrefWithSymbol>();
+					idsFound.add(gene.getId());
+					matched.add(gene);
+					return new MatchResult(entry.getFile(), idsFound, null, matched);
 				}
 			}
-			catch (ParseException e)
-			{
-				// ignore pathways that generate an exception.
-				// They simply won't show up in search results.
-			}
-			catch (SAXException e)
-			{
-				// ignore pathways that generate an exception.
-				// They simply won't show up in search results.
-			}
 			return null;
 		}
 	}
@@ -143,44 +122,28 @@ public ByPatternMatcher (String regex)
 			pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
 		}
 
-		public MatchResult testMatch(File f)
+		public MatchResult testMatch(PathwayIndex.Entry entry)
 		{
-			try
-			{
-				XMLReader xmlReader = XMLReaderFactory.createXMLReader();
-				PathwayParser parser = new PathwayParser(f, xmlReader);
-				List<XrefWithSymbol> genes = parser.getGenes();
-				//Find what symbols match
-				List<XrefWithSymbol> matched = new ArrayList<XrefWithSymbol>();
-				List<String> idsFound = new ArrayList<String>();
-				List<String> namesFound = new ArrayList<String>();
-
-				for(XrefWithSymbol gene : genes)
-				{
-					Matcher m = pattern.matcher(gene.getSymbol());
-					if(m.find())
-					{
-						matched.add(gene);
-						idsFound.add(gene.getId());
-						namesFound.add(gene.getSymbol());
-					}
-				}
+			//Find what symbols match
+			List<XrefWithSymbol> matched = new ArrayList<XrefWithSymbol>();
+			List<String> idsFound = new ArrayList<String>();
+			List<String> namesFound = new ArrayList<String>();
 
-				if(matched.size() > 0)
+			for(XrefWithSymbol gene : entry.getGenes())
+			{
+				if (gene.getSymbol() == null) continue;
+				Matcher m = pattern.matcher(gene.getSymbol());
+				if(m.find())
 				{
-					return new MatchResult (f, idsFound, namesFound, matched);
+					matched.add(gene);
+					idsFound.add(gene.getId());
+					namesFound.add(gene.getSymbol());
 				}
-
 			}
-			catch (ParseException e)
-			{
-				// ignore pathways that generate an exception.
-				// They simply won't show up in search results.
-			}
-			catch (SAXException e)
+
+			if(matched.size() > 0)
 			{
-				// ignore pathways that generate an exception.
-				// They simply won't show up in search results.
+				return new MatchResult (entry.getFile(), idsFound, namesFound, matched);
 			}
 			return null;
 		}
@@ -210,28 +173,30 @@ protected Integer doInBackground()
 
 				pmon.setProgress((int)(totalWork * 0.2));
 
-				int i = 0;
-				int matchCount = 0;
+				final int[] matchCount = new int[1];
 
-				for(File f : pathways)
+				// new or changed files are parsed in parallel by the index,
+				// results are published as soon as each pathway is available
+				PathwayIndex.getDefault().getEntries(pathways, new PathwayIndex.EntryListener()
 				{
-					if(pmon.isCanceled())
+					public void entryAvailable(PathwayIndex.Entry entry, int done, int total)
 					{
-						pmon.close();
-						return matchCount;
+						MatchResult sr = search.testMatch (entry);
+						if (sr != null)
+						{
+							publish (sr);
+							matchCount[0]++;
+						}
+						pmon.setProgress((int)(totalWork * 0.2 + totalWork * 0.8 * done / total));
 					}
-					MatchResult sr = search.testMatch (f);
-					if (sr != null)
+
+					public boolean isCancelled()
 					{
-						publish (sr);
-						matchCount++;
+						return pmon.isCanceled();
 					}
-
-					i++;
-					pmon.setProgress((int)(totalWork * 0.2 + totalWork * 0.8 * i / pathways.size()));
-				}
+				});
 				pmon.close (); // just to be sure
-				return matchCount;
+				return matchCount[0];
 			}
 
 			protected void process (List<MatchResult> matches)
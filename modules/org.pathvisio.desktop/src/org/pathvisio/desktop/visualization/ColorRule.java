@@ -19,11 +19,14 @@
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.jdom2.Element;
 import org.pathvisio.core.debug.Logger;
 import org.pathvisio.core.util.ColorConverter;
+import org.pathvisio.data.CompiledCriterion;
 import org.pathvisio.data.IRow;
 import org.pathvisio.data.ISample;
 import org.pathvisio.desktop.visualization.Criterion.CriterionException;
@@ -40,6 +43,12 @@ public class ColorRule extends ColorSetObject
 
 	private Criterion criterion;
 
+	// compiled form of criterion, created on first use.
+	private CompiledCriterion compiled = null;
+	private boolean compileTried = false;
+	private Map<String, Integer> slots;
+	private double[] rowBuffer;
+
 	public static final Color INITIAL_COLOR = Color.WHITE;
 	private Color color;
 
@@ -56,9 +65,16 @@ public void setColor(Color color)
 	 */
 	public String setExpression(String expression, List<String> symbols)
 	{
+		resetCompiled();
 		return criterion.setExpression(expression, symbols);
 	}
 
+	private synchronized void resetCompiled()
+	{
+		compiled = null;
+		compileTried = false;
+	}
+
 	public String getExpression() { return criterion.getExpression(); }
 
 	public ColorRule() {
@@ -70,9 +86,34 @@ public ColorRule(Element xml) {
 		loadXML(xml);
 	}
 
-	@Override Color getColor(IRow data, ISample key) throws CriterionException
+	@Override synchronized Color getColor(IRow data, ISample key) throws CriterionException
 	{
-		if (criterion.evaluate(data.getByName())) return color;
+		if (!compileTried)
+		{
+			compileTried = true;
+			compiled = criterion.compile();
+			if (compiled != null)
+			{
+				slots = new HashMap<String, Integer>();
+				List<String> names = compiled.getSlotNames();
+				for (int i = 0; i < names.size(); ++i) slots.put (names.get(i), i);
+				rowBuffer = new double[names.size()];
+			}
+		}
+		if (compiled == null)
+		{
+			if (criterion.evaluate(data.getByName())) return color;
+			return null;
+		}
+
+		// samples that are not in the row are NaN
+		for (int i = 0; i < rowBuffer.length; ++i) rowBuffer[i] = Double.NaN;
+		for (ISample s : data.getSamples())
+		{
+			Integer slot = slots.get(s.getName());
+			if (slot != null) rowBuffer[slot] = CompiledCriterion.toDouble(data.getSampleData(s));
+		}
+		if (compiled.evaluate(rowBuffer)) return color;
 		return null;
 	}
 
@@ -93,6 +134,7 @@ protected void loadXML(Element xml) {
 			String expression = xml.getAttributeValue(XML_ATTR_EXPRESSION);
 			criterion = new Criterion();
 			criterion.setExpression(expression);
+			resetCompiled();
 			Element ce = xml.getChild(XML_ELM_COLOR);
 			if(ce != null) color = ColorConverter.parseColorElement(ce);
 		} catch(Exception e) {
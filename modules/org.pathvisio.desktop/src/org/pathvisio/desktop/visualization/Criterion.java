@@ -24,6 +24,7 @@
 import java.util.Set;
 
 import org.pathvisio.core.debug.Logger;
+import org.pathvisio.data.CompiledCriterion;
 
 /**
  * A criterion is a simple boolean expression that can
@@ -69,6 +70,7 @@ public String setExpression(String expression)
 	{
 		if (expression == null) throw new NullPointerException();
 		this.expression = expression;
+		parsed = null;
 		
 		try {
 			parsed = parse();
@@ -89,6 +91,7 @@ public String setExpression(String expression, List<String> symbols)
 	{
 		if (expression == null) throw new NullPointerException();
 		this.expression = expression;
+		parsed = null;
 
 		for(String s : symbols) {
 			symTab.put (s, 1.0);
@@ -128,10 +131,39 @@ public boolean evaluate(Map<String, Object> data) throws CriterionException {
 	public Object evaluateAsObject(Map<String, Object> data) throws CriterionException
 	{
 		setSampleData(data);
-		Token e = parse();
+		// only parse again if the expression was never parsed successfully
+		Token e = (parsed == null) ? parse() : parsed;
 		return e.evaluate();
 	}
 
+	/**
+	 * Compile the current expression for fast evaluation,
+	 * see {@link org.pathvisio.data.Criterion#compile(List)}.
+	 * Returns null if the expression can't be compiled.
+	 */
+	public CompiledCriterion compile(List<String> slotNames)
+	{
+		return toDataCriterion().compile(slotNames);
+	}
+
+	/**
+	 * Compile the current expression for fast evaluation, binding only the
+	 * names referred to in the expression,
+	 * see {@link org.pathvisio.data.Criterion#compile()}.
+	 * Returns null if the expression can't be compiled.
+	 */
+	public CompiledCriterion compile()
+	{
+		return toDataCriterion().compile();
+	}
+
+	private org.pathvisio.data.Criterion toDataCriterion()
+	{
+		org.pathvisio.data.Criterion result = new org.pathvisio.data.Criterion();
+		result.setExpression(expression);
+		return result;
+	}
+
 	//Boolean expression parser by Martijn
 	String input;
 	int charNr;
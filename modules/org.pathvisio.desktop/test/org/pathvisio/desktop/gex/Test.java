@@ -0,0 +1,356 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.desktop.gex;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.Xref;
+import org.pathvisio.data.DataException;
+import org.pathvisio.data.DataInterface;
+import org.pathvisio.data.IRow;
+import org.pathvisio.data.ISample;
+
+public class Test extends TestCase
+{
+	private static final DataSource ENTREZ = DataSource.register("L", "Entrez Gene").asDataSource();
+
+	private final Sample sa = new Sample(0, "a", "", Types.REAL);
+	private final Sample sb = new Sample(1, "b", "", Types.CHAR);
+	private final Sample sc = new Sample(2, "c", "", Types.REAL);
+	private final List<ISample> samples = Arrays.<ISample>asList(sa, sb, sc);
+
+	/** rows of the old kind, with a missing cell and a text cell */
+	private List<ReporterData> createRows()
+	{
+		ReporterData r0 = new ReporterData(new Xref("1234", ENTREZ), 0);
+		r0.setSampleData(sa, "1.5");
+		r0.setSampleData(sb, "up");
+		r0.setSampleData(sc, "-3");
+		ReporterData r1 = new ReporterData(new Xref("5678", ENTREZ), 1);
+		r1.setSampleData(sa, "NaN");
+		r1.setSampleData(sb, "2e3");
+		return Arrays.asList(r0, r1);
+	}
+
+	/**
+	 * ColumnarGex rows should give the same data as the rows they were loaded from.
+	 */
+	public void testColumnarRow() throws DataException
+	{
+		List<ReporterData> expected = createRows();
+		ColumnarGex gex = new ColumnarGex(new ListSource(samples, expected));
+
+		List<IRow> actual = new ArrayList<IRow>();
+		for (IRow row : gex.getIterator()) actual.add(row);
+		assertEquals (expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); ++i)
+		{
+			IRow e = expected.get(i);
+			IRow a = actual.get(i);
+			assertEquals (e.getXref(), a.getXref());
+			assertEquals (e.getGroup(), a.getGroup());
+			for (ISample s : samples)
+			{
+				assertEquals (e.getSampleData(s), a.getSampleData(s));
+			}
+			assertEquals (e.getByName(), a.getByName());
+			assertEquals (e.getByName().size(), a.getByName().size());
+		}
+
+		// missing cells and unknown columns
+		IRow second = actual.get(1);
+		assertNull (second.getSampleData(sc));
+		assertNull (second.getSampleData(new Sample(9, "z")));
+		assertFalse (second.getByName().containsKey("c"));
+		assertNull (second.getByName().get("z"));
+		assertEquals (2, second.getByName().size());
+
+		// lookup by xref
+		Set<Xref> refs = new HashSet<Xref>();
+		refs.add(new Xref("5678", ENTREZ));
+		Collection<? extends IRow> found = gex.getData(refs);
+		assertEquals (1, found.size());
+		assertEquals (1, found.iterator().next().getGroup());
+	}
+
+	public void testIsNumber()
+	{
+		String[] numbers = { "1", "1e5", "-.5", "+2.", "1.5E-3", "NaN", "-Infinity", "0x1p3", "0x1.8P1",
+				"1d", "2.5f", "3D", " 4 ", "\t-1e2\n" };
+		for (String n : numbers)
+		{
+			assertTrue (n, CompactRow.isNumber(n));
+			// the same strings that parseDouble accepts
+			Double.parseDouble(n);
+		}
+		String[] texts = { "", " ", ".", "e5", "1e", "1e+", "-", "1.2.3", "1,5", "nan", "Infinityx",
+				"NaN5", "1f5", "1df", "0x", "0xg", "abc", null };
+		for (String t : texts)
+		{
+			assertFalse (t, CompactRow.isNumber(t));
+			if (t == null) continue;
+			try
+			{
+				Double.parseDouble(t);
+				fail ("parseDouble accepts " + t);
+			}
+			catch (NumberFormatException e)
+			{
+				// ok
+			}
+		}
+	}
+
+	/**
+	 * CompactRow should give the same data as ReporterData filled with the same strings.
+	 */
+	public void testCompactRow()
+	{
+		SampleIndex index = new SampleIndex(samples);
+		String[][] cells = {
+				{ "1.5", "up", "-3" },
+				{ " 2e3 ", "NaN", null },
+				{ null, null, null },
+		};
+		for (int i = 0; i < cells.length; ++i)
+		{
+			Xref ref = new Xref("" + i, ENTREZ);
+			ReporterData expected = new ReporterData(ref, i);
+			CompactRow actual = new CompactRow(ref, i, index);
+			for (int col = 0; col < samples.size(); ++col)
+			{
+				if (cells[i][col] == null) continue;
+				expected.setSampleData(samples.get(col), cells[i][col]);
+				actual.setSampleData(samples.get(col), cells[i][col]);
+			}
+
+			for (ISample s : samples)
+			{
+				assertEquals (expected.getSampleData(s), actual.getSampleData(s));
+			}
+			assertEquals (new HashSet<ISample>(expected.getSamples()), new HashSet<ISample>(actual.getSamples()));
+
+			Map<String, Object> byName = actual.getByName();
+			assertEquals (expected.getByName(), byName);
+			assertEquals (byName, expected.getByName());
+			assertEquals (expected.getByName().hashCode(), byName.hashCode());
+			assertEquals (expected.getByName().size(), byName.size());
+			Map<String, Object> iterated = new HashMap<String, Object>();
+			for (Map.Entry<String, Object> e : byName.entrySet())
+			{
+				assertNull (iterated.put(e.getKey(), e.getValue()));
+			}
+			assertEquals (expected.getByName(), iterated);
+			assertSame (byName, actual.getByName());
+		}
+
+		CompactRow row = new CompactRow(new Xref("x", ENTREZ), 9, index);
+		row.setSampleData(sa, "7");
+		assertEquals (7.0, row.getValue(sa), 0.0);
+		assertTrue (Double.isNaN(row.getValue(sb)));
+		assertNull (row.getByName().get("b"));
+		assertFalse (row.getByName().containsKey("z"));
+		// a cell can be cleared again
+		row.setSampleData(sa, null);
+		assertTrue (row.getByName().isEmpty());
+		assertTrue (row.getSamples().isEmpty());
+	}
+
+	public void testLruCache()
+	{
+		LruCache<String, Integer> cache = new LruCache<String, Integer>(3);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.put("c", 3);
+		// a lookup makes "a" the most recently used, so "b" is evicted first
+		assertEquals (Integer.valueOf(1), cache.get("a"));
+		cache.put("d", 4);
+		assertFalse (cache.containsKey("b"));
+		assertEquals (3, cache.size());
+		// peek doesn't change the order
+		assertEquals (Integer.valueOf(3), cache.peek("c"));
+		cache.put("e", 5);
+		assertFalse (cache.containsKey("c"));
+		assertTrue (cache.containsKey("a"));
+		assertEquals (2, cache.getEvictions());
+
+		// only get counts for the statistics
+		assertNull (cache.get("b"));
+		assertEquals (Integer.valueOf(5), cache.get("e"));
+		assertEquals (2, cache.getHits());
+		assertEquals (1, cache.getMisses());
+		assertEquals (2.0 / 3.0, cache.getHitRate(), 1e-9);
+		cache.resetStats();
+		assertEquals (0, cache.getHits());
+		assertEquals (0.0, cache.getHitRate(), 0.0);
+
+		// lowering the maximum evicts the least recently used entries
+		cache.setMaxWeight(1);
+		assertEquals (1, cache.size());
+		assertTrue (cache.containsKey("e"));
+	}
+
+	public void testLruCacheWeight()
+	{
+		LruCache<String, String> cache = new LruCache<String, String>(10)
+		{
+			@Override
+			protected int weigh(String value)
+			{
+				return value.length();
+			}
+		};
+		cache.put("a", "aaaa");
+		cache.put("b", "bbbb");
+		assertEquals (8, cache.getWeight());
+		cache.put("c", "cccc");
+		// 12 is too heavy, the eldest entry goes
+		assertFalse (cache.containsKey("a"));
+		assertEquals (8, cache.getWeight());
+		// replacing a value replaces its weight
+		cache.put("b", "b");
+		assertEquals (5, cache.getWeight());
+		// a single entry that is too heavy is kept, but everything else is evicted
+		cache.put("d", "dddddddddddd");
+		assertEquals (1, cache.size());
+		assertEquals (12, cache.getWeight());
+	}
+
+	/**
+	 * A lookup that misses the id mapping cache goes to the mapper once,
+	 * later lookups of the same Xref are answered by the cache, also for other datasets.
+	 */
+	public void testIdMappingCache() throws Exception
+	{
+		Xref src = new Xref("1234", ENTREZ);
+		ReporterData row = new ReporterData(src, 0);
+		row.setSampleData(sa, "1.0");
+		List<ReporterData> rows = Arrays.asList(row);
+		CountingMapper mapper = new CountingMapper();
+		IdMappingCache mappings = new IdMappingCache(10);
+
+		CachedData cache = new CachedData(new ListSource(samples, rows), 10, mappings);
+		cache.setMapper(mapper);
+		assertEquals (1, cache.syncGet(src).size());
+		assertEquals (1, mapper.calls);
+		assertEquals (1, mappings.getMisses());
+
+		// rows are loaded again, but mapping results are reused
+		cache.clearCache();
+		assertEquals (1, cache.syncGet(src).size());
+		assertEquals (1, mapper.calls);
+		assertEquals (1, mappings.getHits());
+
+		CachedData other = new CachedData(new ListSource(samples, rows), 10, mappings);
+		other.setMapper(mapper);
+		other.syncGet(src);
+		assertEquals (1, mapper.calls);
+		cache.dispose();
+		other.dispose();
+
+		// a different mapper has different results
+		mappings.setMapper(new CountingMapper());
+		assertEquals (0, mappings.size());
+	}
+
+	/**
+	 * Mapper that maps every Xref to itself, and counts the calls.
+	 */
+	private static class CountingMapper implements IDMapper
+	{
+		int calls = 0;
+
+		public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources)
+		{
+			calls++;
+			return Collections.singleton(ref);
+		}
+
+		public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources)
+		{
+			Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+			for (Xref ref : srcXrefs) result.put(ref, mapID(ref));
+			return result;
+		}
+
+		public boolean xrefExists(Xref xref) { return true; }
+		public Set<Xref> freeSearch(String text, int limit) { return null; }
+		public IDMapperCapabilities getCapabilities() { return null; }
+		public void close() {}
+		public boolean isConnected() { return true; }
+	}
+
+	/**
+	 * Minimal data source that serves a list of rows.
+	 */
+	private static class ListSource implements DataInterface
+	{
+		private final List<ISample> samples;
+		private final List<? extends IRow> rows;
+
+		ListSource(List<ISample> samples, List<? extends IRow> rows)
+		{
+			this.samples = samples;
+			this.rows = rows;
+		}
+
+		public ISample getSample(int id) { return samples.get(id); }
+		public ISample findSample(String name) { return null; }
+		public List<String> getSampleNames() { return null; }
+		public List<String> getSampleNames(int dataType) { return null; }
+		public List<? extends ISample> getOrderedSamples() { return samples; }
+		public Set<DataSource> getUsedDatasources()
+		{
+			Set<DataSource> result = new HashSet<DataSource>();
+			for (IRow row : rows) result.add(row.getXref().getDataSource());
+			return result;
+		}
+		public IRow getRow(int rowId) { return rows.get(rowId); }
+		public int getNrRow() { return rows.size(); }
+		public Collection<? extends IRow> getData(Set<Xref> destRefs)
+		{
+			List<IRow> result = new ArrayList<IRow>();
+			for (IRow row : rows) if (destRefs.contains(row.getXref())) result.add(row);
+			return result;
+		}
+		public Iterable<IRow> getIterator() { return new ArrayList<IRow>(rows); }
+		public boolean isConnected() { return true; }
+		public String getDbName() { return "test"; }
+		public void close() {}
+
+		public Map<Integer, ? extends ISample> getSamples()
+		{
+			Map<Integer, ISample> result = new HashMap<Integer, ISample>();
+			for (ISample s : samples) result.put(s.getId(), s);
+			return result;
+		}
+	}
+}
@@ -18,13 +18,16 @@
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.TestCase;
 
 import org.pathvisio.core.debug.Logger;
 import org.pathvisio.core.preferences.PreferenceManager;
+import org.pathvisio.data.CompiledCriterion;
 import org.pathvisio.desktop.visualization.ColorGradient.ColorValuePair;
 import org.pathvisio.desktop.visualization.Criterion.CriterionException;
 
@@ -259,4 +262,54 @@ public void testStringFunc() throws CriterionException
 		assertEquals (6.0, eval("FIND(\"ss\", \"mississippi\", 4)"));
 	}
 
+
+	/** check that the compiled criterion gives the same result as the interpreted one */
+	private void assertCompiledEquals(String expr, List<String> names, double[] row) throws CriterionException
+	{
+		symbols.clear();
+		for (int i = 0; i < names.size(); ++i) symbols.put (names.get(i), row[i]);
+		Criterion crit = new Criterion();
+		assertNull (crit.setExpression(expr, names));
+		CompiledCriterion compiled = crit.compile(names);
+		assertNotNull (expr, compiled);
+		assertEquals (expr, crit.evaluate(symbols), compiled.evaluate(row));
+	}
+
+	public void testCompiled() throws CriterionException
+	{
+		List<String> names = Arrays.asList("x", "y", "z");
+		String[] exprs = {
+				"[x] < -0.5", "5.0 > [y]", "[x] = 5.0", "[y] <> -1.0",
+				"[x] > 0 AND [y] < 0", "[x] = 0 AND [y] = 0 OR [x] = 5.0 AND [y] = -1.0",
+				"NOT ([z] >= 2)", "-[x] * 2 + [y] / 4 <= -10", "[x] - [y] - [z] > 0",
+				"ABS([y]) = 1 AND SQRT([x] * [x]) = 5", "MAX([x], [y], [z]) > 4",
+				"AVERAGE([x], [y], [z]) > 2", "IF([x] > [y], [x], [y]) = 5",
+				"LOG(POWER(2, [z]), 2) > 2.5"
+		};
+		double[][] rows = { { 5.0, -1.0, 3.0 }, { -1.0, 2.0, 0.0 }, { 0.0, 0.0, 2.0 } };
+		for (String expr : exprs)
+		{
+			for (double[] row : rows) assertCompiledEquals (expr, names, row);
+		}
+
+		// only the slots referred to are used
+		Criterion crit = new Criterion();
+		crit.setExpression("[z] > [x]", names);
+		assertTrue (Arrays.equals(new int[] { 0, 2 }, crit.compile(names).getUsedSlots()));
+		assertEquals (Arrays.asList("z", "x"), crit.compile().getSlotNames());
+
+		// NaN is never met, like NA
+		assertFalse (crit.compile(names).evaluate(new double[] { Double.NaN, 0, 1.0 }));
+
+		// string literals, string functions and unknown symbols can't be compiled
+		crit.setExpression("[x] = \"red\"", names);
+		assertNull (crit.compile(names));
+		crit.setExpression("LEN(\"abc\") > 2", names);
+		assertNull (crit.compile(names));
+		crit.setExpression("[q] > 2");
+		assertNull (crit.compile(names));
+		// not a boolean expression
+		crit.setExpression("[x] + 2", names);
+		assertNull (crit.compile(names));
+	}
 }
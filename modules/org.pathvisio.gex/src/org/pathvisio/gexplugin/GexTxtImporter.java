@@ -18,17 +18,30 @@
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.nio.channels.FileChannel;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
 import org.bridgedb.DataSource;
 import org.bridgedb.IDMapper;
@@ -36,7 +49,6 @@
 import org.bridgedb.Xref;
 import org.pathvisio.core.debug.Logger;
 import org.pathvisio.core.debug.StopWatch;
-import org.pathvisio.core.util.FileUtils;
 import org.pathvisio.core.util.ProgressKeeper;
 import org.pathvisio.data.DataException;
 import org.pathvisio.desktop.gex.GexManager;
@@ -46,6 +58,11 @@
 /**
  * Functions to create a new Gex database
  * based on a text file.
+ * <p>
+ * The file is read in chunks of lines, which are split, parsed and checked against the
+ * identifier mapping database by a pool of worker threads. A single writer
+ * adds the results to the database in the order of the file, so row numbers and
+ * error messages are the same as when reading the file line by line.
  */
 public class GexTxtImporter
 {
@@ -94,21 +111,25 @@ public static void importFromTxt(ImportInformation info, ProgressKeeper p, IDMap
 
 			timer.start();
 			
-			//Get the number of lines in the file (for progress)
-			int nrLines = FileUtils.getNrLines(info.getTxtFile().toString());
-			
 			boolean maximumNotSet = true;
 			boolean minimumNotSet = true;
 			double maximum = 1; // Dummy value
 			double minimum = 1; // Dummy value
 			int added = 0;
+			// rows that failed after addExpr returned, reported after each line
+			FailedRows failures = new FailedRows();
 
 			try {
-				BufferedReader in = new BufferedReader(new FileReader(info.getTxtFile()));
+				// progress is measured in bytes read from the channel, so the file is read only once
+				FileInputStream fis = new FileInputStream(info.getTxtFile());
+				FileChannel channel = fis.getChannel();
+				long fileSize = channel.size();
+				BufferedReader in = new BufferedReader(new InputStreamReader(fis));
 				
 				String[] headers = info.getColNames();
 				//Parse sample names and add to Sample table
-				result.prepare();
+				result.prepare(true);
+				result.setExprErrorListener(failures);
 				int sampleId = 0;
 				List<Integer> dataCols = new ArrayList<Integer>();
 				
@@ -147,133 +168,141 @@ public static void importFromTxt(ImportInformation info, ProgressKeeper p, IDMap
 					}
 				}
 				
-				if (p != null) p.report("Processing " + nrLines + " lines ...");
+				if (p != null) p.report("Processing " + (fileSize / 1024) + " kB ...");
 				
 				//Check ids and add expression data
 				for(int i = 0; i < info.getFirstDataRow(); i++) in.readLine(); //Go to line where data starts
 				
-				String line = null;
 				int n = info.getFirstDataRow();
 				
-				int worked = importWork / nrLines;
-				
-				NumberFormat nf = NumberFormat.getInstance(
-						info.digitIsDot() ? Locale.US : Locale.FRANCE);
+				int worked = 0;
 				
 				info.dataRowsImported = 0;
 				info.rowsMapped = 0;
 				
-				while((line = in.readLine()) != null)
+				// lines are parsed and validated in chunks by a pool of workers,
+				// results are written to the database here, in the order of the file.
+				RowParser parser = new RowParser(info, currentGdb, headers.length, dataCols);
+				int nrThreads = Runtime.getRuntime().availableProcessors();
+				ExecutorService pool = Executors.newFixedThreadPool(nrThreads);
+				LinkedList<Future<ParsedChunk>> pending = new LinkedList<Future<ParsedChunk>>();
+				// channel position after reading each pending chunk
+				LinkedList<Long> positions = new LinkedList<Long>();
+				boolean eof = false;
+				try
 				{
-					if(p != null && p.isCancelled())
-					{
-						result.close();
-						error.close();
-						in.close();
-						return;
-					} //User pressed cancel
-					String[] data = line.split(info.getDelimiter(), headers.length);
-					n++;
-					if(n == info.headerRow) continue; //Don't add header row (very unlikely that this will happen)
-					if(data.length < headers.length) {
-						errors = reportError(info, error, "Number of columns in line " + n +
-								"doesn't match number of header columns",
-								errors);
-						continue;
-					}
-					info.dataRowsImported++;
-					
-					if (p != null) p.setTaskName("Importing expression data - processing line " + n + "; " + errors + " exceptions");
-					//Check id and add data
-					String id = data[info.getIdColumn()].trim();
-
-					/*Set the system code to the one found in the dataset if there is a system code column,
-					 * otherwise set the system code to the one selected (either by the user or by regular
-					 * expressions.*/
-					DataSource ds;
-					if (info.isSyscodeFixed())
-					{
-						ds = info.getDataSource();
-					}
-					else
-					{
-						ds = DataSource.getExistingBySystemCode(data[info.getSyscodeColumn()].trim());
-					}
-					Xref ref = new Xref (id, ds);
-					
-					//check if the ref exists
-					boolean refExists = currentGdb.xrefExists(ref);
-					if(!refExists)
-					{
-						errors = reportError(info, error, "Line " + n + ":\t" + ref +
-								"\tError: Could not look up this identifier in the identifier mapping database", errors);
-					} else {
-						errors = reportError(info, error, "Line " + n + ":\t" + ref +
-								"\t", errors - 1); // decrement counter to count only the errors
-						info.rowsMapped++;
-					}		
-					
-					// add row anyway
+					while(true)
 					{
-						boolean success = true;
-						for(int col : dataCols)
+						// read ahead, to keep the workers busy while writing
+						while (!eof && pending.size() < nrThreads * 4)
 						{
-							String value = data[col];
-
-							if(!info.isStringCol(col)
-									&& (value == null || value.equals(""))) {
-								value = "NaN";
-							}
-
-							//Determine maximum and minimum values.
-
-							try
+							List<String> lines = new ArrayList<String>(CHUNK_SIZE);
+							String line;
+							while (lines.size() < CHUNK_SIZE && (line = in.readLine()) != null)
 							{
-								double dNumber = nf.parse(value.toUpperCase()).doubleValue();
-								value = "" + dNumber;
-								if(maximumNotSet || dNumber>maximum)
-								{
-									maximum=dNumber;
-									maximumNotSet=false;
-								}
-
-								if(minimumNotSet || dNumber<minimum)
-								{
-									minimum=dNumber;
-									minimumNotSet=false;
-								}
+								lines.add(line);
 							}
-							catch (ParseException e)
+							if (lines.size() < CHUNK_SIZE) eof = true;
+							if (lines.size() > 0)
 							{
-								// we've got a number in a non-number column.
-								// safe to ignore
-								Logger.log.warn ("Number format exception in non-string column " + e.getMessage());
+								pending.add(pool.submit(parser.task(lines, n)));
+								positions.add(channel.position());
 							}
-
-							//End of determining maximum and minimum values. After the data has been read,
-							//maximum and minimum will have their correct values.
-
-							try
+							n += lines.size();
+						}
+						if (pending.isEmpty()) break;
+						
+						ParsedChunk chunk = getChunk(pending.removeFirst());
+						long position = positions.removeFirst();
+						for (ParsedRow row : chunk.rows)
+						{
+							if(p != null && p.isCancelled())
 							{
-								result.addExpr(
-										ref,
-										Integer.toString(dataCols.indexOf(col)),
-										value,
-										added);
+								result.close();
+								error.close();
+								in.close();
+								return;
+							} //User pressed cancel
+							if(row.data == null) {
+								errors = reportError(info, error, "Number of columns in line " + row.n +
+										"doesn't match number of header columns",
+										errors);
+								continue;
 							}
-							catch (Exception e)
+							info.dataRowsImported++;
+							
+							if (p != null) p.setTaskName("Importing expression data - processing line " + row.n + "; " + errors + " exceptions");
+							if(!row.refExists)
+							{
+								errors = reportError(info, error, "Line " + row.n + ":\t" + row.ref +
+										"\tError: Could not look up this identifier in the identifier mapping database", errors);
+							} else {
+								errors = reportError(info, error, "Line " + row.n + ":\t" + row.ref +
+										"\t", errors - 1); // decrement counter to count only the errors
+								info.rowsMapped++;
+							}		
+							
+							// add row anyway
 							{
-								errors = reportError(info, error, "Line " + n + ":\t" + line + "\n" +
-										"\tException: " + e.getMessage(), errors);
-								success = false;
+								boolean success = true;
+								for(int i = 0; i < row.data.length; i++)
+								{
+									try
+									{
+										result.addExpr(
+												row.ref,
+												Integer.toString(i),
+												row.data[i],
+												added);
+									}
+									catch (Exception e)
+									{
+										errors = reportError(info, error, "Line " + row.n + ":\t" + row.line + "\n" +
+												"\tException: " + e.getMessage(), errors);
+										success = false;
+									}
+								}
+								//Data is read and written to the database
+								if(success) added++;
+								errors = failures.report(info, error, errors);
 							}
 						}
-						//Data is read and written to the database
-						if(success) added++;
+						if (p != null && fileSize > 0)
+						{
+							int total = (int)(importWork * Math.min(position, fileSize) / fileSize);
+							p.worked(total - worked);
+							worked = total;
+						}
+						
+						//Determine maximum and minimum values.
+						if(chunk.maximumSet && (maximumNotSet || chunk.maximum>maximum))
+						{
+							maximum=chunk.maximum;
+							maximumNotSet=false;
+						}
+						if(chunk.minimumSet && (minimumNotSet || chunk.minimum<minimum))
+						{
+							minimum=chunk.minimum;
+							minimumNotSet=false;
+						}
 					}
-					if (p != null) p.worked(worked);
+				}
+				finally
+				{
+					pool.shutdownNow();
 				}
 				in.close();
+				// load the rows, so all failed rows are known before the summary
+				try
+				{
+					result.commit();
+				}
+				catch (IDMapperException e)
+				{
+					// not an id mapping problem, report it like other database errors
+					throw new SQLException(e);
+				}
+				errors = failures.report(info, error, errors);
 			} catch (FileNotFoundException e) {
 				if (p != null) p.report("Error: Could not read data file. Check if file exists and you have write permissions in the specific directories.\n");
 				Logger.log.error("Error: Could not read data file.", e);
@@ -304,7 +333,7 @@ public static void importFromTxt(ImportInformation info, ProgressKeeper p, IDMap
 				// writing out result of data import
 				if (p != null)
 				{
-					p.report("\n" + added + " rows of data were imported succesfully.");
+					p.report("\n" + (added - failures.getNrFailed()) + " rows of data were imported succesfully.");
 					Thread.sleep(1000);
 					if(errors > 0)
 					{
@@ -344,6 +373,216 @@ public static void importFromTxt(ImportInformation info, ProgressKeeper p, IDMap
 			}
 	}
 
+	/** number of lines that are parsed by a single task */
+	private static final int CHUNK_SIZE = 500;
+
+	/** A line of the data file, split and validated */
+	private static class ParsedRow
+	{
+		int n;
+		String line;
+		Xref ref;
+		boolean refExists;
+		/** values of the data columns, null if the number of columns was wrong */
+		String[] data;
+	}
+
+	/** Parsed lines of a chunk, with the maximum and minimum of the numbers in it */
+	private static class ParsedChunk
+	{
+		List<ParsedRow> rows = new ArrayList<ParsedRow>();
+		boolean maximumSet = false;
+		boolean minimumSet = false;
+		double maximum = 1;
+		double minimum = 1;
+	}
+
+	/**
+	 * Wait for a chunk to be parsed, and rethrow
+	 * the exceptions of the worker.
+	 */
+	private static ParsedChunk getChunk(Future<ParsedChunk> f) throws IOException, IDMapperException
+	{
+		try
+		{
+			return f.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading data file");
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IDMapperException) throw (IDMapperException)e.getCause();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Splits lines, parses numbers and checks if identifiers exist.
+	 * Can be used from several threads at the same time.
+	 */
+	private static class RowParser
+	{
+		private final ImportInformation info;
+		private final IDMapper gdb;
+		private final int nrColumns;
+		private final List<Integer> dataCols;
+		private final Pattern delimiter;
+		/** identifiers that were looked up already */
+		private final Map<Xref, Boolean> refExists = new ConcurrentHashMap<Xref, Boolean>();
+
+		RowParser(ImportInformation info, IDMapper gdb, int nrColumns, List<Integer> dataCols)
+		{
+			this.info = info;
+			this.gdb = gdb;
+			this.nrColumns = nrColumns;
+			this.dataCols = dataCols;
+			delimiter = Pattern.compile(info.getDelimiter());
+		}
+
+		Callable<ParsedChunk> task(final List<String> lines, final int firstLine)
+		{
+			return new Callable<ParsedChunk>()
+			{
+				public ParsedChunk call() throws IDMapperException
+				{
+					return parse(lines, firstLine);
+				}
+			};
+		}
+
+		/**
+		 * @param firstLine number of the line before the first line in the chunk
+		 */
+		private ParsedChunk parse(List<String> lines, int firstLine) throws IDMapperException
+		{
+			// NumberFormat is not thread safe, so each chunk gets its own
+			NumberFormat nf = NumberFormat.getInstance(
+					info.digitIsDot() ? Locale.US : Locale.FRANCE);
+			ParsedChunk chunk = new ParsedChunk();
+			Set<Xref> toCheck = new HashSet<Xref>();
+			int n = firstLine;
+			for (String line : lines)
+			{
+				n++;
+				if(n == info.headerRow) continue; //Don't add header row (very unlikely that this will happen)
+				ParsedRow row = new ParsedRow();
+				row.n = n;
+				row.line = line;
+				chunk.rows.add(row);
+				String[] data = delimiter.split(line, nrColumns);
+				if(data.length < nrColumns) continue;
+
+				//Check id and add data
+				String id = data[info.getIdColumn()].trim();
+
+				/*Set the system code to the one found in the dataset if there is a system code column,
+				 * otherwise set the system code to the one selected (either by the user or by regular
+				 * expressions.*/
+				DataSource ds;
+				if (info.isSyscodeFixed())
+				{
+					ds = info.getDataSource();
+				}
+				else
+				{
+					ds = DataSource.getExistingBySystemCode(data[info.getSyscodeColumn()].trim());
+				}
+				row.ref = new Xref (id, ds);
+				if (!refExists.containsKey(row.ref)) toCheck.add(row.ref);
+
+				row.data = new String[dataCols.size()];
+				for(int i = 0; i < row.data.length; i++)
+				{
+					int col = dataCols.get(i);
+					String value = data[col];
+
+					if(!info.isStringCol(col)
+							&& (value == null || value.equals(""))) {
+						value = "NaN";
+					}
+
+					try
+					{
+						double dNumber = nf.parse(value.toUpperCase()).doubleValue();
+						value = "" + dNumber;
+						if(!chunk.maximumSet || dNumber>chunk.maximum)
+						{
+							chunk.maximum=dNumber;
+							chunk.maximumSet=true;
+						}
+
+						if(!chunk.minimumSet || dNumber<chunk.minimum)
+						{
+							chunk.minimum=dNumber;
+							chunk.minimumSet=true;
+						}
+					}
+					catch (ParseException e)
+					{
+						// we've got a number in a non-number column.
+						// safe to ignore
+						Logger.log.warn ("Number format exception in non-string column " + e.getMessage());
+					}
+					row.data[i] = value;
+				}
+			}
+
+			// look up all new identifiers of this chunk at once.
+			// IDMapper implementations are not thread safe.
+			synchronized (gdb)
+			{
+				for (Xref ref : toCheck)
+				{
+					refExists.put(ref, gdb.xrefExists(ref));
+				}
+			}
+			for (ParsedRow row : chunk.rows)
+			{
+				if (row.data != null) row.refExists = refExists.get(row.ref);
+			}
+			return chunk;
+		}
+	}
+
+	/**
+	 * Collects the expression rows that could not be inserted by SimpleGex.
+	 * As rows are inserted in batches, a failed row usually belongs to an earlier line than
+	 * the one that is being added, so they are identified by their contents.
+	 */
+	private static class FailedRows implements SimpleGex.ExprErrorListener
+	{
+		private List<String> messages = new ArrayList<String>();
+		private Set<Integer> groups = new HashSet<Integer>();
+
+		public void exprFailed(Xref ref, String idSample, String value, int group, SQLException ex)
+		{
+			messages.add("Data row " + group + ":\t" + ref + "\tcolumn " + idSample + "\t" + value + "\n" +
+					"\tException: " + ex.getMessage());
+			groups.add(group);
+		}
+
+		/** report the failures collected since the last call */
+		int report(ImportInformation info, PrintStream log, int nrError)
+		{
+			for (String message : messages)
+			{
+				nrError = reportError(info, log, message, nrError);
+			}
+			messages.clear();
+			return nrError;
+		}
+
+		/** number of rows that had at least one value that could not be inserted */
+		int getNrFailed()
+		{
+			return groups.size();
+		}
+	}
+
 	private static int reportError(ImportInformation info, PrintStream log, String message, int nrError)
 	{
 		info.addError(message);
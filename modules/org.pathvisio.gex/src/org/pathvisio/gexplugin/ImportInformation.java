@@ -18,8 +18,12 @@
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -504,19 +508,64 @@ int getColumnCount(int col)
 	/** fraction of cells that have to match a pattern for it to be a good guess */
 	private static final double GOOD_GUESS_FRACTION = 0.9;
 
+	/** the sample is read in blocks of this size */
+	private static final int SAMPLE_BLOCK_SIZE = 64 * 1024;
+	/** the sample never reads beyond this, even if there are very long lines */
+	private static final int MAX_SAMPLE_SIZE = 4 * 1024 * 1024;
+
 	/*
-	 * read a sample from the selected text file
+	 * read a sample from the selected text file.
+	 * Only the start of the file is read, block by block from the channel
+	 * until there are enough lines, so the size of the file doesn't matter.
 	 */
 	private void readSample() throws IOException
 	{
-		BufferedReader in = new BufferedReader(new FileReader(txtFile));
-		lines = new ArrayList<String>();
+		FileInputStream fis = new FileInputStream(txtFile);
+		try
+		{
+			FileChannel channel = fis.getChannel();
+			long size = channel.size();
+			ByteBuffer buf = ByteBuffer.allocate((int)Math.min(size, SAMPLE_BLOCK_SIZE));
+			while (true)
+			{
+				while (buf.hasRemaining() && channel.read(buf) >= 0) { /* fill the buffer */ }
+				boolean eof = buf.position() >= size;
+				lines = splitSample(buf, eof);
+				if (eof || lines.size() >= NUM_SAMPLE_LINES || buf.capacity() >= MAX_SAMPLE_SIZE) break;
+
+				ByteBuffer larger = ByteBuffer.allocate((int)Math.min(size, Math.min(MAX_SAMPLE_SIZE, buf.capacity() * 2L)));
+				buf.flip();
+				larger.put(buf);
+				buf = larger;
+			}
+			if (lines.size() > NUM_SAMPLE_LINES) lines = new ArrayList<String>(lines.subList(0, NUM_SAMPLE_LINES));
+		}
+		finally
+		{
+			fis.close();
+		}
+	}
+
+	/**
+	 * Split the bytes that were read so far into lines, the same way as {@link BufferedReader#readLine}.
+	 * @param eof if false, the last line may be incomplete and is left out.
+	 */
+	private static List<String> splitSample(ByteBuffer buf, boolean eof) throws IOException
+	{
+		ByteBuffer data = buf.duplicate();
+		data.flip();
+		// decoded with the platform charset, like a FileReader
+		String text = Charset.defaultCharset().decode(data).toString();
+		BufferedReader in = new BufferedReader(new StringReader(text));
+		List<String> result = new ArrayList<String>();
 		String line;
-		while ((line = in.readLine()) != null && lines.size() < NUM_SAMPLE_LINES)
+		while ((line = in.readLine()) != null)
 		{
-			lines.add(line);
+			result.add(line);
 		}
-		in.close();
+		boolean complete = text.endsWith("\n") || text.endsWith("\r");
+		if (!eof && !complete && result.size() > 0) result.remove(result.size() - 1);
+		return result;
 	}
 
 	/* guess some parameters */
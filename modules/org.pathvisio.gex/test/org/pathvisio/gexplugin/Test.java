@@ -18,7 +18,11 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -275,6 +279,124 @@ public void gexHelper(DBConnector con, String filename) throws IDMapperException
 
 	}
 
+	/**
+	 * A row that fails in the middle of a batch is reported,
+	 * and the other rows of the batch are still inserted.
+	 */
+	public void testGexBatchFailure() throws IDMapperException, SQLException, DataException
+	{
+		String dbFileName = System.getProperty("java.io.tmpdir") + File.separator + "tempgex5";
+		SimpleGex sgex = new SimpleGex (dbFileName, true, new DataDerby());
+		// let the database reject a row that addExpr accepts
+		Statement st = sgex.getCon().createStatement();
+		st.execute("ALTER TABLE expression ADD CONSTRAINT c_group CHECK (groupId >= 0)");
+
+		final List<Integer> failed = new ArrayList<Integer>();
+		sgex.setExprErrorListener(new SimpleGex.ExprErrorListener()
+		{
+			public void exprFailed(Xref ref, String idSample, String value, int group, SQLException ex)
+			{
+				failed.add(group);
+				assertEquals ("id2", ref.getId());
+			}
+		});
+		sgex.prepare();
+		sgex.addSample(0, "mysample", Types.REAL);
+		DataSource ds = DataSource.register("L", "Entrez Gene").asDataSource();
+		for (int i = 0; i < 5; ++i)
+		{
+			sgex.addExpr(new Xref ("id" + i, ds), "0", "" + i, i == 2 ? -1 : i);
+		}
+		sgex.commit();
+		assertEquals (Arrays.asList(-1), failed);
+		assertEquals (4, countExpr(st));
+
+		// without a listener, the failure is thrown after the rest of the batch is inserted
+		sgex.setExprErrorListener(null);
+		sgex.addExpr(new Xref ("id5", ds), "0", "5", -1);
+		sgex.addExpr(new Xref ("id6", ds), "0", "6", 6);
+		try
+		{
+			sgex.commit();
+			fail ("Expected exception");
+		}
+		catch (IDMapperException ex)
+		{
+			// ok
+		}
+		assertEquals (5, countExpr(st));
+		sgex.finalize();
+	}
+
+	/**
+	 * Rows that can't be stored are rejected before they go into the bulk load file.
+	 * If the bulk import fails anyway, rows are inserted in batches and failed rows are reported.
+	 */
+	public void testGexBulkLoadFallback() throws IDMapperException, SQLException, DataException
+	{
+		String dbFileName = System.getProperty("java.io.tmpdir") + File.separator + "tempgex6";
+		SimpleGex sgex = new SimpleGex (dbFileName, true, new DataDerby());
+		Statement st = sgex.getCon().createStatement();
+		st.execute("ALTER TABLE expression ADD CONSTRAINT c_group CHECK (groupId >= 0)");
+
+		final List<Integer> failed = new ArrayList<Integer>();
+		sgex.setExprErrorListener(new SimpleGex.ExprErrorListener()
+		{
+			public void exprFailed(Xref ref, String idSample, String value, int group, SQLException ex)
+			{
+				failed.add(group);
+			}
+		});
+		sgex.prepare(true);
+		sgex.addSample(0, "mysample", Types.REAL);
+		DataSource ds = DataSource.register("L", "Entrez Gene").asDataSource();
+		try
+		{
+			sgex.addExpr(new Xref ("123456789012345678901234567890123456789012345678901", ds), "0", "1", 0);
+			fail ("Expected exception");
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// ok
+		}
+		try
+		{
+			sgex.addExpr(new Xref ("id0", ds), "x", "1", 0);
+			fail ("Expected exception");
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// ok
+		}
+		sgex.addExpr(new Xref ("id1", ds), "0", "say \"1\", or 2", 1);
+		sgex.addExpr(new Xref ("id2", null), "0", "2", 2);
+		// passes the checks, but makes the bulk import fail
+		sgex.addExpr(new Xref ("id3", ds), "0", "3", -1);
+		sgex.addExpr(new Xref ("id4", ds), "0", "4", 4);
+		sgex.commit();
+		assertEquals (Arrays.asList(-1), failed);
+		assertEquals (3, countExpr(st));
+
+		ResultSet r = st.executeQuery("SELECT id, code, data FROM expression WHERE groupId < 3 ORDER BY groupId");
+		assertTrue (r.next());
+		assertEquals ("id1", r.getString(1));
+		assertEquals ("L", r.getString(2));
+		assertEquals ("say \"1\", or 2", r.getString(3));
+		assertTrue (r.next());
+		assertNull (r.getString(2));
+		r.close();
+		sgex.finalize();
+	}
+
+	private static int countExpr(Statement st) throws SQLException
+	{
+		ResultSet r = st.executeQuery("SELECT COUNT(*) FROM expression");
+		r.next();
+		int result = r.getInt(1);
+		r.close();
+		return result;
+	}
+
 	public void testGexDerby() throws IDMapperException, SQLException, DataException
 	{
 		gexHelper (new DataDerby(), "tempgex1a");
@@ -24,7 +24,6 @@
 import javax.swing.JOptionPane;
 import javax.swing.JTabbedPane;
 
-import org.pathvisio.core.model.Pathway;
 import org.pathvisio.core.model.PathwayElement;
 import org.pathvisio.core.model.StaticProperty;
 import org.pathvisio.core.view.UndoAction;
@@ -48,7 +47,7 @@ public class PathwayElementDialog extends OkCancelDialog {
 	private JTabbedPane dialogPane;
 	private Map<String, PathwayElementPanel> panels;
 	private Map<StaticProperty, Object> state = new HashMap<StaticProperty, Object>();
-	private Pathway originalPathway; //Used for undo event
+	private UndoAction undoAction; //Used for undo event
 
 	protected boolean readonly;
 	protected SwingEngine swingEngine;
@@ -103,7 +102,8 @@ protected void refresh() {
 	 */
 	protected void storeState() {
 		PathwayElement e = getInput();
-		originalPathway = (Pathway) e.getParent().clone();
+		VPathway vp = swingEngine.getEngine().getActiveVPathway();
+		if (vp != null) undoAction = vp.getUndoManager().startAction("Modified element properties");
 		for(StaticProperty t : e.getStaticPropertyKeys()) {
 			state.put(t, e.getStaticProperty(t));
 		}
@@ -184,10 +184,10 @@ protected void okPressed() {
 		}
 		if(done) {
 			VPathway p = swingEngine.getEngine().getActiveVPathway();
-			p.getUndoManager().newAction(
-					new UndoAction("Modified element properties", originalPathway)
-			);
-			if(p != null) p.redraw();
+			if(p != null) {
+				if (undoAction != null) p.getUndoManager().newAction(undoAction);
+				p.redraw();
+			}
 			setVisible(false);
 		}
 	}
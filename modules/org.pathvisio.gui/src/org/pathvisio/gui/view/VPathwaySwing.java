@@ -108,6 +108,9 @@ public void setChild(VPathway c) {
 		child = c;
 		child.addVPathwayListener(this);
 		child.addVElementMouseListener(this);
+		child.setTileCaching(
+				PreferenceManager.getCurrent().getBoolean(
+						GlobalPreference.ENABLE_TILE_CACHE));
 	}
 
 	public VPathway getChild() {
@@ -138,11 +141,20 @@ protected void paintComponent(Graphics g)
 	}
 
 	/**
-	 * Schedule redraw of a certain part of the pathway
+	 * Redraw part of the pathway. VPathway calls this on the event dispatch thread with merged
+	 * dirty areas, once per event cycle. Those are painted right away: repaint would let
+	 * Swing union separate areas into a single clip that is much larger.
 	 */
 	public void redraw(Rectangle r) 
 	{
-		repaint(r);
+		if (SwingUtilities.isEventDispatchThread() && isShowing())
+		{
+			paintImmediately(r);
+		}
+		else
+		{
+			repaint(r);
+		}
 	}
 
 	public void mouseClicked(MouseEvent e) {
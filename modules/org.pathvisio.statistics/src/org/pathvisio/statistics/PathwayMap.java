@@ -24,18 +24,12 @@
 
 import org.bridgedb.Xref;
 import org.pathvisio.core.data.XrefWithSymbol;
-import org.pathvisio.core.debug.Logger;
 import org.pathvisio.core.util.FileUtils;
-import org.pathvisio.core.util.PathwayParser;
-import org.pathvisio.core.util.PathwayParser.ParseException;
-
-import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.XMLReaderFactory;
+import org.pathvisio.core.util.PathwayIndex;
 
 /**
  * A collection of pathways,
- * parsed quickly using PathwayParser
+ * read from the {@link PathwayIndex}, so only new or changed files are parsed.
  */
 public class PathwayMap
 {
@@ -68,19 +62,28 @@ public File getFile()
 	 */
 	public PathwayMap(List<File> pwyFiles)
 	{
-		try
-		{
-			xmlReader = XMLReaderFactory.createXMLReader();
-		}
-		catch (SAXException e)
+		this (pwyFiles, PathwayIndex.getDefault());
+	}
+
+	/**
+	 * @param pwyFiles pathway files to read.
+	 * @param index index used to look up the genes in each pathway.
+	 */
+	public PathwayMap(List<File> pwyFiles, PathwayIndex index)
+	{
+		for (PathwayIndex.Entry entry : index.getEntries(pwyFiles))
 		{
-			Logger.log.error("Problem while searching pathways", e);
-			throw new IllegalStateException(); // TODO: more info in exception
+			Set<Xref> srcRefs = new HashSet<Xref>();
+			for (XrefWithSymbol x : entry.getGenes()) srcRefs.add (x.asXref());
+
+			PathwayInfo pi = new PathwayInfo();
+			pi.name = entry.getName();
+			pi.srcRefs = srcRefs;
+			pi.file = entry.getFile();
+			getPathways().add (pi);
 		}
-		
-		doGetSrcRefs(pwyFiles);
 	}
-	
+
 	/**
 	 * @param pwDir directory with pathway files. All pathways are read recursively
 	 */
@@ -89,34 +92,6 @@ public PathwayMap(File pwDir)
 		this (FileUtils.getFiles(pwDir, "gpml", true));
 	}
 
-	private XMLReader xmlReader = null;
-
-	private void doGetSrcRefs(List<File> pwyFiles)
-	{
-		for (File file : pwyFiles)
-		{
-			try
-			{
-				PathwayParser pwyParser = new PathwayParser(file, xmlReader);
-
-				Logger.log.info ("Reading references from " + pwyParser.getName());
-
-				Set<Xref> srcRefs = new HashSet<Xref>();
-				for (XrefWithSymbol x : pwyParser.getGenes()) srcRefs.add (x.asXref());
-
-				PathwayInfo pi = new PathwayInfo();
-				pi.name = pwyParser.getName();
-				pi.srcRefs = srcRefs;
-				pi.file = file;
-				getPathways().add (pi);
-			}
-			catch (ParseException ex)
-			{
-				// ignore files that are not valid gpml, just skip
-			}
-		}
-	}
-
 	public Set<Xref> getSrcRefs()
 	{
 		Set<Xref> result = new HashSet<Xref>();
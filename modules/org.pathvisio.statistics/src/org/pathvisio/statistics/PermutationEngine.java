@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.statistics;
+
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.pathvisio.core.util.ProgressKeeper;
+import org.pathvisio.core.util.Stats;
+
+/**
+ * Permutation test for pathway z-scores, as used by the MAPPFinder method.
+ * <p>
+ * The labels (measured / positive) of all genes are shuffled, while pathway membership
+ * is kept fixed. For each pathway we count how often the permuted z-score
+ * is further away from 0 than the actual z-score.
+ * <p>
+ * Genes are identified by a dense integer id, pathways by a list of member ids,
+ * so a permutation doesn't involve any hashing.
+ * Permutations are divided in fixed-size chunks, which are distributed over
+ * a fork-join pool. Each chunk has its own random generator, seeded from the
+ * chunk index, so the result only depends on the seed and not on the number of threads.
+ */
+class PermutationEngine
+{
+	/** number of permutations done by a single task */
+	private static final int CHUNK_SIZE = 16;
+
+	private final int nrRefs;
+	private final BitSet measured;
+	private final BitSet positive;
+	private final int[][] members;
+	private final double[] absZScores;
+	private final int bigN;
+	private final int bigR;
+
+	/**
+	 * @param nrRefs number of genes, genes are numbered 0 to nrRefs - 1
+	 * @param measured genes that have at least one measured probe
+	 * @param positive genes that have at least one positive probe
+	 * @param members for each pathway, the ids of its genes
+	 * @param zscores for each pathway, the actual z-score
+	 * @param bigN, bigR totals used to calculate z-scores
+	 */
+	PermutationEngine(int nrRefs, BitSet measured, BitSet positive, int[][] members, double[] zscores, int bigN, int bigR)
+	{
+		if (members.length != zscores.length) throw new IllegalArgumentException();
+		this.nrRefs = nrRefs;
+		this.measured = measured;
+		this.positive = positive;
+		this.members = members;
+		this.bigN = bigN;
+		this.bigR = bigR;
+		absZScores = new double[zscores.length];
+		for (int i = 0; i < zscores.length; ++i) absZScores[i] = Math.abs(zscores[i]);
+	}
+
+	/**
+	 * Run the permutation test.
+	 * @param nrPermutations number of permutations
+	 * @param seed seed for the random generators. The same seed gives the same result.
+	 * @param pk progress keeper, checked for cancellation. May be null
+	 * @return for each pathway, the number of permutations with a more extreme z-score.
+	 */
+	int[] countExtremer(int nrPermutations, long seed, ProgressKeeper pk)
+	{
+		int nrChunks = (nrPermutations + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		if (nrChunks == 0) return new int[members.length];
+		return ForkJoinPool.commonPool().invoke(new ChunkTask(0, nrChunks, nrPermutations, seed, pk));
+	}
+
+	/**
+	 * Calculate permuted p-values from the result of countExtremer.
+	 * Without permutations there is no p-value, the result is NaN for each pathway.
+	 */
+	static double[] toPValues(int[] extremer, int nrPermutations)
+	{
+		double[] result = new double[extremer.length];
+		for (int i = 0; i < extremer.length; ++i)
+		{
+			result[i] = nrPermutations == 0 ? Double.NaN :
+				(double)extremer[i] / (double)(nrPermutations + 1);
+		}
+		return result;
+	}
+
+	/**
+	 * Do the permutations for a range of chunks, splitting the range if it has more than one chunk.
+	 */
+	private class ChunkTask extends RecursiveTask<int[]>
+	{
+		private final int fromChunk;
+		private final int toChunk;
+		private final int nrPermutations;
+		private final long seed;
+		private final ProgressKeeper pk;
+
+		ChunkTask(int fromChunk, int toChunk, int nrPermutations, long seed, ProgressKeeper pk)
+		{
+			this.fromChunk = fromChunk;
+			this.toChunk = toChunk;
+			this.nrPermutations = nrPermutations;
+			this.seed = seed;
+			this.pk = pk;
+		}
+
+		@Override
+		protected int[] compute()
+		{
+			if (toChunk - fromChunk > 1)
+			{
+				int mid = (fromChunk + toChunk) >>> 1;
+				ChunkTask left = new ChunkTask(fromChunk, mid, nrPermutations, seed, pk);
+				ChunkTask right = new ChunkTask(mid, toChunk, nrPermutations, seed, pk);
+				left.fork();
+				int[] result = right.compute();
+				int[] leftResult = left.join();
+				for (int i = 0; i < result.length; ++i) result[i] += leftResult[i];
+				return result;
+			}
+			return permuteChunk(fromChunk);
+		}
+
+		private int[] permuteChunk(int chunk)
+		{
+			int[] extremer = new int[members.length];
+			if (pk != null && pk.isCancelled()) return extremer;
+
+			// golden ratio increment, so seeds of neighbouring chunks are far apart
+			SplittableRandom random = new SplittableRandom(seed + chunk * 0x9E3779B97F4A7C15L);
+			int[] perm = new int[nrRefs];
+			for (int i = 0; i < nrRefs; ++i) perm[i] = i;
+
+			int start = chunk * CHUNK_SIZE;
+			int end = Math.min(start + CHUNK_SIZE, nrPermutations);
+			for (int p = start; p < end; ++p)
+			{
+				// Fisher-Yates shuffle
+				for (int i = nrRefs - 1; i > 0; --i)
+				{
+					int j = random.nextInt(i + 1);
+					int tmp = perm[i];
+					perm[i] = perm[j];
+					perm[j] = tmp;
+				}
+
+				for (int pwy = 0; pwy < members.length; ++pwy)
+				{
+					int cPwyMeasured = 0;
+					int cPwyPositive = 0;
+					for (int ref : members[pwy])
+					{
+						int label = perm[ref];
+						if (measured.get(label)) cPwyMeasured++;
+						if (positive.get(label)) cPwyPositive++;
+					}
+					double zscore = Stats.zscore(cPwyMeasured, cPwyPositive, bigN, bigR);
+
+					// compare absolutes -> two-tailed test
+					if (Math.abs(zscore) > absZScores[pwy]) extremer[pwy]++;
+				}
+			}
+			return extremer;
+		}
+	}
+}
@@ -77,6 +77,7 @@ enum StatisticsPreference implements Preference
 		STATS_DIR_LAST_USED_PATHWAY (PreferenceManager.getCurrent().get(GlobalPreference.DIR_PWFILES)),
 		STATS_DIR_LAST_USED_RESULTS (PreferenceManager.getCurrent().get(GlobalPreference.DIR_LAST_USED_PGEX)),
 		MAPPFINDER_COMPATIBILITY (Boolean.toString(true)),
+		PERMUTATIONS ("" + ZScoreCalculator.DEFAULT_PERMUTATIONS),
 		STATS_RESULT_INCLUDE_FILENAME(Boolean.toString(false));
 
 		StatisticsPreference (String defaultValue)
@@ -113,6 +114,8 @@ public void init(PvDesktop aDesktop)
 		pdlg.addPanel("Statistics plugin", pdlg.builder().
 				booleanField(StatisticsPreference.MAPPFINDER_COMPATIBILITY, 
 						"Perform statistical calculation after mapping rows to pathways (similar to MAPPFinder)")
+				.integerField(StatisticsPreference.PERMUTATIONS,
+						"Number of permutations for the permuted p-value", 0, 100000)
 				.build()
 				);
 	}
@@ -457,6 +460,7 @@ private class ZScoreWorker extends SwingWorker <StatisticsResult, Void>
 			{
 				this.pk = pk;
 				calculator = new ZScoreCalculator (crit, pwDir, cache, gdb, pk);
+				calculator.setPermutations(PreferenceManager.getCurrent().getInt(StatisticsPreference.PERMUTATIONS));
 				temp = new StatisticsTableModel();
 				temp.setColumns(new Column[] {Column.PATHWAY_NAME, Column.R, Column.N, Column.TOTAL, Column.PCT, Column.ZSCORE, Column.PERMPVAL});
 				tblResult.setModel(temp);
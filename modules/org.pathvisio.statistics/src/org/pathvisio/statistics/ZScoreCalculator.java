@@ -18,6 +18,7 @@
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -31,8 +32,10 @@
 import org.pathvisio.core.debug.Logger;
 import org.pathvisio.core.util.ProgressKeeper;
 import org.pathvisio.core.util.Stats;
+import org.pathvisio.data.CompiledCriterion;
 import org.pathvisio.data.DataException;
 import org.pathvisio.data.IRow;
+import org.pathvisio.data.ISample;
 import org.pathvisio.desktop.gex.CachedData;
 import org.pathvisio.desktop.visualization.Criterion;
 import org.pathvisio.desktop.visualization.Criterion.CriterionException;
@@ -51,6 +54,22 @@
 	private Map<PathwayInfo, StatisticsPathwayResult> statsMap =
 		new HashMap<PathwayInfo, StatisticsPathwayResult>();
 
+	/** Default number of permutations used to calculate permuted p-values */
+	public static final int DEFAULT_PERMUTATIONS = 999;
+
+	private int nrPermutations = DEFAULT_PERMUTATIONS;
+	private long seed = 0;
+
+	/** number of source refs that are read from the dataset and evaluated at once */
+	private static final int CHUNK_SIZE = 1000;
+
+	// compiled form of result.crit, or null if it can't be compiled
+	private CompiledCriterion compiled = null;
+	// samples bound to each slot of compiled
+	private ISample[] slotSamples;
+	// reused for each row evaluated with compiled
+	private double[] rowBuffer;
+
 	public ZScoreCalculator(Criterion crit, File pwDir, CachedData gex, IDMapper gdb, ProgressKeeper pk)
 	{
 		if (pk != null)
@@ -69,6 +88,25 @@ public ZScoreCalculator(Criterion crit, File pwDir, CachedData gex, IDMapper gdb
 		this.pk = pk;
 	}
 
+	/**
+	 * Set the number of permutations used to calculate the permuted p-values.
+	 * Use 0 to skip the permutation test.
+	 */
+	public void setPermutations(int value)
+	{
+		if (value < 0) throw new IllegalArgumentException("Number of permutations can't be negative");
+		nrPermutations = value;
+	}
+
+	/**
+	 * Set the seed for the permutation test. Runs with the same seed and the
+	 * same input give the same permuted p-values.
+	 */
+	public void setSeed(long value)
+	{
+		seed = value;
+	}
+
 	/**
 	 * We have two slightly different methods for calculating zscores:
 	 * MappFinder and Alternative
@@ -173,18 +211,41 @@ boolean isMeasured()
 	}
 
 	/**
-	 * Checks if the given ref evaluates positive for the criterion
-	 *
-	 * Assumes that ref has already been cached earlier in a call to
-	 * result.gex.cacheData(...)
+	 * Compile the criterion, binding each sample of the dataset to a slot.
+	 * If the criterion can't be compiled, rows are evaluated with Criterion.evaluate instead.
 	 */
-	private RefInfo evaluateRef (Xref srcRef)
+	private void compileCriterion() throws DataException
+	{
+		List<? extends ISample> samples = result.gex.getOrderedSamples();
+		List<String> names = new ArrayList<String>();
+		for (ISample s : samples) names.add (s.getName());
+		compiled = result.crit.compile(names);
+		slotSamples = samples.toArray(new ISample[samples.size()]);
+		rowBuffer = new double[slotSamples.length];
+	}
+
+	/**
+	 * Evaluate the criterion for a single row
+	 */
+	private boolean evaluateRow (IRow row) throws CriterionException
+	{
+		if (compiled == null) return result.crit.evaluate(row.getByName());
+		for (int slot : compiled.getUsedSlots())
+		{
+			rowBuffer[slot] = CompiledCriterion.toDouble(row.getSampleData(slotSamples[slot]));
+		}
+		return compiled.evaluate(rowBuffer);
+	}
+
+	/**
+	 * Checks if the rows of a ref evaluate positive for the criterion
+	 * @param rows the rows of the ref, may be null if there are none
+	 */
+	private RefInfo evaluateRef (List<? extends IRow> rows)
 	{
 		Set<String> cGeneTotal = new HashSet<String>();
 		Set<String> cGenePositive = new HashSet<String>();
 
-		List<? extends IRow> rows = result.gex.getData(srcRef);
-
 		if (rows != null)
 		{
 			for (IRow row : rows)
@@ -194,7 +255,7 @@ private RefInfo evaluateRef (Xref srcRef)
 				cGeneTotal.add(row.getGroup() + "");
 				try
 				{
-					boolean eval = result.crit.evaluate(row.getByName());
+					boolean eval = evaluateRow(row);
 					if (eval) cGenePositive.add(row.getGroup() + "");
 				}
 				catch (CriterionException e)
@@ -228,7 +289,7 @@ public void calculateTotals() throws IDMapperException, DataException
 				try
 				{
 					result.bigN++;
-					boolean eval = result.crit.evaluate(d.getByName());
+					boolean eval = evaluateRow(d);
 					if (eval)
 					{
 						result.bigR++;
@@ -290,77 +351,51 @@ public String getDescription()
 	 */
 	private class MappFinderMethod extends Method
 	{
-		/**
-		 * Shuffle the values of the map,
-		 * so that each K, V pair is (likely) broken up,
-		 * each K will (likely) get a new V.
-		 *
-		 * @param map: the map to be permuted. This value is modified directly.
-		 */
-		private <K, V> void permuteMap (Map<K, V> map)
-		{
-			List<V> values = new ArrayList<V>();
-			values.addAll (map.values());
-			Collections.shuffle (values);
-
-			int i = 0;
-			for (K key : map.keySet())
-			{
-				map.put (key, values.get(i));
-				i++;
-			}
-		}
-
 		/**
 		 * Perform a permutation test and calculate PermuteP values.
 		 *
-		 * permutes the data 1000 times while keeping the labels fixed.
+		 * permutes the data a number of times (see setPermutations) while keeping the labels fixed.
 		 * Calculate the rank of the actual zscore compared to the permuted zscores.
 		 * Two-tailed test, so checks for very low z-scores as well as very high z-scores.
 		 */
 		public void permute()
 		{
-			// create a deep copy of dataMap.
-			Map<Xref, RefInfo> dataMap2 = new HashMap<Xref, RefInfo>();
-			for (Xref key : dataMap.keySet()) { dataMap2.put (key, dataMap.get(key)); }
-
-			// we count the number of times a zscore is extremer,
-			// i.e. further away from 0 than the actual zscore.
-			Map<PathwayInfo, Integer> extremer = new HashMap<PathwayInfo, Integer>();
-
-			for (PathwayInfo pi : pwyMap.getPathways()) extremer.put (pi, 0);
-
-			for (int i = 0; i < 999; ++i)
+			// give each xref a dense id. Sort to make the ids reproducible.
+			List<Xref> refs = new ArrayList<Xref>(dataMap.keySet());
+			Collections.sort(refs);
+			Map<Xref, Integer> ids = new HashMap<Xref, Integer>();
+			BitSet measured = new BitSet(refs.size());
+			BitSet positive = new BitSet(refs.size());
+			for (int i = 0; i < refs.size(); ++i)
 			{
-				permuteMap (dataMap2);
-
-				for (PathwayInfo pi : pwyMap.getPathways())
-				{
-					int cPwyMeasured = 0;
-					int cPwyPositive = 0;
-
-					for (Xref ref : pi.getSrcRefs())
-					{
-						RefInfo refInfo = dataMap2.get(ref);
-						if (refInfo.isMeasured()) cPwyMeasured++;
-						if (refInfo.isPositive()) cPwyPositive++;
-					}
-					double zscore = Stats.zscore(cPwyMeasured, cPwyPositive, result.bigN, result.bigR);
+				Xref ref = refs.get(i);
+				ids.put (ref, i);
+				RefInfo refInfo = dataMap.get(ref);
+				if (refInfo.isMeasured()) measured.set(i);
+				if (refInfo.isPositive()) positive.set(i);
+			}
 
-					// compare absolutes -> two-tailed test
-					if (Math.abs(zscore) > Math.abs((statsMap.get(pi)).getZScore()))
-					{
-						extremer.put (pi, extremer.get(pi) + 1);
-					}
-				}
+			List<PathwayInfo> pathways = pwyMap.getPathways();
+			int[][] members = new int[pathways.size()][];
+			double[] zscores = new double[pathways.size()];
+			for (int i = 0; i < pathways.size(); ++i)
+			{
+				PathwayInfo pi = pathways.get(i);
+				members[i] = new int[pi.getSrcRefs().size()];
+				int j = 0;
+				for (Xref ref : pi.getSrcRefs()) members[i][j++] = ids.get(ref);
+				zscores[i] = statsMap.get(pi).getZScore();
 			}
 
+			PermutationEngine engine = new PermutationEngine(
+					refs.size(), measured, positive, members, zscores, result.bigN, result.bigR);
+			int[] extremer = engine.countExtremer(nrPermutations, seed, pk);
+
 			// report p-vals
-			for (PathwayInfo pi : pwyMap.getPathways())
+			double[] pvals = PermutationEngine.toPValues(extremer, nrPermutations);
+			for (int i = 0; i < pathways.size(); ++i)
 			{
-				double pval = (double)extremer.get(pi) / 1000.0;
-				StatisticsPathwayResult spr = statsMap.get(pi);
-				spr.permP = pval;
+				statsMap.get(pathways.get(i)).permP = pvals[i];
 			}
 		}
 
@@ -412,15 +447,23 @@ public StatisticsPathwayResult calculatePathway(PathwayInfo pi)
 		}
 	}
 
-	private void calculateDataMap()
+	private void calculateDataMap() throws IDMapperException, DataException
 	{
 		dataMap = new HashMap<Xref, RefInfo>();
-		// go over all datanodes in all pathways
-		for (Xref srcRef : pwyMap.getSrcRefs())
+		// go over all datanodes in all pathways, a chunk at a time.
+		// Each chunk is evaluated from the rows returned by syncSeed, not from the cache,
+		// because the cache is limited and may evict rows before they are read.
+		List<Xref> refs = new ArrayList<Xref>(pwyMap.getSrcRefs());
+		for (int start = 0; start < refs.size(); start += CHUNK_SIZE)
 		{
 			if (pk != null && pk.isCancelled()) return;
-			RefInfo refInfo = evaluateRef (srcRef);
-			dataMap.put (srcRef, refInfo);
+			List<Xref> chunk = refs.subList(start, Math.min(refs.size(), start + CHUNK_SIZE));
+			Map<Xref, List<IRow>> rows = result.gex.syncSeed(chunk);
+			for (Xref srcRef : chunk)
+			{
+				if (pk != null && pk.isCancelled()) return;
+				dataMap.put (srcRef, evaluateRef (rows.get(srcRef)));
+			}
 		}
 	}
 
@@ -437,23 +480,15 @@ private StatisticsResult calculate(Method m) throws IDMapperException, DataExcep
 		}
 		pwyMap = new PathwayMap (result.pwDir);
 
-		// cache data for all pathways at once.
+		// read the data for all pathways and calculate dataMap
 		if (pk != null)
 		{
 			if (pk.isCancelled()) return null;
-			pk.setTaskName("Reading dataset");
+			pk.setTaskName("Calculating expression data");
 			pk.setProgress(20);
 		}
 		result.gex.setMapper (result.gdb);
-		result.gex.syncSeed(pwyMap.getSrcRefs());
-
-		// calculate dataMap
-		if (pk != null)
-		{
-			if (pk.isCancelled()) return null;
-			pk.setTaskName("Calculating expression data");
-			pk.setProgress(40);
-		}
+		compileCriterion();
 		calculateDataMap();
 
 		if (pk != null)
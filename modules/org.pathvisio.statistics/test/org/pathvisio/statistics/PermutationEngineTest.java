@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.statistics;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+
+import org.pathvisio.core.util.Stats;
+
+public class PermutationEngineTest extends TestCase
+{
+	private static final int NR_REFS = 200;
+
+	private PermutationEngine createEngine()
+	{
+		BitSet measured = new BitSet();
+		BitSet positive = new BitSet();
+		for (int i = 0; i < NR_REFS; ++i)
+		{
+			if (i % 2 == 0) measured.set(i);
+			if (i % 10 == 0) positive.set(i);
+		}
+		// pathway 0 is enriched for positive genes, pathway 1 is not
+		int[][] members = { { 0, 10, 20, 30, 40, 2, 4 }, { 1, 3, 5, 7, 9, 2, 4, 6 } };
+		int bigN = measured.cardinality();
+		int bigR = positive.cardinality();
+		double[] zscores = {
+				Stats.zscore(7, 5, bigN, bigR),
+				Stats.zscore(3, 0, bigN, bigR)
+		};
+		return new PermutationEngine(NR_REFS, measured, positive, members, zscores, bigN, bigR);
+	}
+
+	public void testReproducible()
+	{
+		PermutationEngine engine = createEngine();
+		int[] first = engine.countExtremer(999, 42, null);
+		int[] second = engine.countExtremer(999, 42, null);
+		assertTrue (Arrays.equals(first, second));
+	}
+
+	public void testPValues()
+	{
+		int[] extremer = createEngine().countExtremer(999, 1, null);
+		double[] pvals = PermutationEngine.toPValues(extremer, 999);
+
+		// an enriched pathway rarely gets a more extreme score by chance
+		assertTrue (pvals[0] < 0.05);
+		assertTrue (pvals[1] > 0.05);
+	}
+
+	public void testNoPermutations()
+	{
+		int[] extremer = createEngine().countExtremer(0, 1, null);
+		assertTrue (Arrays.equals(new int[] { 0, 0 }, extremer));
+		// no permutations is not the same as a significant result
+		double[] pvals = PermutationEngine.toPValues(extremer, 0);
+		assertTrue (Double.isNaN(pvals[0]));
+		assertTrue (Double.isNaN(pvals[1]));
+	}
+}
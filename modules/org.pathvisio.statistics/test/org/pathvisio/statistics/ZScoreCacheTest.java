@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2024 PathVisio
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.statistics;
+
+import java.io.File;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+import org.pathvisio.core.model.ObjectType;
+import org.pathvisio.core.model.Pathway;
+import org.pathvisio.core.model.PathwayElement;
+import org.pathvisio.core.preferences.PreferenceManager;
+import org.pathvisio.data.DataInterface;
+import org.pathvisio.data.IRow;
+import org.pathvisio.data.ISample;
+import org.pathvisio.desktop.gex.CachedData;
+import org.pathvisio.desktop.gex.IdMappingCache;
+import org.pathvisio.desktop.gex.ReporterData;
+import org.pathvisio.desktop.gex.Sample;
+import org.pathvisio.desktop.visualization.Criterion;
+
+/**
+ * Z-scores must not depend on the size of the expression data cache.
+ */
+public class ZScoreCacheTest extends TestCase
+{
+	private static final DataSource ENTREZ = DataSource.register("L", "Entrez Gene").asDataSource();
+	private static final int NR_PATHWAYS = 3;
+	private static final int NR_GENES = 12;
+
+	private final Sample sample = new Sample(0, "a", "", Types.REAL);
+	private final List<ReporterData> rows = new ArrayList<ReporterData>();
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		PreferenceManager.init();
+
+		dir = File.createTempFile("zscore", "");
+		dir.delete();
+		dir.mkdirs();
+		// overlapping pathways, with some genes that are not in the data
+		for (int p = 0; p < NR_PATHWAYS; ++p)
+		{
+			Pathway pathway = new Pathway();
+			pathway.getMappInfo().setMapInfoName("Pathway " + p);
+			for (int i = p * 3; i < p * 3 + 6; ++i)
+			{
+				PathwayElement node = PathwayElement.createPathwayElement(ObjectType.DATANODE);
+				node.setMCenterX(100);
+				node.setMCenterY(50 + 30 * i);
+				node.setMWidth(80);
+				node.setMHeight(20);
+				node.setTextLabel("Gene " + i);
+				node.setElementID("" + i);
+				node.setDataSource(ENTREZ);
+				pathway.add(node);
+			}
+			pathway.writeToXml(new File(dir, "pathway" + p + ".gpml"), true);
+		}
+
+		// genes 0 .. NR_GENES - 1 are measured, some of them twice
+		for (int i = 0; i < NR_GENES; ++i)
+		{
+			ReporterData row = new ReporterData(new Xref("" + i, ENTREZ), rows.size());
+			row.setSampleData(sample, "" + (i % 4));
+			rows.add(row);
+			if (i % 3 == 0)
+			{
+				ReporterData extra = new ReporterData(new Xref("" + i, ENTREZ), rows.size());
+				extra.setSampleData(sample, "" + (i % 5));
+				rows.add(extra);
+			}
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		for (File f : dir.listFiles()) f.delete();
+		dir.delete();
+	}
+
+	private StatisticsResult calculate(int cacheRows, boolean mappFinder) throws Exception
+	{
+		Criterion crit = new Criterion();
+		crit.setExpression("[a] > 1", Arrays.asList("a"));
+		CachedData gex = new CachedData(new ListSource(Arrays.<ISample>asList(sample), rows),
+				cacheRows, new IdMappingCache(100));
+		ZScoreCalculator calc = new ZScoreCalculator(crit, dir, gex, null, null);
+		calc.setPermutations(0);
+		return mappFinder ? calc.calculateMappFinder() : calc.calculateAlternative();
+	}
+
+	private static Map<File, StatisticsPathwayResult> byFile(StatisticsResult result)
+	{
+		Map<File, StatisticsPathwayResult> map = new HashMap<File, StatisticsPathwayResult>();
+		for (StatisticsPathwayResult r : result.getPathwayResults()) map.put(r.getFile(), r);
+		return map;
+	}
+
+	private void assertSameResult(StatisticsResult expected, StatisticsResult actual)
+	{
+		assertEquals(expected.getBigN(), actual.getBigN());
+		assertEquals(expected.getBigR(), actual.getBigR());
+		Map<File, StatisticsPathwayResult> expectedMap = byFile(expected);
+		Map<File, StatisticsPathwayResult> actualMap = byFile(actual);
+		assertEquals(NR_PATHWAYS, expectedMap.size());
+		assertEquals(expectedMap.keySet(), actualMap.keySet());
+		for (File f : expectedMap.keySet())
+		{
+			for (Column col : new Column[] { Column.N, Column.R, Column.TOTAL, Column.ZSCORE })
+			{
+				assertEquals(f + " " + col, expectedMap.get(f).getProperty(col),
+						actualMap.get(f).getProperty(col));
+			}
+		}
+	}
+
+	/**
+	 * A cache smaller than the set of genes in the pathways evicts rows
+	 * while they are read, that must not change the results.
+	 */
+	public void testSmallCache() throws Exception
+	{
+		for (boolean mappFinder : new boolean[] { false, true })
+		{
+			StatisticsResult expected = calculate(10000, mappFinder);
+			// sanity check: the pathways have measured genes
+			int n = Integer.parseInt(byFile(expected).get(new File(dir, "pathway0.gpml")).getProperty(Column.N));
+			assertTrue(n > 0);
+			assertSameResult(expected, calculate(1, mappFinder));
+			assertSameResult(expected, calculate(2, mappFinder));
+		}
+	}
+
+	/** in-memory data source */
+	private static class ListSource implements DataInterface
+	{
+		private final List<ISample> samples;
+		private final List<? extends IRow> rows;
+
+		ListSource(List<ISample> samples, List<? extends IRow> rows)
+		{
+			this.samples = samples;
+			this.rows = rows;
+		}
+
+		public ISample getSample(int id) { return samples.get(id); }
+		public ISample findSample(String name) { return null; }
+		public List<String> getSampleNames() { return null; }
+		public List<String> getSampleNames(int dataType) { return null; }
+		public List<? extends ISample> getOrderedSamples() { return samples; }
+		public Set<DataSource> getUsedDatasources()
+		{
+			Set<DataSource> result = new HashSet<DataSource>();
+			for (IRow row : rows) result.add(row.getXref().getDataSource());
+			return result;
+		}
+		public IRow getRow(int rowId) { return rows.get(rowId); }
+		public int getNrRow() { return rows.size(); }
+		public Collection<? extends IRow> getData(Set<Xref> destRefs)
+		{
+			List<IRow> result = new ArrayList<IRow>();
+			for (IRow row : rows) if (destRefs.contains(row.getXref())) result.add(row);
+			return result;
+		}
+		public Iterable<IRow> getIterator() { return new ArrayList<IRow>(rows); }
+		public boolean isConnected() { return true; }
+		public String getDbName() { return "test"; }
+		public void close() {}
+
+		public Map<Integer, ? extends ISample> getSamples()
+		{
+			Map<Integer, ISample> result = new HashMap<Integer, ISample>();
+			for (ISample s : samples) result.put(s.getId(), s);
+			return result;
+		}
+	}
+}
@@ -260,9 +260,9 @@ void drawArea(final GeneProduct gp, Rectangle area, Graphics2D g2d) {
 				Logger.log.trace("No colorset for sample " + s);
 				continue; //No ColorSet for this sample
 			}
-			if(cache.hasData(idc))
+			List<? extends IRow> data = cache.getData(idc);
+			if(data != null)
 			{
-				List<? extends IRow> data = cache.getData(idc);
 				if (data.size() > 0)
 				{
 					drawSample(s, data, r, g2d);
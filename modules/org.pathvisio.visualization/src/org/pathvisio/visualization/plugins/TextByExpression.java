@@ -108,9 +108,9 @@ public void visualizeOnDrawing(Graphics g, Graphics2D g2d) {
 			DataSource ds = gp.getPathwayElement().getDataSource();
 			Xref idc = new Xref(id, ds);
 
-			if(cache == null || !cache.hasData(idc)|| useSamples.size() == 0) {
-				return;
-			}
+			if(useSamples.size() == 0) return;
+			List<? extends IRow> data = cache.getData(idc);
+			if(data == null) return;
 
 			g2d = (Graphics2D)g2d.create();
 			g2d.setClip(null);
@@ -122,7 +122,7 @@ public void visualizeOnDrawing(Graphics g, Graphics2D g2d) {
 			int th = g2d.getFontMetrics().getHeight();
 			int w = 0, i = 0;
 			for(ISample s : useSamples) {
-				String str = getDataString(s, cache.getData(idc), SEP + "\n") +
+				String str = getDataString(s, data, SEP + "\n") +
 					(++i == useSamples.size() ? "" : SEP);
 				if (str.length() == 0) continue;
 				TextLayout tl = new TextLayout(str, f, g2d.getFontRenderContext());
@@ -142,9 +142,9 @@ public Component visualizeOnToolTip(Graphics g) {
 					gp.getPathwayElement().getElementID(),
 					gp.getPathwayElement().getDataSource());
 
-			if(!cache.hasData(idc)|| useSamples.size() == 0) {
-				return null;
-			}
+			if(cache == null || useSamples.size() == 0) return null;
+			List<? extends IRow> data = cache.getData(idc);
+			if(data == null) return null;
 
 			JPanel panel = new JPanel();
 			panel.setBorder(BorderFactory.createTitledBorder("Expression data"));
@@ -156,7 +156,7 @@ public Component visualizeOnToolTip(Graphics g) {
 				gbc.gridx = 0;
 				panel.add(new JLabel(getLabelLeftText(s)), gbc);
 				gbc.gridx = 1;
-				panel.add(new JLabel(getLabelRightText(s, cache.getData(idc))), gbc);
+				panel.add(new JLabel(getLabelRightText(s, data)), gbc);
 			}
 			return panel;
 		} else return null;